@@ -18,36 +18,49 @@ package com.example.android.pets;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.sync.PetSyncService;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<PetListItem>> {
     /** Tag for the log messages */
     private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
     /** Identifies a particular Loader being used in this component */
     private static final int PET_LOADER = 0;
 
-    private PetCursorAdapter mCursorAdapter;
+    /** Number of pets loaded at once by the {@link PetPageLoader}. */
+    private static final int PAGE_SIZE = 100;
+
+    /** Number of remaining rows below the visible ones at which the next page is loaded. */
+    private static final int PREFETCH_DISTANCE = 30;
+
+    private PetListAdapter mListAdapter;
+
+    /** Copy of the first rows, shown at launch until the loader delivers the pets. */
+    private PetListSnapshot mSnapshot;
+
+    /** View shown instead of the list when there are no pets. */
+    private View mEmptyView;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -64,22 +77,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find ListView to populate
-        ListView petListView = (ListView) findViewById(R.id.list);
+        // Find RecyclerView to populate
+        RecyclerView petListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petListView.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
-
-        // Setup listener that opens EditorActivity when ListView item is clicked.
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each pet. There is no pet data yet
+        // (until loader finishes). Clicking a pet opens it in the EditorActivity.
+        mListAdapter = new PetListAdapter(this, new PetListAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onPetClick(long id) {
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 // Set the URI on the data field of the intent.
                 intent.setData(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
@@ -87,11 +94,60 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(intent);
             }
         });
+        petListView.setAdapter(mListAdapter);
+
+        // Show the empty view only when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
+        mListAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-        // Initializes the CursorLoader. The URL_LOADER is eventually passed to onCreateLoader().
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Prefetch the next page of pets before the user reaches the end of the list.
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mListAdapter.getItemCount();
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (totalItemCount > 0 && lastVisibleItem >= totalItemCount - PREFETCH_DISTANCE) {
+                    Loader<List<PetListItem>> loader = getLoaderManager().getLoader(PET_LOADER);
+                    if (loader != null) {
+                        ((PetPageLoader) loader).loadNextPage();
+                    }
+                }
+            }
+        });
+
+        // Show the rows of the last launch right away, unless a retained loader delivers its pets anyway.
+        mSnapshot = new PetListSnapshot(this);
+        if (getLoaderManager().getLoader(PET_LOADER) == null) {
+            mListAdapter.submitList(mSnapshot.read());
+        }
+
+        // Initializes the PetPageLoader. The URL_LOADER is eventually passed to onCreateLoader().
         getLoaderManager().initLoader(PET_LOADER, null, this);
     }
 
+    /**
+     * Show the empty view if there are no pets in the list, hide it otherwise.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mListAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
     private void insertPet() {
         // Set {@link ContentValues} object with dummy data.
         ContentValues insert = new ContentValues();
@@ -100,13 +156,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         insert.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
         insert.put(PetEntry.COLUMN_PET_WEIGHT, 45);
 
-        // Call ContentResolver for insert dummy data.
-        Uri lastPet = getContentResolver().insert(PetEntry.CONTENT_URI, insert);
-
-        // If pet has been added show toast successful message, toast error message otherwise.
-        if (lastPet != null) {
-            Toast.makeText(this, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
-        } else {
+        // Insert the dummy data in the background.
+        boolean submitted = PetWriter.getInstance(this).insert(PetEntry.CONTENT_URI, insert, new PetWriter.Callback() {
+            @Override
+            public void onWriteComplete(PetWriter.Result result) {
+                // If pet has been added show toast successful message, toast error message otherwise.
+                Toast.makeText(getApplicationContext(), result.isSuccessful() ? R.string.editor_insert_pet_successful
+                        : R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+        if (!submitted) {
             Toast.makeText(this, R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
         }
     }
@@ -142,14 +201,21 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      * Helper method for delete all pets in the database.
      */
     private void deleteAllPets() {
-        // Use ContentResolver for delete all pets from database
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        // Show toast message depending on whether or not the delete was successful.
-        if (rowsDeleted != 0) {
-            // If rows were deleted, the delete was successful and we can display the toast.
-            Toast.makeText(this, R.string.editor_delete_all_pets_successful, Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, then there was an error with the delete.
+        // Delete all pets from the database in the background.
+        boolean submitted = PetWriter.getInstance(this).delete(PetEntry.CONTENT_URI, new PetWriter.Callback() {
+            @Override
+            public void onWriteComplete(PetWriter.Result result) {
+                // Show toast message depending on whether or not the delete was successful.
+                if (result.isSuccessful()) {
+                    // If rows were deleted, the delete was successful and we can display the toast.
+                    Toast.makeText(getApplicationContext(), R.string.editor_delete_all_pets_successful, Toast.LENGTH_SHORT).show();
+                } else {
+                    // Otherwise, then there was an error with the delete.
+                    Toast.makeText(getApplicationContext(), R.string.editor_delete_all_pets_failed, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        if (!submitted) {
             Toast.makeText(this, R.string.editor_delete_all_pets_failed, Toast.LENGTH_SHORT).show();
         }
     }
@@ -159,6 +225,8 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        // Syncing is only offered when a server has been configured.
+        menu.findItem(R.id.action_sync_now).setVisible(PetSyncService.isEnabled(this));
         return true;
     }
 
@@ -176,28 +244,21 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // Pop up confirmation dialog for deletion
                 showDeleteConfirmationDialog();
                 return true;
+            // Respond to a click on the "Sync now" menu option
+            case R.id.action_sync_now:
+                PetSyncService.start(this);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    public Loader<List<PetListItem>> onCreateLoader(int id, Bundle args) {
         switch (id) {
             case PET_LOADER:
-                // Define a projection that specifies the columns from the table we care about.
-                String[] projection = {
-                        PetEntry._ID,
-                        PetEntry.COLUMN_PET_NAME,
-                        PetEntry.COLUMN_PET_BREED
-                };
-
-                // Return a new CursorLoader
-                return new CursorLoader(this,   // Parent activity context
-                        PetEntry.CONTENT_URI,   // Provider context URI to query
-                        projection,             // Columns to include in the resulting Cursor
-                        null,                   // No selection clause
-                        null,                   // No selection arguments
-                        null                    // Default sort order
+                // Return a new loader which loads the pets page by page, ordered by ID.
+                return new PetPageLoader(this,  // Parent activity context
+                        PAGE_SIZE               // Number of pets in a single page
                 );
             default:
                 // An invalid id was passed in
@@ -206,15 +267,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data.
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<List<PetListItem>> loader, List<PetListItem> data) {
+        // Update {@link PetListAdapter} with the new list of pets, only changed rows are rebound.
+        mListAdapter.submitList(data);
+        // Keep the first rows for the next launch.
+        mSnapshot.save(data);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Clears out the adapter's reference to the Cursor.
-        // This prevent memory leaks.
-        mCursorAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<List<PetListItem>> loader) {
+        // Clears out the adapter's reference to the list of pets.
+        mListAdapter.submitList(Collections.<PetListItem>emptyList());
     }
 }
@@ -17,8 +17,10 @@ package com.example.android.pets;
 
 import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
@@ -50,6 +52,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** Identifies a particular Loader is being used in this component */
     private static final int PET_LOADER = 0;
 
+    /** Request code for picking a photo of the pet. */
+    private static final int REQUEST_CHOOSE_PHOTO = 1;
+
     /** Constant variable for checking if activity is in insert mode (for adding new pet). */
     private static final int INSERT_MODE = 0;
     /** Constant variable for checking if activity is in edit mode (for editing exists pet). */
@@ -159,29 +164,39 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         data.put(PetEntry.COLUMN_PET_GENDER, mGender);
         data.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
+        // Write the pet in the background, the result is shown once it has been written.
+        final Context appContext = getApplicationContext();
+        PetWriter writer = PetWriter.getInstance(this);
+        boolean submitted;
         // Check in which mode currently running activity.
         switch (mCurrentMode) {
             case INSERT_MODE:
                 // Insert data into the database
-                Uri lastPet = getContentResolver().insert(PetEntry.CONTENT_URI, data);
-
-                // If new pet has been added show {@link Toast} message with his ID,
-                // otherwise show {@link Toast} with error message.
-                if (lastPet != null) {
-                    Toast.makeText(this, R.string.editor_insert_pet_successful, Toast.LENGTH_SHORT).show();
-                } else {
+                submitted = writer.insert(PetEntry.CONTENT_URI, data, new PetWriter.Callback() {
+                    @Override
+                    public void onWriteComplete(PetWriter.Result result) {
+                        // If new pet has been added show {@link Toast} message,
+                        // otherwise show {@link Toast} with error message.
+                        Toast.makeText(appContext, result.isSuccessful() ? R.string.editor_insert_pet_successful
+                                : R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
+                    }
+                });
+                if (!submitted) {
                     Toast.makeText(this, R.string.editor_insert_pet_failed, Toast.LENGTH_SHORT).show();
                 }
                 break;
             case EDIT_MODE:
                 // Update data in the database
-                int petsUpdated = getContentResolver().update(mCurrentPetUri, data, null, null);
-
-                // If new pet has been added show {@link Toast} message with his ID,
-                // otherwise show {@link Toast} with error message.
-                if (petsUpdated != 0) {
-                    Toast.makeText(this, R.string.editor_update_pet_successful, Toast.LENGTH_SHORT).show();
-                } else {
+                submitted = writer.update(mCurrentPetUri, data, new PetWriter.Callback() {
+                    @Override
+                    public void onWriteComplete(PetWriter.Result result) {
+                        // If the pet has been updated show {@link Toast} message,
+                        // otherwise show {@link Toast} with error message.
+                        Toast.makeText(appContext, result.isSuccessful() ? R.string.editor_update_pet_successful
+                                : R.string.editor_update_pet_failed, Toast.LENGTH_SHORT).show();
+                    }
+                });
+                if (!submitted) {
                     Toast.makeText(this, R.string.editor_update_pet_failed, Toast.LENGTH_SHORT).show();
                 }
                 break;
@@ -285,22 +300,60 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return;
         }
 
-        // Use ContentResolver for delete pet from the database.
-        // Catch number of rows which were deleted.
-        int rowsAffected = getContentResolver().delete(mCurrentPetUri, null, null);
-
-        // Show a toast message depending on whether or not the delete was successful.
-        if (rowsAffected != 0) {
-            // If rows were deleted, the delete was successful and we can display a toast.
-            Toast.makeText(this, R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
-            // Close the activity
-            finish();
-        } else {
-            // Otherwise, then there was an error with the delete.
+        // Delete the pet in the background and close the activity once it has been deleted.
+        boolean submitted = PetWriter.getInstance(this).delete(mCurrentPetUri, new PetWriter.Callback() {
+            @Override
+            public void onWriteComplete(PetWriter.Result result) {
+                // Show a toast message depending on whether or not the delete was successful.
+                if (result.isSuccessful()) {
+                    // If rows were deleted, the delete was successful and we can display a toast.
+                    Toast.makeText(getApplicationContext(), R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
+                    // Close the activity
+                    finish();
+                } else {
+                    // Otherwise, then there was an error with the delete.
+                    Toast.makeText(getApplicationContext(), R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        if (!submitted) {
             Toast.makeText(this, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
         }
     }
 
+    /**
+     * Let the user pick a photo of the pet from the gallery or another app.
+     */
+    private void choosePhoto() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        if (intent.resolveActivity(getPackageManager()) != null) {
+            startActivityForResult(intent, REQUEST_CHOOSE_PHOTO);
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_CHOOSE_PHOTO || resultCode != RESULT_OK || data == null
+                || data.getData() == null || mCurrentPetUri == null) {
+            return;
+        }
+
+        // Copy the photo in the background, the catalog shows it once it has been stored.
+        boolean submitted = PetWriter.getInstance(this).setPhoto(mCurrentPetUri, data.getData(), new PetWriter.Callback() {
+            @Override
+            public void onWriteComplete(PetWriter.Result result) {
+                Toast.makeText(getApplicationContext(), result.isSuccessful()
+                        ? R.string.editor_photo_successful : R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+        if (!submitted) {
+            Toast.makeText(this, R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public void onBackPressed() {
         // If the pet hasn't changed, continue with handling back button press.
@@ -334,10 +387,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
-        // If this is a new pet, hide the "Delete" menu item.
+        // If this is a new pet, hide the "Delete" and "Choose Photo" menu items.
         if (mCurrentMode == INSERT_MODE) {
             MenuItem menuItem = menu.findItem(R.id.action_delete);
             menuItem.setVisible(false);
+            menu.findItem(R.id.action_choose_photo).setVisible(false);
         }
         return true;
     }
@@ -353,6 +407,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 // Exit activity
                 finish();
                 return true;
+            // Respond to a click on the "Choose Photo" menu option
+            case R.id.action_choose_photo:
+                choosePhoto();
+                return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
                 // Pop up confirmation dialog for deletion
@@ -0,0 +1,25 @@
+package com.example.android.pets;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * Application of the Pets app.
+ *
+ * Debug builds crash as soon as the pet provider is written on the main thread, so writes
+ * which bypass {@link PetWriter} are caught during development.
+ */
+public class PetApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.DEBUG) {
+            // The provider reports its writes on the main thread as custom slow calls.
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectCustomSlowCalls()
+                    .penaltyLog()
+                    .penaltyDeath()
+                    .build());
+        }
+    }
+}
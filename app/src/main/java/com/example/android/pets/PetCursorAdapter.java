@@ -1,54 +0,0 @@
-package com.example.android.pets;
-
-import android.content.Context;
-import android.database.Cursor;
-import android.text.TextUtils;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.CursorAdapter;
-import android.widget.TextView;
-
-import com.example.android.pets.data.PetContract.PetEntry;
-
-public class PetCursorAdapter extends CursorAdapter {
-    /**
-     * Constructs a new {@link PetCursorAdapter}.
-     * @param context   The context.
-     * @param c         The cursor from which to get the data.
-     */
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
-    }
-
-    /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
-     *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
-     */
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
-    }
-
-    @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // Find fields to populate in inflated template.
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView summaryTextView = (TextView) view.findViewById(R.id.summary);
-        // Extract properties from cursor
-        String name = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME));
-        String breed = cursor.getString(cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED));
-        // If breed is empty show "Unknown breed" instead.
-        if (TextUtils.isEmpty(breed)) {
-            breed = context.getString(R.string.unknown_breed);
-        }
-        // Populate fields with extracted properties
-        nameTextView.setText(name);
-        summaryTextView.setText(breed);
-    }
-}
@@ -0,0 +1,211 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link RecyclerView.Adapter} for the list of pets in the catalog.
+ *
+ * A new list is compared with the current one on a background thread, keyed by pet ID,
+ * and only the inserted, removed and changed rows are dispatched to the {@link RecyclerView}.
+ * Pet photos are loaded by {@link PetThumbnailLoader}, so binding a row never decodes a photo.
+ */
+public class PetListAdapter extends RecyclerView.Adapter<PetListAdapter.ViewHolder> {
+    /** Background thread on which the differences between two lists are computed. */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    /** Handler for dispatching the computed differences on the main thread. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Label shown instead of an empty breed. */
+    private final String mUnknownBreed;
+
+    /** Listener called when a pet in the list is clicked. */
+    private final OnPetClickListener mClickListener;
+
+    /** Loads the photo thumbnails in the background. */
+    private final PetThumbnailLoader mThumbnails;
+
+    /** Width and height of a thumbnail in pixels. */
+    private final int mThumbnailSize;
+
+    /** Shown instead of a thumbnail which is not loaded yet, or of a missing photo. */
+    private final Drawable mThumbnailPlaceholder;
+
+    /** Pets currently shown in the list. */
+    private List<PetListItem> mItems = Collections.emptyList();
+
+    /** Incremented with every submitted list, so outdated differences are dropped. */
+    private int mGeneration;
+
+    /**
+     * Listener for clicks on pets in the list.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    /**
+     * Holds the views of a list item, so they are looked up only once per inflated view.
+     */
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final ImageView photoImageView;
+        final TextView nameTextView;
+        final TextView summaryTextView;
+
+        ViewHolder(View view) {
+            super(view);
+            photoImageView = (ImageView) view.findViewById(R.id.photo);
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                mClickListener.onPetClick(mItems.get(position).id);
+            }
+        }
+    }
+
+    /**
+     * Constructs a new {@link PetListAdapter}.
+     * @param context       The context.
+     * @param clickListener Listener called when a pet in the list is clicked.
+     */
+    public PetListAdapter(Context context, OnPetClickListener clickListener) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mClickListener = clickListener;
+        mThumbnails = PetThumbnailLoader.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mThumbnailPlaceholder = new ColorDrawable(ContextCompat.getColor(context, R.color.thumbnailPlaceholder));
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given list of pets. The differences to the current list are computed
+     * in the background and then dispatched to the {@link RecyclerView}.
+     */
+    public void submitList(final List<PetListItem> newItems) {
+        final int generation = ++mGeneration;
+        final List<PetListItem> oldItems = mItems;
+
+        // Nothing to compare, so skip the background work.
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            mItems = newItems;
+            if (!oldItems.isEmpty()) {
+                notifyItemRangeRemoved(0, oldItems.size());
+            } else if (!newItems.isEmpty()) {
+                notifyItemRangeInserted(0, newItems.size());
+            }
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new PetDiffCallback(oldItems, newItems), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list has been submitted in the meantime.
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mItems = newItems;
+                        result.dispatchUpdatesTo(PetListAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        PetListItem item = mItems.get(position);
+        // If breed is empty show "Unknown breed" instead.
+        String breed = item.breed;
+        if (TextUtils.isEmpty(breed)) {
+            breed = mUnknownBreed;
+        }
+        // Populate fields with the properties of the pet
+        holder.nameTextView.setText(item.name);
+        holder.summaryTextView.setText(breed);
+        mThumbnails.load(holder.photoImageView, item.id, item.photo, mThumbnailSize, mThumbnailPlaceholder);
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        // The row shows another pet next, so its photo is not needed anymore.
+        mThumbnails.cancel(holder.photoImageView);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).id;
+    }
+
+    /**
+     * Compares two lists of pets, matching the rows by pet ID.
+     */
+    private static class PetDiffCallback extends DiffUtil.Callback {
+        private final List<PetListItem> mOldItems;
+        private final List<PetListItem> mNewItems;
+
+        PetDiffCallback(List<PetListItem> oldItems, List<PetListItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).id == mNewItems.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).equals(mNewItems.get(newItemPosition));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.pets;
+
+import android.text.TextUtils;
+
+/**
+ * A single pet shown in the catalog list.
+ */
+public final class PetListItem {
+    /** ID of the pet in the database. */
+    public final long id;
+    /** Name of the pet. */
+    public final String name;
+    /** Breed of the pet, may be null or empty. */
+    public final String breed;
+    /** Name of the photo file of the pet, or null if it has no photo. */
+    public final String photo;
+
+    public PetListItem(long id, String name, String breed, String photo) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.photo = photo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PetListItem)) {
+            return false;
+        }
+        PetListItem other = (PetListItem) o;
+        return id == other.id && TextUtils.equals(name, other.name) && TextUtils.equals(breed, other.breed)
+                && TextUtils.equals(photo, other.photo);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (breed != null ? breed.hashCode() : 0);
+        result = 31 * result + (photo != null ? photo.hashCode() : 0);
+        return result;
+    }
+}
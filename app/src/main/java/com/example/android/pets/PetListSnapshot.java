@@ -0,0 +1,209 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Compact binary copy of the first catalog rows, so the catalog can show them at launch
+ * before the database has been opened and the first page has been queried.
+ *
+ * The snapshot is read through a memory-mapped file. It is rewritten in the background
+ * whenever the first rows of a loaded list differ from the saved ones, into a temporary
+ * file which then replaces the snapshot, so a reader never sees a partly written file.
+ *
+ * File format, big-endian: magic, version and row count as ints, then per row the pet ID
+ * as a long, the UTF-8 length of the name as an int followed by the name, and the same for
+ * the breed and the photo name, with a length of -1 for null.
+ */
+public final class PetListSnapshot {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetListSnapshot.class.getSimpleName();
+
+    /** Maximum number of rows in the snapshot, enough for the first two screens. */
+    public static final int MAX_ITEMS = 40;
+
+    /** Name of the snapshot file in the files directory of the app. */
+    private static final String FILE_NAME = "catalog.snapshot";
+
+    private static final int MAGIC = 0x50455453;
+    private static final int VERSION = 2;
+
+    /** Largest valid snapshot file, larger files are ignored. */
+    private static final int MAX_FILE_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Background thread on which the snapshots are written, one after the other. */
+    private static final Executor sWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private final File mFile;
+
+    /** Rows of the last read or written snapshot, only used on the main thread. */
+    private List<PetListItem> mSavedItems = Collections.emptyList();
+
+    /**
+     * Constructs the snapshot of the catalog of the app.
+     */
+    public PetListSnapshot(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Constructs a snapshot stored in the given file.
+     */
+    public PetListSnapshot(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Read the rows of the snapshot.
+     * @return The rows, or an empty list if there is no valid snapshot.
+     */
+    public List<PetListItem> read() {
+        if (!mFile.exists()) {
+            return Collections.emptyList();
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                if (size > MAX_FILE_SIZE) {
+                    return Collections.emptyList();
+                }
+                List<PetListItem> items = decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                mSavedItems = items;
+                return items;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read catalog snapshot", e);
+            return Collections.emptyList();
+        } catch (BufferUnderflowException e) {
+            Log.w(LOG_TAG, "Ignoring truncated catalog snapshot", e);
+            return Collections.emptyList();
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring invalid catalog snapshot", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Save the first rows of the given list in the background, unless they are already saved.
+     * Has to be called on the main thread.
+     */
+    public void save(List<PetListItem> items) {
+        final List<PetListItem> firstItems =
+                new ArrayList<>(items.subList(0, Math.min(MAX_ITEMS, items.size())));
+        if (firstItems.equals(mSavedItems)) {
+            return;
+        }
+        mSavedItems = firstItems;
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(firstItems);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to write catalog snapshot", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace the snapshot with the first rows of the given list.
+     */
+    public void write(List<PetListItem> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = Math.min(MAX_ITEMS, items.size());
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            PetListItem item = items.get(i);
+            out.writeLong(item.id);
+            writeString(out, item.name);
+            writeString(out, item.breed);
+            writeString(out, item.photo);
+        }
+        out.flush();
+
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            bytes.writeTo(fileOut);
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + mFile);
+        }
+    }
+
+    /**
+     * Decode the rows of a snapshot.
+     * @throws IllegalArgumentException If the snapshot has an unknown format.
+     */
+    private static List<PetListItem> decode(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalArgumentException("Unknown snapshot format");
+        }
+        int count = buffer.getInt();
+        if (count < 0 || count > MAX_ITEMS) {
+            throw new IllegalArgumentException("Invalid row count " + count);
+        }
+        List<PetListItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = buffer.getLong();
+            String name = readString(buffer);
+            String breed = readString(buffer);
+            String photo = readString(buffer);
+            items.add(new PetListItem(id, name, breed, photo));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
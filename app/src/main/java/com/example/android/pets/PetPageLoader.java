@@ -0,0 +1,407 @@
+package com.example.android.pets;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the list of pets page by page, using keyset pagination of the pets URI.
+ *
+ * The first page is loaded when the loader starts, further pages are appended on demand
+ * with {@link #loadNextPage()}. When the pet data changes, all pages which are currently
+ * loaded are queried again. Every page is read into {@link PetListItem}s on the background
+ * thread and its cursor is closed right away.
+ *
+ * Changes of single pets, notified with {@link PetEntry#buildChangeUri}, only query the
+ * changed pets again and patch them into the loaded pages. Notifications without a pet ID,
+ * and more than {@link #MAX_ROW_CHANGES} pending pet changes, query all pages again.
+ */
+public class PetPageLoader extends AsyncTaskLoader<List<PetListItem>> {
+    /** Columns read from the pets URI. */
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_PHOTO
+    };
+
+    /** Number of pending pet changes above which all pages are queried again instead. */
+    private static final int MAX_ROW_CHANGES = 20;
+
+    /** Maximum number of pets in a single page. */
+    private final int mPageSize;
+
+    /** Observes the pets URI and all of its descendants. */
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver() {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Before API 16 there is no URI, so any pets may have changed.
+            mReloadRequested = true;
+            super.onChange(selfChange);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // New weight measurements do not change the listed pets.
+            if (isWeightChange(uri)) {
+                return;
+            }
+            if (!addRowChange(uri)) {
+                mReloadRequested = true;
+            }
+            super.onChange(selfChange);
+        }
+    };
+
+    /** Changes of single pets which have not been delivered yet, by pet ID. Guarded by itself. */
+    private final Map<Long, RowChange> mRowChanges = new HashMap<>();
+
+    /** Sequence of the last pet change. */
+    private final AtomicLong mRowChangeSequence = new AtomicLong();
+
+    /** The result of the last load. */
+    private volatile Pages mPages;
+
+    /** True if all loaded pages have to be queried again, because the pet data has changed. */
+    private volatile boolean mReloadRequested = true;
+
+    /** True if the next page has been requested, but not delivered yet. */
+    private volatile boolean mNextPageRequested;
+
+    /** True if {@link #mObserver} is registered. */
+    private boolean mObserverRegistered;
+
+    /**
+     * All pets loaded so far.
+     */
+    private static class Pages {
+        /** Loaded pets, ordered by ID. */
+        final List<PetListItem> items;
+        /** Number of loaded pages. */
+        final int pageCount;
+        /** True if the last page was full, so there may be more pets to load. */
+        final boolean hasMore;
+        /** True if the pages have been queried again from scratch. */
+        final boolean reloaded;
+        /** Pet changes applied by the load of these pages, by pet ID. */
+        final Map<Long, RowChange> appliedChanges;
+
+        Pages(List<PetListItem> items, int pageCount, boolean hasMore, boolean reloaded,
+              Map<Long, RowChange> appliedChanges) {
+            this.items = Collections.unmodifiableList(items);
+            this.pageCount = pageCount;
+            this.hasMore = hasMore;
+            this.reloaded = reloaded;
+            this.appliedChanges = appliedChanges;
+        }
+    }
+
+    /**
+     * The last notified change of a single pet.
+     */
+    private static class RowChange {
+        /** The kind of change, e.g. {@link PetContract#OP_UPDATE}. */
+        final String op;
+        /** Increases with every change, so a newer change of the same pet is not dropped. */
+        final long sequence;
+
+        RowChange(String op, long sequence) {
+            this.op = op;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Constructs a new {@link PetPageLoader}.
+     * @param context   The context.
+     * @param pageSize  Maximum number of pets in a single page.
+     */
+    public PetPageLoader(Context context, int pageSize) {
+        super(context);
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Load the page after the last loaded one, if there is any.
+     * Calling this again before the page has been delivered does nothing.
+     */
+    public void loadNextPage() {
+        Pages pages = mPages;
+        if (pages == null || !pages.hasMore || mNextPageRequested) {
+            return;
+        }
+        mNextPageRequested = true;
+        onContentChanged();
+    }
+
+    @Override
+    public List<PetListItem> loadInBackground() {
+        Pages current = mPages;
+        Map<Long, RowChange> rowChanges;
+        synchronized (mRowChanges) {
+            rowChanges = new HashMap<>(mRowChanges);
+        }
+        Pages result;
+        if (current == null || mReloadRequested || rowChanges.size() > MAX_ROW_CHANGES) {
+            // Reloading covers all pending changes as well.
+            result = reloadPages(current == null ? 1 : Math.max(1, current.pageCount), rowChanges);
+        } else {
+            result = current;
+            if (!rowChanges.isEmpty()) {
+                result = applyRowChanges(result, rowChanges);
+            }
+            if (mNextPageRequested) {
+                result = appendPage(result);
+            }
+        }
+        mPages = result;
+        return result.items;
+    }
+
+    /**
+     * Record the change of a single pet from a change notification.
+     * @return False if the notification is not about a single pet.
+     */
+    private boolean addRowChange(Uri uri) {
+        String op = uri == null ? null : uri.getQueryParameter(PetContract.QUERY_PARAM_OP);
+        if (op == null) {
+            return false;
+        }
+        long id;
+        try {
+            id = ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (id < 0) {
+            return false;
+        }
+        synchronized (mRowChanges) {
+            mRowChanges.put(id, new RowChange(op, mRowChangeSequence.incrementAndGet()));
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the given change notification is about the weight history of a pet.
+     */
+    private static boolean isWeightChange(Uri uri) {
+        if (uri == null) {
+            return false;
+        }
+        List<String> segments = uri.getPathSegments();
+        return segments.size() > 2 && PetContract.PATH_WEIGHTS.equals(segments.get(2));
+    }
+
+    /**
+     * Query the given number of pages again, starting with the first page.
+     */
+    private Pages reloadPages(int pageCount, Map<Long, RowChange> rowChanges) {
+        List<PetListItem> items = new ArrayList<>(pageCount * mPageSize);
+        int loadedPages = 0;
+        boolean hasMore = true;
+        while (hasMore && loadedPages < pageCount) {
+            long lastId = items.isEmpty() ? 0 : items.get(items.size() - 1).id;
+            hasMore = queryPage(lastId, items) == mPageSize;
+            loadedPages++;
+        }
+        return new Pages(items, loadedPages, hasMore, true, rowChanges);
+    }
+
+    /**
+     * Query the page after the last loaded page, keeping the loaded pets.
+     */
+    private Pages appendPage(Pages current) {
+        if (!current.hasMore) {
+            return current;
+        }
+        List<PetListItem> items = new ArrayList<>(current.items.size() + mPageSize);
+        items.addAll(current.items);
+        long lastId = items.isEmpty() ? 0 : items.get(items.size() - 1).id;
+        boolean hasMore = queryPage(lastId, items) == mPageSize;
+        return new Pages(items, current.pageCount + 1, hasMore, false, current.appliedChanges);
+    }
+
+    /**
+     * Query the changed pets one by one and patch them into the loaded pages. Pets after
+     * the last loaded page are left for the page that will load them.
+     */
+    private Pages applyRowChanges(Pages current, Map<Long, RowChange> rowChanges) {
+        List<PetListItem> items = new ArrayList<>(current.items);
+        long lastLoadedId = items.isEmpty() ? 0 : items.get(items.size() - 1).id;
+        for (Map.Entry<Long, RowChange> rowChange : rowChanges.entrySet()) {
+            long id = rowChange.getKey();
+            if (current.hasMore && id > lastLoadedId) {
+                continue;
+            }
+            PetListItem item = PetContract.OP_DELETE.equals(rowChange.getValue().op) ? null : queryPet(id);
+            int position = indexOfId(items, id);
+            if (item == null) {
+                // The pet has been deleted, possibly after an earlier change.
+                if (position >= 0) {
+                    items.remove(position);
+                }
+            } else if (position >= 0) {
+                items.set(position, item);
+            } else {
+                items.add(-position - 1, item);
+            }
+        }
+        return new Pages(items, current.pageCount, current.hasMore, false, rowChanges);
+    }
+
+    /**
+     * Return the position of the pet with the given ID in the list ordered by ID, or
+     * {@code -(insertion point) - 1} if it is not in the list.
+     */
+    private static int indexOfId(List<PetListItem> items, long id) {
+        int low = 0;
+        int high = items.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = items.get(middle).id;
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Query a single pet.
+     * @return The pet, or null if it does not exist.
+     */
+    private PetListItem queryPet(long id) {
+        Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+        Cursor pet = getContext().getContentResolver().query(petUri, PROJECTION, null, null, null);
+        if (pet == null) {
+            throw new IllegalStateException("Cannot query " + petUri);
+        }
+        try {
+            if (!pet.moveToFirst()) {
+                return null;
+            }
+            return new PetListItem(pet.getLong(pet.getColumnIndexOrThrow(PetEntry._ID)),
+                    pet.getString(pet.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)),
+                    pet.getString(pet.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED)),
+                    pet.getString(pet.getColumnIndexOrThrow(PetEntry.COLUMN_PET_PHOTO)));
+        } finally {
+            pet.close();
+        }
+    }
+
+    /**
+     * Query a single page of pets with an ID greater than the given one and add them to the list.
+     * @return The number of pets in the page.
+     */
+    private int queryPage(long afterId, List<PetListItem> items) {
+        Uri pageUri = PetEntry.buildPageUri(afterId, mPageSize);
+        Cursor page = getContext().getContentResolver().query(pageUri, PROJECTION, null, null, null);
+        if (page == null) {
+            throw new IllegalStateException("Cannot query " + pageUri);
+        }
+        try {
+            int idColumnIndex = page.getColumnIndexOrThrow(PetEntry._ID);
+            int nameColumnIndex = page.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            int breedColumnIndex = page.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+            int photoColumnIndex = page.getColumnIndexOrThrow(PetEntry.COLUMN_PET_PHOTO);
+            while (page.moveToNext()) {
+                items.add(new PetListItem(page.getLong(idColumnIndex),
+                        page.getString(nameColumnIndex),
+                        page.getString(breedColumnIndex),
+                        page.getString(photoColumnIndex)));
+            }
+            return page.getCount();
+        } finally {
+            page.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<PetListItem> items) {
+        if (isReset()) {
+            return;
+        }
+        Pages pages = mPages;
+        if (pages != null && pages.items == items) {
+            if (pages.reloaded) {
+                mReloadRequested = false;
+            }
+            // Keep the changes notified while loading, they are applied by the next load.
+            synchronized (mRowChanges) {
+                for (Map.Entry<Long, RowChange> applied : pages.appliedChanges.entrySet()) {
+                    RowChange pending = mRowChanges.get(applied.getKey());
+                    if (pending != null && pending.sequence == applied.getValue().sequence) {
+                        mRowChanges.remove(applied.getKey());
+                    }
+                }
+            }
+        }
+        mNextPageRequested = false;
+
+        if (isStarted()) {
+            super.deliverResult(items);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        Pages pages = mPages;
+        if (pages != null) {
+            super.deliverResult(pages.items);
+        }
+        if (takeContentChanged() || pages == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible.
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(List<PetListItem> items) {
+        mNextPageRequested = false;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped.
+        onStopLoading();
+
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mPages = null;
+        mReloadRequested = true;
+        mNextPageRequested = false;
+        synchronized (mRowChanges) {
+            mRowChanges.clear();
+        }
+    }
+}
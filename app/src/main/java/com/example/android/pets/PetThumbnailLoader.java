@@ -0,0 +1,351 @@
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads square thumbnails of pet photos into {@link ImageView}s.
+ *
+ * Photos are decoded and downsampled on a small background pool, never on the main thread.
+ * Thumbnails are kept in a memory cache bounded by bytes and in a bounded disk cache, both
+ * keyed by photo name and size; a new photo always has a new name, so cached thumbnails
+ * never go stale. A view has at most one pending request, which is cancelled when the view
+ * is bound to another pet or recycled.
+ */
+public final class PetThumbnailLoader {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /** Number of threads decoding photos. */
+    private static final int THREAD_COUNT = 2;
+
+    /** Part of the memory class of the app used by the memory cache. */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /** Maximum size of the disk cache, which is trimmed to 3/4 of it when exceeded. */
+    private static final long MAX_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+
+    /** Name of the disk cache directory in the cache directory of the app. */
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    private static final int JPEG_QUALITY = 85;
+
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskCacheDirectory;
+    private final ExecutorService mExecutor;
+
+    /** Handler for showing the loaded thumbnails on the main thread. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Total size of the disk cache, or -1 until it has been computed. Guarded by mDiskCacheDirectory. */
+    private long mDiskCacheBytes = -1;
+
+    /**
+     * Loading of a single thumbnail into a view.
+     */
+    private final class Request implements Runnable {
+        final ImageView view;
+        final long petId;
+        final String photo;
+        final int size;
+        final String key;
+        Future<?> future;
+        /** Set on the main thread when the request is cancelled. */
+        volatile boolean cancelled;
+
+        Request(ImageView view, long petId, String photo, int size) {
+            this.view = view;
+            this.petId = petId;
+            this.photo = photo;
+            this.size = size;
+            this.key = photo + "_" + size;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadThumbnail(this);
+            if (bitmap != null) {
+                mMemoryCache.put(key, bitmap);
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have been bound to another pet in the meantime.
+                    if (cancelled || view.getTag(R.id.thumbnail_request) != Request.this) {
+                        return;
+                    }
+                    view.setTag(R.id.thumbnail_request, null);
+                    if (bitmap != null) {
+                        view.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    private PetThumbnailLoader(Context context) {
+        mResolver = context.getContentResolver();
+        int memoryClass = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
+        mMemoryCache = new LruCache<String, Bitmap>(memoryClass * 1024 * 1024 / MEMORY_CACHE_FRACTION) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /** Return the thumbnail loader of the application. */
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the thumbnail of a pet photo in the given view, cancelling the previous request
+     * of the view. A cached thumbnail is shown right away, otherwise the placeholder is shown
+     * until the thumbnail has been loaded in the background. Has to be called on the main thread.
+     * @param photo The photo name of the pet, or null to only show the placeholder.
+     * @param size  The width and height of the thumbnail in pixels.
+     */
+    public void load(ImageView view, long petId, String photo, int size, Drawable placeholder) {
+        cancel(view);
+        if (photo == null) {
+            view.setImageDrawable(placeholder);
+            return;
+        }
+        Request request = new Request(view, petId, photo, size);
+        Bitmap cached = mMemoryCache.get(request.key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(placeholder);
+        view.setTag(R.id.thumbnail_request, request);
+        request.future = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel the pending request of the given view, e.g. when it is recycled.
+     * Has to be called on the main thread.
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag(R.id.thumbnail_request);
+        if (request == null) {
+            return;
+        }
+        request.cancelled = true;
+        // A running decode is not interrupted, so it never leaves a partly written cache file.
+        request.future.cancel(false);
+        view.setTag(R.id.thumbnail_request, null);
+    }
+
+    /**
+     * Return the thumbnail of the request from the disk cache, or decode it from the photo.
+     * @return The thumbnail, or null if the photo cannot be read or the request was cancelled.
+     */
+    private Bitmap loadThumbnail(Request request) {
+        File cacheFile = new File(mDiskCacheDirectory, request.key + ".jpg");
+        if (cacheFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cacheFile.getPath());
+            if (bitmap != null) {
+                // Keep recently used thumbnails when the disk cache is trimmed.
+                cacheFile.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        Uri photoUri = PetEntry.buildPhotoUri(request.petId);
+        try {
+            // Read the dimensions first, so the photo is decoded at the smallest sufficient size.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decode(photoUri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0 || request.cancelled) {
+                return null;
+            }
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, request.size);
+            options.inJustDecodeBounds = false;
+            Bitmap bitmap = decode(photoUri, options);
+            if (bitmap == null || request.cancelled) {
+                return bitmap;
+            }
+
+            // Scale the shorter side down to the thumbnail size; the view crops the rest.
+            int shortSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+            if (shortSide > request.size) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                        bitmap.getWidth() * request.size / shortSide,
+                        bitmap.getHeight() * request.size / shortSide, true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaled;
+                }
+            }
+            writeToDiskCache(cacheFile, bitmap);
+            return bitmap;
+        } catch (FileNotFoundException e) {
+            // The photo has been replaced or the pet deleted, a newer request follows.
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to load photo of pet " + request.petId, e);
+            return null;
+        }
+    }
+
+    private Bitmap decode(Uri photoUri, BitmapFactory.Options options) throws IOException {
+        InputStream in = mResolver.openInputStream(photoUri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + photoUri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the largest power of two by which the photo can be downsampled while its
+     * shorter side stays at least as large as the thumbnail.
+     */
+    static int sampleSize(int width, int height, int size) {
+        int shortSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shortSide / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Store a thumbnail in the disk cache and trim the cache if it has grown too large.
+     */
+    private void writeToDiskCache(File cacheFile, Bitmap bitmap) {
+        synchronized (mDiskCacheDirectory) {
+            if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+                Log.w(LOG_TAG, "Cannot create " + mDiskCacheDirectory);
+                return;
+            }
+            if (mDiskCacheBytes < 0) {
+                mDiskCacheBytes = 0;
+                for (File file : listDiskCache()) {
+                    mDiskCacheBytes += file.length();
+                }
+            }
+        }
+
+        // Write to a temporary file first, so readers never decode a partly written thumbnail.
+        File tempFile = new File(cacheFile.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to cache thumbnail " + cacheFile, e);
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (mDiskCacheDirectory) {
+            long previousLength = cacheFile.length();
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+                return;
+            }
+            mDiskCacheBytes += cacheFile.length() - previousLength;
+            if (mDiskCacheBytes > MAX_DISK_CACHE_BYTES) {
+                trimDiskCache();
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used thumbnails until the disk cache is at 3/4 of its maximum.
+     * Has to hold the lock of {@link #mDiskCacheDirectory}.
+     */
+    private void trimDiskCache() {
+        File[] files = listDiskCache();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                return aModified < bModified ? -1 : (aModified == bModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mDiskCacheBytes <= MAX_DISK_CACHE_BYTES * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskCacheBytes -= length;
+            }
+        }
+    }
+
+    /** Return the thumbnails in the disk cache, without temporary files. */
+    private File[] listDiskCache() {
+        File[] files = mDiskCacheDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".jpg")) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs the inserts, updates and deletes of the activities on a single background thread,
+ * in the order in which they were submitted, and reports their results on the main thread.
+ *
+ * At most {@link #MAX_PENDING_WRITES} writes wait at once. An update of a URI which is still
+ * waiting to be written is merged into the waiting update, as long as no other write in
+ * between touches the same pets.
+ */
+public final class PetWriter {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    /** Maximum number of writes waiting for the writer thread. */
+    public static final int MAX_PENDING_WRITES = 64;
+
+    /** Possible kinds of writes */
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+    private static final int PHOTO = 3;
+
+    private static PetWriter sInstance;
+
+    private final ContentResolver mResolver;
+
+    /** Handler for delivering the results on the main thread. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes waiting for the writer thread, guarded by itself. */
+    private final ArrayDeque<Write> mPendingWrites = new ArrayDeque<>();
+
+    /** The writer thread, started with the first write. */
+    private Thread mWriterThread;
+
+    /**
+     * Callback for the result of a write, called on the main thread.
+     */
+    public interface Callback {
+        void onWriteComplete(Result result);
+    }
+
+    /**
+     * Result of a write.
+     */
+    public static final class Result {
+        /** URI of the inserted pet, or null if it was not an insert or the insert failed. */
+        public final Uri insertedUri;
+        /** Number of updated or deleted rows, or 1 for a stored photo. */
+        public final int rowsAffected;
+        /** The exception thrown by the provider, e.g. for invalid values, or null. */
+        public final RuntimeException error;
+
+        Result(Uri insertedUri, int rowsAffected, RuntimeException error) {
+            this.insertedUri = insertedUri;
+            this.rowsAffected = rowsAffected;
+            this.error = error;
+        }
+
+        /** Return true if the write inserted, updated or deleted at least one pet. */
+        public boolean isSuccessful() {
+            return error == null && (insertedUri != null || rowsAffected > 0);
+        }
+    }
+
+    /**
+     * A submitted write and the callbacks waiting for its result.
+     */
+    private static class Write {
+        final int type;
+        final Uri uri;
+        final ContentValues values;
+        /** Content to copy into the photo of the pet, only for photos. */
+        final Uri source;
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        Write(int type, Uri uri, ContentValues values, Uri source, Callback callback) {
+            this.type = type;
+            this.uri = uri;
+            // Copy the values, so the caller can reuse them and merges do not change them.
+            this.values = values == null ? null : new ContentValues(values);
+            this.source = source;
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+
+        /** Return true if this write can change pets which are also written by the given write. */
+        boolean overlaps(Write other) {
+            String uri = this.uri.toString();
+            String otherUri = other.uri.toString();
+            return uri.equals(otherUri) || uri.startsWith(otherUri + "/") || otherUri.startsWith(uri + "/");
+        }
+    }
+
+    private PetWriter(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /** Return the writer of the application. */
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Insert a pet in the background.
+     * @return False if too many writes are waiting, in which case nothing is written.
+     */
+    public boolean insert(Uri uri, ContentValues values, Callback callback) {
+        return submit(new Write(INSERT, uri, values, null, callback));
+    }
+
+    /**
+     * Update pets in the background.
+     * @return False if too many writes are waiting, in which case nothing is written.
+     */
+    public boolean update(Uri uri, ContentValues values, Callback callback) {
+        return submit(new Write(UPDATE, uri, values, null, callback));
+    }
+
+    /**
+     * Delete pets in the background.
+     * @return False if too many writes are waiting, in which case nothing is written.
+     */
+    public boolean delete(Uri uri, Callback callback) {
+        return submit(new Write(DELETE, uri, null, null, callback));
+    }
+
+    /**
+     * Replace the photo of a pet with a copy of the given content in the background.
+     * @param petUri    The URI of the pet.
+     * @param source    The URI of the new photo, e.g. as picked from the gallery.
+     * @return False if too many writes are waiting, in which case nothing is written.
+     */
+    public boolean setPhoto(Uri petUri, Uri source, Callback callback) {
+        return submit(new Write(PHOTO, petUri, null, source, callback));
+    }
+
+    private boolean submit(Write write) {
+        synchronized (mPendingWrites) {
+            if (write.type == UPDATE && mergeUpdate(write)) {
+                return true;
+            }
+            if (mPendingWrites.size() >= MAX_PENDING_WRITES) {
+                Log.w(LOG_TAG, "Too many pending writes, dropping write of " + write.uri);
+                return false;
+            }
+            mPendingWrites.add(write);
+            if (mWriterThread == null) {
+                mWriterThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeAll();
+                    }
+                }, LOG_TAG);
+                mWriterThread.start();
+            } else {
+                mPendingWrites.notify();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Merge the given update into the last waiting update of the same URI, if no waiting
+     * write after that one touches the same pets. Has to hold the lock of {@link #mPendingWrites}.
+     * @return True if the update has been merged.
+     */
+    private boolean mergeUpdate(Write update) {
+        Iterator<Write> iterator = mPendingWrites.descendingIterator();
+        while (iterator.hasNext()) {
+            Write pending = iterator.next();
+            if (!pending.overlaps(update)) {
+                continue;
+            }
+            if (pending.type != UPDATE || !pending.uri.equals(update.uri)) {
+                return false;
+            }
+            // Later values win, as they would if both updates were written in order.
+            pending.values.putAll(update.values);
+            pending.callbacks.addAll(update.callbacks);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Loop of the writer thread, writing the waiting writes one by one.
+     */
+    private void writeAll() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            Write write;
+            synchronized (mPendingWrites) {
+                while (mPendingWrites.isEmpty()) {
+                    try {
+                        mPendingWrites.wait();
+                    } catch (InterruptedException e) {
+                        // Keep waiting, the writer lives as long as the process.
+                    }
+                }
+                write = mPendingWrites.poll();
+            }
+            deliver(write, execute(write));
+        }
+    }
+
+    private Result execute(Write write) {
+        try {
+            switch (write.type) {
+                case INSERT:
+                    return new Result(mResolver.insert(write.uri, write.values), 0, null);
+                case UPDATE:
+                    return new Result(null, mResolver.update(write.uri, write.values, null, null), null);
+                case PHOTO:
+                    copyPhoto(write.source, PetEntry.buildPhotoUri(ContentUris.parseId(write.uri)));
+                    return new Result(null, 1, null);
+                default:
+                    return new Result(null, mResolver.delete(write.uri, null, null), null);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to write " + write.uri, e);
+            return new Result(null, 0, e);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write " + write.uri, e);
+            return new Result(null, 0, new IllegalStateException("Cannot copy photo " + write.source, e));
+        }
+    }
+
+    /**
+     * Copy the given content into the photo URI of a pet. The provider replaces the photo
+     * once the stream has been closed.
+     */
+    private void copyPhoto(Uri source, Uri photoUri) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+        try {
+            OutputStream out = mResolver.openOutputStream(photoUri, "w");
+            if (out == null) {
+                throw new FileNotFoundException("Cannot open " + photoUri);
+            }
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void deliver(final Write write, final Result result) {
+        if (write.callbacks.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : write.callbacks) {
+                    callback.onWriteComplete(result);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,513 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Takes snapshots of the pets database while it is read and written, and restores them.
+ *
+ * With write-ahead logging, automatic checkpoints are paused and a passive checkpoint is run,
+ * so the database file does not change while it is copied; the log is copied after it. Writers
+ * keep appending to the log the whole time and are never blocked. SQLite recovers the copied
+ * log up to its last complete commit, so the copy is a consistent state from during the
+ * backup. Without write-ahead logging, the copy holds the write lock and blocks writers.
+ *
+ * Snapshots are stored as a manifest per snapshot and a shared store of blocks, which are
+ * named after the SHA-256 of their content and compressed with gzip. A block which is in the
+ * store already is not written again, so a snapshot only adds the blocks changed since the
+ * previous ones. Restoring checks every block and file against its checksum and the restored
+ * database with {@code PRAGMA quick_check}, before the live database is replaced.
+ */
+public class PetBackup {
+    /** Size of a block, a multiple of every SQLite page size. */
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final String BLOCKS_DIRECTORY = "blocks";
+    private static final String SNAPSHOTS_DIRECTORY = "snapshots";
+    private static final String MANIFEST_SUFFIX = ".json";
+    private static final String BLOCK_SUFFIX = ".gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Suffixes of the files next to a database. */
+    private static final String WAL_SUFFIX = "-wal";
+    private static final String SHM_SUFFIX = "-shm";
+    private static final String JOURNAL_SUFFIX = "-journal";
+
+    /** Names of the manifest fields. */
+    private static final String FIELD_CREATED_AT = "created_at";
+    private static final String FIELD_VERSION = "version";
+    private static final String FIELD_DATABASE = "database";
+    private static final String FIELD_WAL = "wal";
+    private static final String FIELD_LENGTH = "length";
+    private static final String FIELD_SHA256 = "sha256";
+    private static final String FIELD_BLOCKS = "blocks";
+
+    private final PetDbHelper mDbHelper;
+
+    /** Directory with the blocks and the manifests. */
+    private final File mDirectory;
+
+    /**
+     * Summary of a snapshot.
+     */
+    public static final class Snapshot {
+        /** ID of the snapshot, which sorts by time. */
+        public final String id;
+        /** Length of the copied database and log. */
+        public final long databaseBytes;
+        /** Number of blocks of the snapshot. */
+        public final int blocks;
+        /** Number of blocks which were not in the store before. */
+        public final int newBlocks;
+        /** Compressed length of the new blocks. */
+        public final long storedBytes;
+
+        Snapshot(String id, long databaseBytes, int blocks, int newBlocks, long storedBytes) {
+            this.id = id;
+            this.databaseBytes = databaseBytes;
+            this.blocks = blocks;
+            this.newBlocks = newBlocks;
+            this.storedBytes = storedBytes;
+        }
+    }
+
+    /**
+     * Length, checksum and blocks of a copied file.
+     */
+    private static final class FileCopy {
+        long length;
+        String sha256;
+        final List<String> blocks = new ArrayList<>();
+        int newBlocks;
+        long storedBytes;
+    }
+
+    /**
+     * @param directory The directory of the snapshots, which is created if needed.
+     */
+    public PetBackup(PetDbHelper dbHelper, File directory) {
+        mDbHelper = dbHelper;
+        mDirectory = directory;
+    }
+
+    /**
+     * Take a snapshot of the database, while it is read and written.
+     */
+    public synchronized Snapshot backup() throws IOException {
+        File blocks = new File(mDirectory, BLOCKS_DIRECTORY);
+        File snapshots = new File(mDirectory, SNAPSHOTS_DIRECTORY);
+        if ((!blocks.isDirectory() && !blocks.mkdirs()) || (!snapshots.isDirectory() && !snapshots.mkdirs())) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        File databaseFile = new File(db.getPath());
+        PetDbHelper.ConcurrencyMode mode = mDbHelper.getConcurrencyMode();
+        FileCopy database;
+        FileCopy wal = null;
+        if (mode.writeAheadLogging) {
+            // Only the writer connection checkpoints, and it runs this pragma as well.
+            setAutoCheckpoint(db, 0);
+            try {
+                // Move what it can into the database file, without waiting for readers or writers.
+                mDbHelper.checkpoint();
+                database = store(databaseFile, databaseFile.length());
+                File walFile = new File(databaseFile.getPath() + WAL_SUFFIX);
+                if (walFile.exists()) {
+                    // Commits after this length are not part of the snapshot.
+                    wal = store(walFile, walFile.length());
+                }
+            } finally {
+                setAutoCheckpoint(db, mode.checkpointPages);
+            }
+        } else {
+            // The rollback journal leaves no other way to keep the file unchanged.
+            db.beginTransactionNonExclusive();
+            try {
+                database = store(databaseFile, databaseFile.length());
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        long createdAt = System.currentTimeMillis();
+        String id = String.valueOf(createdAt);
+        while (new File(snapshots, id + MANIFEST_SUFFIX).exists()) {
+            id = String.valueOf(++createdAt);
+        }
+        writeManifest(new File(snapshots, id + MANIFEST_SUFFIX), createdAt, db.getVersion(), database, wal);
+
+        int blockCount = database.blocks.size() + (wal == null ? 0 : wal.blocks.size());
+        int newBlocks = database.newBlocks + (wal == null ? 0 : wal.newBlocks);
+        long storedBytes = database.storedBytes + (wal == null ? 0 : wal.storedBytes);
+        return new Snapshot(id, database.length + (wal == null ? 0 : wal.length), blockCount, newBlocks, storedBytes);
+    }
+
+    /**
+     * Return the IDs of all snapshots, oldest first.
+     */
+    public List<String> listSnapshots() {
+        File[] files = new File(mDirectory, SNAPSHOTS_DIRECTORY).listFiles();
+        List<String> ids = new ArrayList<>();
+        if (files == null) {
+            return ids;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(MANIFEST_SUFFIX)) {
+                ids.add(name.substring(0, name.length() - MANIFEST_SUFFIX.length()));
+            }
+        }
+        // IDs are times in milliseconds, which have the same number of digits for a long time.
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Restore a snapshot into a new database file in the given directory and verify it.
+     * The log of the snapshot is merged into the file.
+     * @return The verified database file.
+     * @throws IllegalArgumentException if there is no such snapshot.
+     * @throws IOException if the snapshot cannot be read, does not match its checksums or
+     *         is not a valid database.
+     */
+    public synchronized File restoreTo(String id, File directory) throws IOException {
+        File manifest = new File(new File(mDirectory, SNAPSHOTS_DIRECTORY), id + MANIFEST_SUFFIX);
+        if (id == null || id.contains(File.separator) || !manifest.isFile()) {
+            throw new IllegalArgumentException("Unknown snapshot " + id);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File databaseFile = new File(directory, PetDbHelper.DATABASE_NAME);
+        deleteCompanionFiles(databaseFile);
+        int version = 0;
+        JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (FIELD_VERSION.equals(name)) {
+                    version = reader.nextInt();
+                } else if (FIELD_DATABASE.equals(name)) {
+                    restoreFile(reader, databaseFile);
+                } else if (FIELD_WAL.equals(name)) {
+                    restoreFile(reader, new File(databaseFile.getPath() + WAL_SUFFIX));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed manifest of snapshot " + id, e);
+        } finally {
+            reader.close();
+        }
+        if (version > PetDbHelper.DATABASE_VERSION) {
+            throw new IOException("Snapshot " + id + " is from a newer version " + version);
+        }
+
+        // Opening recovers the log and leaving write-ahead logging merges it into the file.
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(databaseFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            String check = DatabaseUtils.stringForQuery(db, "PRAGMA quick_check", null);
+            if (!"ok".equals(check)) {
+                throw new IOException("Snapshot " + id + " failed the integrity check: " + check);
+            }
+        } finally {
+            db.close();
+        }
+        deleteCompanionFiles(databaseFile);
+        return databaseFile;
+    }
+
+    /**
+     * Delete all but the newest snapshots and the blocks only they used.
+     * @return The number of deleted blocks.
+     */
+    public synchronized int prune(int keep) throws IOException {
+        if (keep < 1) {
+            throw new IllegalArgumentException("At least one snapshot has to be kept.");
+        }
+        List<String> ids = listSnapshots();
+        File snapshots = new File(mDirectory, SNAPSHOTS_DIRECTORY);
+        for (String id : ids.subList(0, Math.max(0, ids.size() - keep))) {
+            new File(snapshots, id + MANIFEST_SUFFIX).delete();
+        }
+
+        Set<String> used = new HashSet<>();
+        for (String id : listSnapshots()) {
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new FileInputStream(new File(snapshots, id + MANIFEST_SUFFIX)), "UTF-8"));
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (FIELD_DATABASE.equals(name) || FIELD_WAL.equals(name)) {
+                        readBlocks(reader, used);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } finally {
+                reader.close();
+            }
+        }
+
+        int deleted = 0;
+        File[] blocks = new File(mDirectory, BLOCKS_DIRECTORY).listFiles();
+        if (blocks != null) {
+            for (File block : blocks) {
+                String name = block.getName();
+                String hash = name.endsWith(BLOCK_SUFFIX) ? name.substring(0, name.length() - BLOCK_SUFFIX.length()) : null;
+                if ((hash == null || !used.contains(hash)) && block.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete the log, shared memory and journal of a database file, which would otherwise be
+     * applied to a database file put in its place.
+     */
+    static void deleteCompanionFiles(File databaseFile) {
+        new File(databaseFile.getPath() + WAL_SUFFIX).delete();
+        new File(databaseFile.getPath() + SHM_SUFFIX).delete();
+        new File(databaseFile.getPath() + JOURNAL_SUFFIX).delete();
+    }
+
+    private static void setAutoCheckpoint(SQLiteDatabase db, int pages) {
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + pages, null);
+    }
+
+    /**
+     * Copy the first bytes of a file into the block store.
+     */
+    private FileCopy store(File file, long length) throws IOException {
+        FileCopy copy = new FileCopy();
+        MessageDigest fileDigest = sha256();
+        MessageDigest blockDigest = sha256();
+        byte[] block = new byte[BLOCK_SIZE];
+        InputStream in = new FileInputStream(file);
+        try {
+            while (copy.length < length) {
+                int blockLength = readBlock(in, block, (int) Math.min(BLOCK_SIZE, length - copy.length));
+                if (blockLength == 0) {
+                    // The file was truncated, which only happens to the log when it is reset.
+                    break;
+                }
+                fileDigest.update(block, 0, blockLength);
+                blockDigest.update(block, 0, blockLength);
+                String hash = toHex(blockDigest.digest());
+                File blockFile = new File(new File(mDirectory, BLOCKS_DIRECTORY), hash + BLOCK_SUFFIX);
+                if (!blockFile.exists()) {
+                    copy.storedBytes += writeBlock(blockFile, block, blockLength);
+                    copy.newBlocks++;
+                }
+                copy.blocks.add(hash);
+                copy.length += blockLength;
+            }
+        } finally {
+            in.close();
+        }
+        copy.sha256 = toHex(fileDigest.digest());
+        return copy;
+    }
+
+    /**
+     * Write a compressed block, so that it only appears under its name once it is complete.
+     * @return The compressed length.
+     */
+    private static long writeBlock(File blockFile, byte[] block, int length) throws IOException {
+        File tempFile = new File(blockFile.getPath() + TEMP_SUFFIX);
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile), 64 * 1024);
+        try {
+            out.write(block, 0, length);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(blockFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot write " + blockFile);
+        }
+        return blockFile.length();
+    }
+
+    /**
+     * Read a whole block, or less at the end of the stream.
+     * @return The number of bytes read.
+     */
+    private static int readBlock(InputStream in, byte[] block, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(block, total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void writeManifest(File manifest, long createdAt, int version, FileCopy database, FileCopy wal)
+            throws IOException {
+        File tempFile = new File(manifest.getPath() + TEMP_SUFFIX);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            writer.beginObject();
+            writer.name(FIELD_CREATED_AT).value(createdAt);
+            writer.name(FIELD_VERSION).value(version);
+            writer.name(FIELD_DATABASE);
+            writeFileCopy(writer, database);
+            if (wal != null) {
+                writer.name(FIELD_WAL);
+                writeFileCopy(writer, wal);
+            }
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+        if (!tempFile.renameTo(manifest)) {
+            tempFile.delete();
+            throw new IOException("Cannot write " + manifest);
+        }
+    }
+
+    private static void writeFileCopy(JsonWriter writer, FileCopy copy) throws IOException {
+        writer.beginObject();
+        writer.name(FIELD_LENGTH).value(copy.length);
+        writer.name(FIELD_SHA256).value(copy.sha256);
+        writer.name(FIELD_BLOCKS).beginArray();
+        for (String block : copy.blocks) {
+            writer.value(block);
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /**
+     * Write a file of a manifest from its blocks, checking every block and the whole file.
+     */
+    private void restoreFile(JsonReader reader, File file) throws IOException {
+        long length = -1;
+        String sha256 = null;
+        MessageDigest fileDigest = sha256();
+        MessageDigest blockDigest = sha256();
+        byte[] block = new byte[BLOCK_SIZE];
+        long written = 0;
+        OutputStream out = new FileOutputStream(file);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (FIELD_LENGTH.equals(name)) {
+                    length = reader.nextLong();
+                } else if (FIELD_SHA256.equals(name)) {
+                    sha256 = reader.nextString();
+                } else if (FIELD_BLOCKS.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String hash = reader.nextString();
+                        int blockLength = readStoredBlock(hash, block);
+                        blockDigest.update(block, 0, blockLength);
+                        if (!hash.equals(toHex(blockDigest.digest()))) {
+                            throw new IOException("Block " + hash + " does not match its checksum");
+                        }
+                        fileDigest.update(block, 0, blockLength);
+                        out.write(block, 0, blockLength);
+                        written += blockLength;
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            out.close();
+        }
+        if (written != length || sha256 == null || !sha256.equals(toHex(fileDigest.digest()))) {
+            throw new IOException(file.getName() + " does not match its checksum");
+        }
+    }
+
+    /**
+     * Read and decompress a block of the store.
+     * @return The length of the block.
+     */
+    private int readStoredBlock(String hash, byte[] block) throws IOException {
+        File blockFile = new File(new File(mDirectory, BLOCKS_DIRECTORY), hash + BLOCK_SUFFIX);
+        if (!blockFile.isFile()) {
+            throw new IOException("Block " + hash + " is missing");
+        }
+        InputStream in = new GZIPInputStream(new FileInputStream(blockFile), 64 * 1024);
+        try {
+            int length = readBlock(in, block, BLOCK_SIZE);
+            if (in.read() != -1) {
+                throw new IOException("Block " + hash + " is too long");
+            }
+            return length;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readBlocks(JsonReader reader, Set<String> blocks) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (FIELD_BLOCKS.equals(reader.nextName())) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    blocks.add(reader.nextString());
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every platform provides SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the change log of the pets and keeps it bounded in the background.
+ *
+ * The newest changes are kept as they were logged. Once enough newer changes have been
+ * logged, older changes are compacted in small transactions: the changes of a pet up to a
+ * sequence number are merged into its latest one, so the log holds about one row per pet
+ * plus the recent changes. Deletes older than the retention are dropped entirely, and
+ * callers which may have missed one are told to read all pets again.
+ */
+public class PetChangeLog {
+    /** Default number of newest changes which are never compacted. */
+    public static final int DEFAULT_KEEP_RECENT = 10000;
+
+    /** Default time for which deletes are retained, in milliseconds. */
+    public static final long DEFAULT_RETENTION_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /** Default number of sequence numbers compacted in a single transaction. */
+    public static final int DEFAULT_CHUNK_SIZE = 2000;
+
+    /** Default pause between two transactions, in milliseconds. */
+    public static final long DEFAULT_PAUSE_MILLIS = 50;
+
+    /** Changes after a sequence number, in order. */
+    private static final String SELECTION_SINCE = PetChangeEntry.COLUMN_SEQUENCE + ">?";
+
+    /** Last sequence number handed out, which stays even if its change has been dropped. */
+    private static final String SQL_LAST_SEQUENCE = "SELECT IFNULL((SELECT seq FROM sqlite_sequence WHERE name='" +
+            PetChangeEntry.TABLE_NAME + "'), 0)";
+
+    private static final String SQL_STATE = "SELECT " + PetDbHelper.COLUMN_COMPACTED_THROUGH + ", " +
+            PetDbHelper.COLUMN_TRUNCATED_THROUGH + " FROM " + PetDbHelper.CHANGES_STATE_TABLE_NAME;
+
+    private static final String SQL_TRUNCATED_THROUGH = "SELECT " + PetDbHelper.COLUMN_TRUNCATED_THROUGH +
+            " FROM " + PetDbHelper.CHANGES_STATE_TABLE_NAME;
+
+    /** Pets with changes in a range of sequence numbers. */
+    private static final String SQL_FIND_CHANGED_PETS = "SELECT DISTINCT " + PetChangeEntry.COLUMN_PET_ID +
+            " FROM " + PetChangeEntry.TABLE_NAME + " WHERE " + PetChangeEntry.COLUMN_SEQUENCE + " BETWEEN ? AND ?";
+
+    /** All changes of a pet up to a sequence number, through the index on the pet. */
+    private static final String SQL_FIND_PET_CHANGES = "SELECT " + PetChangeEntry.COLUMN_SEQUENCE + ", " +
+            PetChangeEntry.COLUMN_OP + ", " + PetChangeEntry.COLUMN_CHANGED_COLUMNS + " FROM " +
+            PetChangeEntry.TABLE_NAME + " WHERE " + PetChangeEntry.COLUMN_PET_ID + "=? AND " +
+            PetChangeEntry.COLUMN_SEQUENCE + "<=? ORDER BY " + PetChangeEntry.COLUMN_SEQUENCE;
+
+    /** Compacted changes of a pet before its latest one. */
+    private static final String SELECTION_COMPACTED = PetChangeEntry.COLUMN_PET_ID + "=? AND " +
+            PetChangeEntry.COLUMN_SEQUENCE + "<?";
+
+    /** Expired deletes in a range of compacted sequence numbers. */
+    private static final String SELECTION_EXPIRED_DELETES = PetChangeEntry.COLUMN_SEQUENCE + " BETWEEN ? AND ? AND " +
+            PetChangeEntry.COLUMN_OP + "='" + PetContract.OP_DELETE + "' AND " + PetChangeEntry.COLUMN_CHANGED_AT + "<?";
+
+    private final PetDbHelper mDbHelper;
+
+    /** Handler of the background thread on which the log is compacted. */
+    private final Handler mHandler;
+
+    private volatile int mKeepRecent = DEFAULT_KEEP_RECENT;
+    private volatile long mRetentionMillis = DEFAULT_RETENTION_MILLIS;
+    private volatile int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile long mPauseMillis = DEFAULT_PAUSE_MILLIS;
+
+    /** True if a compaction is scheduled or running, so writes do not postpone it. */
+    private volatile boolean mScheduled;
+
+    /**
+     * True if expired deletes may have to be dropped, i.e. after the first compaction of the
+     * process and after every compaction run. Guarded by this.
+     */
+    private boolean mDropPending = true;
+
+    /** Compacts a chunk and schedules the next one, until the log is compact. */
+    private final Runnable mCompactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (compactChunk() > 0) {
+                mHandler.postDelayed(this, mPauseMillis);
+            } else {
+                mScheduled = false;
+            }
+        }
+    };
+
+    PetChangeLog(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        HandlerThread thread = new HandlerThread(PetChangeLog.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Set the number of newest changes which are never compacted.
+     */
+    public void setKeepRecent(int keepRecent) {
+        if (keepRecent < 0) {
+            throw new IllegalArgumentException("Kept changes must not be negative.");
+        }
+        mKeepRecent = keepRecent;
+    }
+
+    /**
+     * Set the time for which deletes are retained, in milliseconds.
+     */
+    public void setRetentionMillis(long retentionMillis) {
+        if (retentionMillis < 0) {
+            throw new IllegalArgumentException("Retention must not be negative.");
+        }
+        mRetentionMillis = retentionMillis;
+    }
+
+    /**
+     * Set the number of sequence numbers compacted in a single transaction.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Set the pause between two transactions, in milliseconds.
+     */
+    public void setPauseMillis(long pauseMillis) {
+        if (pauseMillis < 0) {
+            throw new IllegalArgumentException("Pause must not be negative.");
+        }
+        mPauseMillis = pauseMillis;
+    }
+
+    /**
+     * Start compacting the log after a pause, if it is not scheduled yet. Called after writes,
+     * which do not postpone a scheduled compaction.
+     */
+    public void schedule() {
+        if (mScheduled) {
+            return;
+        }
+        mScheduled = true;
+        mHandler.postDelayed(mCompactRunnable, mPauseMillis);
+    }
+
+    /**
+     * Query the changes after the given sequence number.
+     * @param limit The maximum number of changes, or null for all of them.
+     * @return The changes in order, or a single {@link PetContract#OP_RESET} change if changes
+     *         after the sequence number have been dropped.
+     */
+    Cursor query(SQLiteDatabase db, String[] projection, long since, String limit) {
+        String[] selectionArgs = { String.valueOf(since) };
+        Cursor cursor = db.query(PetChangeEntry.TABLE_NAME, projection, SELECTION_SINCE, selectionArgs,
+                null, null, PetChangeEntry.COLUMN_SEQUENCE, limit);
+        // Read the changes before the truncation point, which is committed together with the
+        // drop of changes, so changes dropped before they were read are always noticed.
+        cursor.getCount();
+        if (since >= DatabaseUtils.longForQuery(db, SQL_TRUNCATED_THROUGH, null)) {
+            return cursor;
+        }
+        cursor.close();
+        return resetCursor(projection, DatabaseUtils.longForQuery(db, SQL_LAST_SEQUENCE, null));
+    }
+
+    /**
+     * Return a cursor with a single reset change at the given sequence number.
+     */
+    private static Cursor resetCursor(String[] projection, long sequence) {
+        if (projection == null) {
+            projection = new String[] { PetChangeEntry.COLUMN_SEQUENCE, PetChangeEntry.COLUMN_PET_ID,
+                    PetChangeEntry.COLUMN_OP, PetChangeEntry.COLUMN_CHANGED_COLUMNS, PetChangeEntry.COLUMN_CHANGED_AT,
+                    PetChangeEntry.COLUMN_REMOTE_ID };
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (PetChangeEntry.COLUMN_SEQUENCE.equals(projection[i])) {
+                row[i] = sequence;
+            } else if (PetChangeEntry.COLUMN_OP.equals(projection[i])) {
+                row[i] = PetContract.OP_RESET;
+            } else if (PetChangeEntry.COLUMN_CHANGED_AT.equals(projection[i])) {
+                row[i] = System.currentTimeMillis();
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Compact the next chunk of changes in a single transaction, once at least a chunk of
+     * changes is older than the newest ones. After compacting, drop the expired deletes.
+     * @return The number of removed changes, or 0 if the log is compact.
+     */
+    public int compactChunk() {
+        // Waits while a restore replaces the database.
+        mDbHelper.beginUse();
+        try {
+            return compactNextChunk();
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    private synchronized int compactNextChunk() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long lastSequence = DatabaseUtils.longForQuery(db, SQL_LAST_SEQUENCE, null);
+        long compactThrough = lastSequence - mKeepRecent;
+
+        int rowsRemoved;
+        db.beginTransaction();
+        try {
+            long[] state = readState(db);
+            long compactedThrough = state[0];
+            long truncatedThrough = state[1];
+            if (compactThrough - compactedThrough < mChunkSize) {
+                // Too little left to compact, but deletes may have expired since.
+                rowsRemoved = mDropPending ? dropExpiredDeletes(db, truncatedThrough, compactedThrough) : 0;
+                mDropPending = false;
+            } else {
+                long chunkEnd = Math.min(compactThrough, compactedThrough + mChunkSize);
+                rowsRemoved = compactRange(db, compactedThrough + 1, chunkEnd);
+                ContentValues values = new ContentValues();
+                values.put(PetDbHelper.COLUMN_COMPACTED_THROUGH, chunkEnd);
+                db.update(PetDbHelper.CHANGES_STATE_TABLE_NAME, values, null, null);
+                // Keep going until the whole range is compact, even if this chunk removed nothing.
+                rowsRemoved = Math.max(1, rowsRemoved);
+                mDropPending = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsRemoved;
+    }
+
+    /**
+     * Return the last sequence number handed out.
+     */
+    static long getLastSequence(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, SQL_LAST_SEQUENCE, null);
+    }
+
+    /**
+     * Continue after the sequence numbers handed out before the database was replaced, e.g.
+     * by a restored snapshot. Every caller which read changes before is told to read all pets
+     * again, as the replaced changes may differ from the ones it has read.
+     */
+    synchronized void continueAfter(SQLiteDatabase db, long lastSequence) {
+        long resetSequence = Math.max(getLastSequence(db), lastSequence) + 1;
+        db.beginTransaction();
+        try {
+            // The row does not exist until the first change has been logged.
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name=?", new Object[] { PetChangeEntry.TABLE_NAME });
+            db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)",
+                    new Object[] { PetChangeEntry.TABLE_NAME, resetSequence });
+            ContentValues values = new ContentValues();
+            values.put(PetDbHelper.COLUMN_TRUNCATED_THROUGH, resetSequence);
+            db.update(PetDbHelper.CHANGES_STATE_TABLE_NAME, values, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Merge the changes of every pet changed in the given range of sequence numbers into its
+     * latest change in or before the range.
+     * @return The number of removed changes.
+     */
+    private static int compactRange(SQLiteDatabase db, long first, long last) {
+        List<Long> petIds = new ArrayList<>();
+        Cursor cursor = db.rawQuery(SQL_FIND_CHANGED_PETS, new String[] { String.valueOf(first), String.valueOf(last) });
+        try {
+            while (cursor.moveToNext()) {
+                petIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int rowsRemoved = 0;
+        for (long petId : petIds) {
+            rowsRemoved += compactPet(db, petId, last);
+        }
+        return rowsRemoved;
+    }
+
+    /**
+     * Merge the changes of a pet up to the given sequence number into the latest of them.
+     * An insert followed by updates stays an insert, and a delete wins over all earlier changes.
+     * @return The number of removed changes.
+     */
+    private static int compactPet(SQLiteDatabase db, long petId, long last) {
+        String firstOp = null;
+        String lastOp = null;
+        long lastSequence = 0;
+        int count = 0;
+        Set<String> columns = new LinkedHashSet<>();
+        Cursor cursor = db.rawQuery(SQL_FIND_PET_CHANGES, new String[] { String.valueOf(petId), String.valueOf(last) });
+        try {
+            while (cursor.moveToNext()) {
+                lastSequence = cursor.getLong(0);
+                lastOp = cursor.getString(1);
+                if (firstOp == null) {
+                    firstOp = lastOp;
+                }
+                if (!cursor.isNull(2)) {
+                    columns.addAll(Arrays.asList(cursor.getString(2).split(",")));
+                }
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (count < 2) {
+            return 0;
+        }
+
+        ContentValues merged = new ContentValues();
+        if (PetContract.OP_DELETE.equals(lastOp)) {
+            merged.put(PetChangeEntry.COLUMN_OP, PetContract.OP_DELETE);
+            merged.putNull(PetChangeEntry.COLUMN_CHANGED_COLUMNS);
+        } else if (PetContract.OP_INSERT.equals(firstOp)) {
+            merged.put(PetChangeEntry.COLUMN_OP, PetContract.OP_INSERT);
+            merged.putNull(PetChangeEntry.COLUMN_CHANGED_COLUMNS);
+        } else {
+            merged.put(PetChangeEntry.COLUMN_OP, PetContract.OP_UPDATE);
+            merged.put(PetChangeEntry.COLUMN_CHANGED_COLUMNS, TextUtils.join(",", columns));
+        }
+        db.update(PetChangeEntry.TABLE_NAME, merged, PetChangeEntry.COLUMN_SEQUENCE + "=?",
+                new String[] { String.valueOf(lastSequence) });
+        return db.delete(PetChangeEntry.TABLE_NAME, SELECTION_COMPACTED,
+                new String[] { String.valueOf(petId), String.valueOf(lastSequence) });
+    }
+
+    /**
+     * Drop the compacted deletes which are older than the retention, and remember the last
+     * dropped sequence number, in the current transaction.
+     * @return The number of dropped changes.
+     */
+    private int dropExpiredDeletes(SQLiteDatabase db, long truncatedThrough, long compactedThrough) {
+        String[] args = { String.valueOf(truncatedThrough + 1), String.valueOf(compactedThrough),
+                String.valueOf(System.currentTimeMillis() - mRetentionMillis) };
+        long lastDropped = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + PetChangeEntry.COLUMN_SEQUENCE +
+                "), 0) FROM " + PetChangeEntry.TABLE_NAME + " WHERE " + SELECTION_EXPIRED_DELETES, args);
+        if (lastDropped == 0) {
+            return 0;
+        }
+        int rowsDropped = db.delete(PetChangeEntry.TABLE_NAME, SELECTION_EXPIRED_DELETES, args);
+        ContentValues values = new ContentValues();
+        values.put(PetDbHelper.COLUMN_TRUNCATED_THROUGH, lastDropped);
+        db.update(PetDbHelper.CHANGES_STATE_TABLE_NAME, values, null, null);
+        return rowsDropped;
+    }
+
+    /**
+     * Return the last compacted and the last dropped sequence number.
+     */
+    private static long[] readState(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SQL_STATE, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new long[] { 0, 0 };
+            }
+            return new long[] { cursor.getLong(0), cursor.getLong(1) };
+        } finally {
+            cursor.close();
+        }
+    }
+}
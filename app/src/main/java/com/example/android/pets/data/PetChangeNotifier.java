@@ -0,0 +1,220 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the change notifications sent by {@link PetProvider}.
+ *
+ * Dirty URIs are collected for a configurable window, or until the batch running on the
+ * current thread ends, and then each distinct URI is notified exactly once. A burst of
+ * writes therefore makes a {@link android.content.CursorLoader} reload once, not once per write.
+ */
+public class PetChangeNotifier {
+    /** Default time in milliseconds during which notifications are collected. */
+    public static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    /**
+     * Listener which is told about every committed change right away, without waiting for
+     * the window.
+     */
+    public interface Listener {
+        /** Called on the writing thread with the URI of a committed change. */
+        void onChangeCommitted(Uri uri);
+    }
+
+    /** Resolver used for sending the notifications. */
+    private final ContentResolver mResolver;
+
+    /** Handler used for flushing pending notifications at the end of the window. */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** URIs waiting for the end of the current window. Guarded by itself. */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    /** URIs collected by the batch running on the current thread, null outside of a batch. */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /** Listener told about committed changes, or null. */
+    private volatile Listener mListener;
+
+    /** Time in milliseconds during which notifications are collected. */
+    private volatile long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+
+    /** True if a flush is already scheduled for the current window. Guarded by mPendingUris. */
+    private boolean mFlushScheduled;
+
+    /** Number of notifications requested by the provider. */
+    private final AtomicLong mRequestedCount = new AtomicLong();
+    /** Number of notifications actually sent to the {@link ContentResolver}. */
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Notifications collected by a batch, along with the nesting depth of the batch and
+     * whether any nested batch has failed.
+     */
+    private static class Batch {
+        final Set<Uri> uris = new LinkedHashSet<>();
+        int depth;
+        boolean failed;
+    }
+
+    public PetChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Set the time in milliseconds during which notifications are collected.
+     * Zero sends every notification outside of a batch right away.
+     */
+    public void setWindowMillis(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Window must not be negative.");
+        }
+        mWindowMillis = windowMillis;
+        if (windowMillis == 0) {
+            flush();
+        }
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    /**
+     * Set the listener told about every committed change, or null for none.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Record that the data at the given URI has changed.
+     */
+    public void notifyChange(Uri uri) {
+        mRequestedCount.incrementAndGet();
+
+        // Inside a batch, hold the URI back until the batch ends.
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.uris.add(uri);
+            return;
+        }
+        enqueue(uri);
+    }
+
+    /**
+     * Start a batch on the current thread. Notifications are held back until the
+     * matching {@link #endBatch(boolean)}. Batches may be nested.
+     */
+    public void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * End a batch on the current thread. When the outermost batch ends, the collected URIs
+     * are passed on if it and all batches nested in it have been committed, or dropped
+     * otherwise, just as a failed nested transaction rolls back the outermost one.
+     */
+    public void endBatch(boolean committed) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch in progress.");
+        }
+        if (!committed) {
+            batch.failed = true;
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        mBatch.remove();
+        if (!batch.failed) {
+            for (Uri uri : batch.uris) {
+                enqueue(uri);
+            }
+        }
+    }
+
+    /**
+     * Send all pending notifications right away.
+     */
+    public void flush() {
+        List<Uri> uris;
+        synchronized (mPendingUris) {
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+            mFlushScheduled = false;
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+        for (Uri uri : uris) {
+            deliver(uri);
+        }
+    }
+
+    /** Return the number of notifications requested by the provider. */
+    public long getRequestedCount() {
+        return mRequestedCount.get();
+    }
+
+    /** Return the number of notifications sent to the {@link ContentResolver}. */
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    /** Return the number of notifications that were merged into another one. */
+    public long getSuppressedCount() {
+        return mRequestedCount.get() - mDeliveredCount.get();
+    }
+
+    /**
+     * Tell the listener about the committed URI and add it to the current window, or send it
+     * right away if there is no window.
+     */
+    private void enqueue(Uri uri) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onChangeCommitted(uri);
+        }
+
+        long windowMillis = mWindowMillis;
+        if (windowMillis == 0) {
+            deliver(uri);
+            return;
+        }
+
+        synchronized (mPendingUris) {
+            mPendingUris.add(uri);
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+            mHandler.postAtTime(mFlushRunnable, SystemClock.uptimeMillis() + windowMillis);
+        }
+    }
+
+    private void deliver(Uri uri) {
+        mDeliveredCount.incrementAndGet();
+        mResolver.notifyChange(uri, null);
+    }
+}
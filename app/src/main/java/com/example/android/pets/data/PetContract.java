@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -21,6 +22,141 @@ public final class PetContract {
     /** Possible path (appended to base content URI for possible URI's). */
     public static final String PATH_PETS = "pets";
 
+    /** Path appended to the pets URI for searching pets by name and breed. */
+    public static final String PATH_SEARCH = "search";
+
+    /** Path appended to the pets URI for exporting all pets as a file. */
+    public static final String PATH_EXPORT = "export";
+
+    /** Path appended to the URI of a single pet for its photo. */
+    public static final String PATH_PHOTO = "photo";
+
+    /** Path appended to the URI of a single pet for its weight measurements. */
+    public static final String PATH_WEIGHTS = "weights";
+
+    /** Paths appended to the weights URI of a pet for its rollups per day, week and month. */
+    public static final String PATH_WEIGHTS_DAY = "day";
+    public static final String PATH_WEIGHTS_WEEK = "week";
+    public static final String PATH_WEIGHTS_MONTH = "month";
+
+    /**
+     * Query parameters of the weight URIs with the first and the end of the time range, in
+     * milliseconds since the epoch. The end is exclusive; both are optional. Rollups are in
+     * the range if their period starts in it.
+     */
+    public static final String QUERY_PARAM_FROM = "from";
+    public static final String QUERY_PARAM_TO = "to";
+
+    /** Path appended to the pets URI for the log of changes of the pets. */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Query parameter of {@link PetChangeEntry#CONTENT_URI} with the last sequence number
+     * the caller has seen. Only later changes are returned.
+     */
+    public static final String QUERY_PARAM_SINCE = "since";
+
+    /** Query parameter of {@link PetEntry#CONTENT_EXPORT_URI} with the file format. */
+    public static final String QUERY_PARAM_FORMAT = "format";
+
+    /** Query parameter of {@link PetEntry#CONTENT_EXPORT_URI}, true to compress the file with gzip. */
+    public static final String QUERY_PARAM_GZIP = "gzip";
+
+    /** Possible export file formats */
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "json";
+
+    /** MIME types of the export file formats */
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_JSON = "application/json";
+
+    /** Path appended to the pets URI for aggregate statistics of the pets. */
+    public static final String PATH_STATS = "stats";
+
+    /** Path appended to the statistics URI for statistics grouped by gender. */
+    public static final String PATH_STATS_GENDER = "gender";
+
+    /** Path appended to the statistics URI for statistics grouped by breed. */
+    public static final String PATH_STATS_BREED = "breed";
+
+    /**
+     * Query parameter of {@link PetEntry#CONTENT_URI} with the last {@link PetEntry#_ID}
+     * of the previous page. Only pets with a greater ID are returned.
+     */
+    public static final String QUERY_PARAM_AFTER_ID = "after_id";
+
+    /** Query parameter of {@link PetEntry#CONTENT_URI} with the maximum number of pets in a page. */
+    public static final String QUERY_PARAM_LIMIT = "limit";
+
+    /**
+     * Query parameter of the change notifications for a single pet, with the kind of change:
+     * {@link #OP_INSERT}, {@link #OP_UPDATE} or {@link #OP_DELETE}. Notifications without it,
+     * e.g. of {@link PetEntry#CONTENT_URI}, may have changed any number of pets.
+     */
+    public static final String QUERY_PARAM_OP = "op";
+
+    /** Possible kinds of changes of a single pet */
+    public static final String OP_INSERT = "insert";
+    public static final String OP_UPDATE = "update";
+    public static final String OP_DELETE = "delete";
+
+    /**
+     * Kind of change in {@link PetChangeEntry} telling the caller to read all pets again,
+     * because changes after its sequence number are no longer retained.
+     */
+    public static final String OP_RESET = "reset";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} which returns a snapshot of the
+     * latency and row metrics of the provider, per operation and URI.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /** Method of {@link android.content.ContentResolver#call} which clears the metrics of the provider. */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} which takes a snapshot of the
+     * database without blocking writers, and returns its ID in {@link #KEY_SNAPSHOT_ID}
+     * together with its size.
+     */
+    public static final String METHOD_BACKUP = "backup";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} which replaces the database with
+     * the snapshot whose ID is the argument, once the snapshot has been verified. Calls which
+     * run at the same time may fail, and readers of {@link PetChangeEntry} are told to read
+     * all pets again.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} which returns the IDs of all
+     * snapshots in {@link #KEY_SNAPSHOT_IDS}, oldest first.
+     */
+    public static final String METHOD_LIST_BACKUPS = "list_backups";
+
+    /** Key of the snapshot ID in the result of {@link #METHOD_BACKUP}. */
+    public static final String KEY_SNAPSHOT_ID = "snapshot_id";
+
+    /** Key of the snapshot IDs in the result of {@link #METHOD_LIST_BACKUPS}. */
+    public static final String KEY_SNAPSHOT_IDS = "snapshot_ids";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} which returns the IDs of the pets
+     * with words in their name or breed starting with the words of the argument, as typed so
+     * far, in {@link #KEY_PET_IDS}. The number of IDs can be limited with {@link #EXTRA_LIMIT}.
+     * Lookups are answered from memory; until the index has been built, they search the
+     * database and the order of the pets may differ.
+     */
+    public static final String METHOD_SUGGEST = "suggest";
+
+    /** Extra with the maximum number of pets returned by {@link #METHOD_SUGGEST}. */
+    public static final String EXTRA_LIMIT = "limit";
+
+    /** Key of the pet IDs in the result of {@link #METHOD_SUGGEST}. */
+    public static final String KEY_PET_IDS = "pet_ids";
+
     /**
      * Inner class that defines constant values for the pets database table.
      */
@@ -28,6 +164,18 @@ public final class PetContract {
         /** The content URI to access the pet data in the provider. */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * The content URI to search pets by name and breed. The search query is appended as
+         * the last path segment, see {@link #buildSearchUri(String)}.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to export all pets as a CSV or JSON file, opened with
+         * {@link ContentResolver#openInputStream(Uri)}. See {@link #buildExportUri(String, boolean)}.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
         /** The MIME type of the {@link #CONTENT_URI} for a list of pets. */
         public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
@@ -43,16 +191,247 @@ public final class PetContract {
         public static final String COLUMN_PET_BREED = "breed";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
+        /**
+         * Name of the photo file of the pet, or null if it has no photo. The column is only
+         * read; the photo itself is read and written through {@link #buildPhotoUri(long)}.
+         * A new photo always gets a new name, so the name can be used as a cache key.
+         */
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        /**
+         * ID of the pet on the sync server, or null if it has not been received from there.
+         * Written only by {@link com.example.android.pets.sync.PetSyncEngine}.
+         */
+        public static final String COLUMN_REMOTE_ID = "remote_id";
+
+        /**
+         * Version of the pet on the sync server when it was last received, or null. Writes which
+         * change it come from the server and are not logged in {@link PetChangeEntry}, so they
+         * are never sent back. Written only by {@link com.example.android.pets.sync.PetSyncEngine}.
+         */
+        public static final String COLUMN_REMOTE_VERSION = "remote_version";
+
+        /** The MIME type of the photo of a pet, stored as it was written. */
+        public static final String CONTENT_PHOTO_TYPE = "image/*";
 
         /** Possible states for gender */
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
+        /**
+         * Build the URI of a page of pets, ordered by {@link #_ID}.
+         * @param afterId   The last ID of the previous page, or 0 for the first page.
+         * @param limit     The maximum number of pets in the page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the photo of a pet. Opening it for reading returns the photo file,
+         * opening it for writing replaces the photo once the written stream is closed.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_PHOTO);
+        }
+
+        /**
+         * Build the URI of the change notification for a single pet. Observers of the pet URI
+         * and of {@link #CONTENT_URI} with descendants receive it.
+         * @param id    The ID of the changed pet.
+         * @param op    The kind of change, e.g. {@link PetContract#OP_UPDATE}.
+         */
+        public static Uri buildChangeUri(long id, String op) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_OP, op)
+                    .build();
+        }
+
+        /**
+         * Build the URI for searching pets whose name or breed contains words starting
+         * with the words of the given query. Pets whose name starts with the query come first.
+         */
+        public static Uri buildSearchUri(String query) {
+            return Uri.withAppendedPath(CONTENT_SEARCH_URI, Uri.encode(query));
+        }
+
+        /**
+         * Build the URI for exporting all pets.
+         * @param format    {@link PetContract#FORMAT_CSV} or {@link PetContract#FORMAT_JSON}.
+         * @param gzip      True to compress the file with gzip.
+         */
+        public static Uri buildExportUri(String format, boolean gzip) {
+            return CONTENT_EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_FORMAT, format)
+                    .appendQueryParameter(QUERY_PARAM_GZIP, String.valueOf(gzip))
+                    .build();
+        }
+
         /** Return true if gender is unknown, male or female. False otherwise. */
         public static boolean isValidGender(int gender) {
             if (gender != GENDER_UNKNOWN && gender != GENDER_MALE && gender != GENDER_FEMALE) { return false; }
             return true;
         }
     }
+
+    /**
+     * Inner class that defines constant values for the weight history of the pets.
+     *
+     * Measurements are only appended, never changed. Every change of
+     * {@link PetEntry#COLUMN_PET_WEIGHT} is appended as a measurement, and older measurements
+     * can be inserted through {@link #buildWeightsUri(long)}. The database keeps rollups per
+     * day, week and month up to date as measurements arrive, so charts over long ranges read
+     * a row per period instead of every measurement. Periods are in UTC and weeks start on
+     * Monday.
+     */
+    public static class PetWeightEntry implements BaseColumns {
+        /** The MIME type of the measurements or rollups of a pet. */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS;
+
+        /** The MIME type of a single measurement. */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHTS;
+
+        /** Table name in SQLite */
+        public static final String TABLE_NAME = "PetWeights";
+
+        /** Columns names of the measurements */
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_WEIGHT = PetEntry.COLUMN_PET_WEIGHT;
+        /** Time of the measurement in milliseconds since the epoch, now if not inserted. */
+        public static final String COLUMN_MEASURED_AT = "measured_at";
+
+        /** Columns names of the rollups, a row per period with at least one measurement. */
+        public static final String COLUMN_PERIOD_START = "period_start";
+        public static final String COLUMN_MEASUREMENT_COUNT = "measurement_count";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        /**
+         * Build the URI of the measurements of a pet, ordered by time. Inserting into it
+         * appends a measurement.
+         */
+        public static Uri buildWeightsUri(long petId) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(PetEntry.CONTENT_URI, petId), PATH_WEIGHTS);
+        }
+
+        /**
+         * Build the URI of the rollups of a pet, ordered by period.
+         * @param period    {@link PetContract#PATH_WEIGHTS_DAY}, {@link PetContract#PATH_WEIGHTS_WEEK}
+         *                  or {@link PetContract#PATH_WEIGHTS_MONTH}.
+         */
+        public static Uri buildRollupUri(long petId, String period) {
+            return Uri.withAppendedPath(buildWeightsUri(petId), period);
+        }
+
+        /**
+         * Restrict the given weights or rollup URI to a time range.
+         * @param from  The first millisecond of the range.
+         * @param to    The end of the range, exclusive.
+         */
+        public static Uri buildRangeUri(Uri uri, long from, long to) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_FROM, String.valueOf(from))
+                    .appendQueryParameter(QUERY_PARAM_TO, String.valueOf(to))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the change log of the pets.
+     *
+     * Every insert, update and delete of a pet appends a change with the next sequence number,
+     * in the same transaction as the write. Querying {@link #buildChangesUri(long, int)} returns
+     * the changes after a sequence number in order, reading only those changes.
+     *
+     * Older changes are compacted in the background into the latest change of each pet, with
+     * all of its changed columns, so an insert may be reported for a pet the caller has seen
+     * already and has to be applied as an insert or update. Deletes are retained for a while;
+     * a caller whose sequence number is older than a dropped delete receives a single
+     * {@link PetContract#OP_RESET} change, reads all pets again and continues from its sequence
+     * number. Cursors of the log are notified through {@link PetEntry#CONTENT_URI}.
+     */
+    public static class PetChangeEntry {
+        /** The content URI for all retained changes. */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        /** The MIME type of the {@link #CONTENT_URI}. */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /** Table name in SQLite */
+        public static final String TABLE_NAME = "PetChanges";
+
+        /** Columns names of the changes */
+        public static final String COLUMN_SEQUENCE = "seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        /** Kind of change, e.g. {@link PetContract#OP_UPDATE}. */
+        public static final String COLUMN_OP = "op";
+        /** Comma-separated names of the changed columns of an update, null otherwise. */
+        public static final String COLUMN_CHANGED_COLUMNS = "changed_columns";
+        /** Time of the change in milliseconds since the epoch. */
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+        /** {@link PetEntry#COLUMN_REMOTE_ID} of a deleted pet, as its row may have been purged. */
+        public static final String COLUMN_REMOTE_ID = PetEntry.COLUMN_REMOTE_ID;
+
+        /**
+         * Build the URI of the changes after the given sequence number.
+         * @param since The last sequence number seen, or 0 for all changes.
+         * @param limit The maximum number of changes, or 0 for all of them. Large deltas
+         *              should be read in pages, continuing with the last sequence number.
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SINCE, String.valueOf(since));
+            if (limit > 0) {
+                builder.appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(limit));
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the aggregate statistics of the pets.
+     * The statistics are read-only and kept up to date by the database on every write,
+     * so reading them does not depend on the number of pets.
+     */
+    public static class PetStatsEntry {
+        /**
+         * The content URI for the statistics of all pets, a single row with
+         * {@link #COLUMN_PET_COUNT}, {@link #COLUMN_AVERAGE_WEIGHT},
+         * {@link #COLUMN_MIN_WEIGHT} and {@link #COLUMN_MAX_WEIGHT}.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The content URI for the statistics per gender, a row per gender with
+         * {@link #COLUMN_GENDER}, {@link #COLUMN_PET_COUNT} and {@link #COLUMN_AVERAGE_WEIGHT}.
+         */
+        public static final Uri CONTENT_GENDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS_GENDER);
+
+        /**
+         * The content URI for the statistics per breed, a row per breed with
+         * {@link #COLUMN_BREED} and {@link #COLUMN_PET_COUNT}. Pets without a breed are
+         * counted with an empty breed.
+         */
+        public static final Uri CONTENT_BREED_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS_BREED);
+
+        /** The MIME type of the {@link #CONTENT_URI} for the statistics of all pets. */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** The MIME type of the {@link #CONTENT_GENDER_URI} and {@link #CONTENT_BREED_URI}. */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** Columns names of the statistics */
+        public static final String COLUMN_GENDER = PetEntry.COLUMN_PET_GENDER;
+        public static final String COLUMN_BREED = PetEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_PET_COUNT = "pet_count";
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+    }
 }
@@ -1,14 +1,23 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.example.android.pets.data.PetContract.PetChangeEntry;
 import static com.example.android.pets.data.PetContract.PetEntry;
+import static com.example.android.pets.data.PetContract.PetStatsEntry;
+import static com.example.android.pets.data.PetContract.PetWeightEntry;
 
 public class PetDbHelper extends SQLiteOpenHelper {
     /** Current database version */
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 10;
     /** Name and file extension of database */
     public static final String DATABASE_NAME = "Pets.db";
 
@@ -19,26 +28,653 @@ public class PetDbHelper extends SQLiteOpenHelper {
             PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL," +
             PetEntry.COLUMN_PET_BREED + " TEXT," +
             PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL," +
-            PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+            PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0," +
+            PetDbHelper.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0," +
+            PetEntry.COLUMN_PET_PHOTO + " TEXT," +
+            PetEntry.COLUMN_REMOTE_ID + " TEXT," +
+            PetEntry.COLUMN_REMOTE_VERSION + " INTEGER);";
+
+    /**
+     * Index create entries. The catalog reads {@link PetEntry#_ID}, name and breed, and the
+     * row ID is part of every index, so the name and breed indexes cover the catalog
+     * projection when filtering or sorting by name or breed.
+     */
+    private static final String[] SQL_CREATE_INDEXES = {
+            "CREATE INDEX " + PetEntry.TABLE_NAME + "_name_breed_idx ON " + PetEntry.TABLE_NAME +
+                    " (" + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ");",
+            "CREATE INDEX " + PetEntry.TABLE_NAME + "_breed_name_idx ON " + PetEntry.TABLE_NAME +
+                    " (" + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_NAME + ");",
+            "CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_weight_idx ON " + PetEntry.TABLE_NAME +
+                    " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ");",
+            "CREATE INDEX " + PetEntry.TABLE_NAME + "_weight_idx ON " + PetEntry.TABLE_NAME +
+                    " (" + PetEntry.COLUMN_PET_WEIGHT + ");"
+    };
+
+    /** Name of the full-text search table, which mirrors the name and breed of every pet. */
+    public static final String SEARCH_TABLE_NAME = PetEntry.TABLE_NAME + "Search";
+
+    /**
+     * Full-text search create entries. The document ID of a search row is the ID of the pet,
+     * and triggers keep the search table in sync with the pets table.
+     */
+    private static final String[] SQL_CREATE_SEARCH = {
+            "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4(" +
+                    PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ");",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                    "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, " +
+                    PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") " +
+                    "VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME +
+                    ", NEW." + PetEntry.COLUMN_PET_BREED + "); END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_update AFTER UPDATE OF " +
+                    PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + SEARCH_TABLE_NAME + " SET " +
+                    PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", " +
+                    PetEntry.COLUMN_PET_BREED + " = NEW." + PetEntry.COLUMN_PET_BREED +
+                    " WHERE docid = OLD." + PetEntry._ID + "; END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid = OLD." + PetEntry._ID + "; END;"
+    };
+
+    /** Copy the pets which existed before the search table into it. */
+    private static final String SQL_POPULATE_SEARCH =
+            "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, " +
+            PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") " +
+            "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED +
+            " FROM " + PetEntry.TABLE_NAME;
+
+    /** Name of the summary table with the number and total weight of pets per gender. */
+    public static final String GENDER_STATS_TABLE_NAME = PetEntry.TABLE_NAME + "GenderStats";
+    /** Name of the summary table with the number of pets per breed. */
+    public static final String BREED_STATS_TABLE_NAME = PetEntry.TABLE_NAME + "BreedStats";
+    /** Name of the summary table with the number of pets per weight, for the minimum and maximum. */
+    public static final String WEIGHT_STATS_TABLE_NAME = PetEntry.TABLE_NAME + "WeightStats";
+
+    /** Column of {@link #GENDER_STATS_TABLE_NAME} with the total weight of the pets. */
+    public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+
+    /**
+     * Summary tables create entries. Triggers update the summaries incrementally on every
+     * write of the pets table, so the statistics are read in O(groups) instead of O(pets).
+     */
+    private static final String[] SQL_CREATE_STATS = {
+            "CREATE TABLE " + GENDER_STATS_TABLE_NAME + " (" +
+                    PetStatsEntry.COLUMN_GENDER + " INTEGER PRIMARY KEY," +
+                    PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL," +
+                    COLUMN_WEIGHT_SUM + " INTEGER NOT NULL);",
+            "CREATE TABLE " + BREED_STATS_TABLE_NAME + " (" +
+                    PetStatsEntry.COLUMN_BREED + " TEXT PRIMARY KEY," +
+                    PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL);",
+            "CREATE TABLE " + WEIGHT_STATS_TABLE_NAME + " (" +
+                    PetEntry.COLUMN_PET_WEIGHT + " INTEGER PRIMARY KEY," +
+                    PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL);",
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                    " BEGIN " + addToStats("NEW") + " END;",
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_update AFTER UPDATE OF " +
+                    PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT +
+                    " ON " + PetEntry.TABLE_NAME + " BEGIN " + removeFromStats("OLD") + addToStats("NEW") + " END;",
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME +
+                    " BEGIN " + removeFromStats("OLD") + " END;"
+    };
+
+    /** Compute the summaries of the pets which existed before the summary tables. */
+    private static final String[] SQL_POPULATE_STATS = {
+            "INSERT INTO " + GENDER_STATS_TABLE_NAME + " SELECT " + PetEntry.COLUMN_PET_GENDER +
+                    ", COUNT(*), SUM(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME +
+                    " GROUP BY " + PetEntry.COLUMN_PET_GENDER,
+            "INSERT INTO " + BREED_STATS_TABLE_NAME + " SELECT IFNULL(" + PetEntry.COLUMN_PET_BREED +
+                    ", ''), COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY IFNULL(" + PetEntry.COLUMN_PET_BREED + ", '')",
+            "INSERT INTO " + WEIGHT_STATS_TABLE_NAME + " SELECT " + PetEntry.COLUMN_PET_WEIGHT +
+                    ", COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY " + PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    /** Name of the table with the progress of imports, so they can be resumed. */
+    public static final String IMPORT_CHECKPOINTS_TABLE_NAME = PetEntry.TABLE_NAME + "ImportCheckpoints";
+    /** Column of {@link #IMPORT_CHECKPOINTS_TABLE_NAME} which identifies the imported source. */
+    public static final String COLUMN_SOURCE = "source";
+    /** Column of {@link #IMPORT_CHECKPOINTS_TABLE_NAME} with the number of committed source rows. */
+    public static final String COLUMN_ROWS_CONSUMED = "rows_consumed";
+
+    /** Import checkpoints create entries */
+    private static final String SQL_CREATE_IMPORT_CHECKPOINTS =
+            "CREATE TABLE " + IMPORT_CHECKPOINTS_TABLE_NAME + " (" +
+            COLUMN_SOURCE + " TEXT PRIMARY KEY," +
+            COLUMN_ROWS_CONSUMED + " INTEGER NOT NULL);";
+
+    /**
+     * Column of the pets table which marks deleted pets. Deleting pets only sets the flag,
+     * which is fast, and {@link PetPurger} removes the rows later in small transactions.
+     * The provider never returns or changes pets with the flag set.
+     */
+    public static final String COLUMN_DELETED = "deleted";
+
+    /** Condition of the pets which have not been deleted. */
+    public static final String SELECTION_NOT_DELETED = COLUMN_DELETED + "=0";
+
+    /** Add the deleted flag to an existing pets table. */
+    private static final String SQL_ADD_DELETED_COLUMN =
+            "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0;";
+
+    /**
+     * Triggers for deleted pets. A pet leaves the search table and the summaries when it is
+     * flagged as deleted, so purging its row later must not remove it a second time.
+     */
+    private static final String[] SQL_CREATE_SOFT_DELETE_TRIGGERS = {
+            "DROP TRIGGER IF EXISTS " + SEARCH_TABLE_NAME + "_delete;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_delete AFTER DELETE ON " + PetEntry.TABLE_NAME +
+                    " WHEN OLD." + COLUMN_DELETED + " = 0 BEGIN " +
+                    "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid = OLD." + PetEntry._ID + "; END;",
+            "CREATE TRIGGER " + SEARCH_TABLE_NAME + "_soft_delete AFTER UPDATE OF " + COLUMN_DELETED +
+                    " ON " + PetEntry.TABLE_NAME + " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED +
+                    " != 0 BEGIN " +
+                    "DELETE FROM " + SEARCH_TABLE_NAME + " WHERE docid = OLD." + PetEntry._ID + "; END;",
+            "DROP TRIGGER IF EXISTS " + PetEntry.TABLE_NAME + "_stats_delete;",
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME +
+                    " WHEN OLD." + COLUMN_DELETED + " = 0 BEGIN " + removeFromStats("OLD") + " END;",
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_stats_soft_delete AFTER UPDATE OF " + COLUMN_DELETED +
+                    " ON " + PetEntry.TABLE_NAME + " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED +
+                    " != 0 BEGIN " + removeFromStats("OLD") + " END;"
+    };
+
+    /** Add the photo file name to an existing pets table. */
+    private static final String SQL_ADD_PHOTO_COLUMN =
+            "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_PET_PHOTO + " TEXT;";
+
+    /** Current time in milliseconds since the epoch, in SQL. */
+    private static final String SQL_NOW_MILLIS = "CAST(strftime('%s', 'now') AS INTEGER) * 1000";
+
+    /** Name of the table with the weight rollups of the pets per period. */
+    public static final String WEIGHT_ROLLUPS_TABLE_NAME = PetWeightEntry.TABLE_NAME + "Rollups";
+
+    /** Column of {@link #WEIGHT_ROLLUPS_TABLE_NAME} with the kind of period, e.g. {@link #PERIOD_DAY}. */
+    public static final String COLUMN_PERIOD = "period";
+
+    /** Possible kinds of rollup periods */
+    public static final int PERIOD_DAY = 0;
+    public static final int PERIOD_WEEK = 1;
+    public static final int PERIOD_MONTH = 2;
 
-    /** Table delete entries */
-    private static final String SQL_DELETE_ENTRIES =
-            "DROP TABLE IF EXISTS " + PetEntry.TABLE_NAME;
+    /** Milliseconds per day. */
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Weight history create entries. Measurements are only appended, and an insert trigger
+     * adds every measurement to the rollup of its day, week and month, so charts read a row
+     * per period. The primary key of the rollups serves the range queries of a pet and period.
+     */
+    private static final String[] SQL_CREATE_WEIGHTS = {
+            "CREATE TABLE " + PetWeightEntry.TABLE_NAME + " (" +
+                    PetWeightEntry._ID + " INTEGER PRIMARY KEY," +
+                    PetWeightEntry.COLUMN_PET_ID + " INTEGER NOT NULL," +
+                    PetWeightEntry.COLUMN_WEIGHT + " INTEGER NOT NULL," +
+                    PetWeightEntry.COLUMN_MEASURED_AT + " INTEGER NOT NULL);",
+            "CREATE INDEX " + PetWeightEntry.TABLE_NAME + "_pet_time_idx ON " + PetWeightEntry.TABLE_NAME +
+                    " (" + PetWeightEntry.COLUMN_PET_ID + ", " + PetWeightEntry.COLUMN_MEASURED_AT + ");",
+            "CREATE TABLE " + WEIGHT_ROLLUPS_TABLE_NAME + " (" +
+                    PetWeightEntry.COLUMN_PET_ID + " INTEGER NOT NULL," +
+                    COLUMN_PERIOD + " INTEGER NOT NULL," +
+                    PetWeightEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL," +
+                    PetWeightEntry.COLUMN_MEASUREMENT_COUNT + " INTEGER NOT NULL," +
+                    COLUMN_WEIGHT_SUM + " INTEGER NOT NULL," +
+                    PetWeightEntry.COLUMN_MIN_WEIGHT + " INTEGER NOT NULL," +
+                    PetWeightEntry.COLUMN_MAX_WEIGHT + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + PetWeightEntry.COLUMN_PET_ID + ", " + COLUMN_PERIOD + ", " +
+                    PetWeightEntry.COLUMN_PERIOD_START + "));",
+            "CREATE TRIGGER " + PetWeightEntry.TABLE_NAME + "_rollup_insert AFTER INSERT ON " +
+                    PetWeightEntry.TABLE_NAME + " BEGIN " +
+                    addToRollup(PERIOD_DAY, dayStart("NEW")) +
+                    addToRollup(PERIOD_WEEK, weekStart("NEW")) +
+                    addToRollup(PERIOD_MONTH, monthStart("NEW")) + " END;",
+            // Every new weight of a pet is a measurement, so the editor records the history.
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_weight_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                    " WHEN NEW." + PetEntry.COLUMN_PET_WEIGHT + " > 0 BEGIN " + measureWeight("NEW") + " END;",
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_weight_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_WEIGHT +
+                    " ON " + PetEntry.TABLE_NAME + " WHEN NEW." + PetEntry.COLUMN_PET_WEIGHT + " > 0 AND NEW." +
+                    PetEntry.COLUMN_PET_WEIGHT + " != OLD." + PetEntry.COLUMN_PET_WEIGHT + " AND NEW." +
+                    COLUMN_DELETED + " = 0 BEGIN " + measureWeight("NEW") + " END;",
+            // The history of a pet is removed together with its row, when it is purged.
+            "CREATE TRIGGER " + PetEntry.TABLE_NAME + "_weight_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + PetWeightEntry.TABLE_NAME + " WHERE " + PetWeightEntry.COLUMN_PET_ID +
+                    " = OLD." + PetEntry._ID + "; " +
+                    "DELETE FROM " + WEIGHT_ROLLUPS_TABLE_NAME + " WHERE " + PetWeightEntry.COLUMN_PET_ID +
+                    " = OLD." + PetEntry._ID + "; END;"
+    };
+
+    /** Record the current weight of the pets which existed before the weight history. */
+    private static final String SQL_POPULATE_WEIGHTS =
+            "INSERT INTO " + PetWeightEntry.TABLE_NAME + " (" + PetWeightEntry.COLUMN_PET_ID + ", " +
+            PetWeightEntry.COLUMN_WEIGHT + ", " + PetWeightEntry.COLUMN_MEASURED_AT + ") " +
+            "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + SQL_NOW_MILLIS +
+            " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_WEIGHT + " > 0 AND " +
+            SELECTION_NOT_DELETED;
+
+    /** Name of the single-row table with the progress of {@link PetChangeLog}. */
+    public static final String CHANGES_STATE_TABLE_NAME = PetChangeEntry.TABLE_NAME + "State";
+
+    /** Column of {@link #CHANGES_STATE_TABLE_NAME} with the last compacted sequence number. */
+    public static final String COLUMN_COMPACTED_THROUGH = "compacted_through";
+
+    /**
+     * Column of {@link #CHANGES_STATE_TABLE_NAME} with the last sequence number of a dropped
+     * change. Callers with an older sequence number have to read all pets again.
+     */
+    public static final String COLUMN_TRUNCATED_THROUGH = "truncated_through";
+
+    /** Pet columns whose changes are logged, in the order of the changed columns of an update. */
+    private static final String[] LOGGED_COLUMNS = {
+            PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO
+    };
+
+    /**
+     * Change log create entries. Triggers append a change for every write of the pets table,
+     * so it is logged in the same transaction. The sequence numbers are never reused, and the
+     * index on the pet serves the compaction of its changes.
+     */
+    private static final String[] SQL_CREATE_CHANGES = {
+            "CREATE TABLE " + PetChangeEntry.TABLE_NAME + " (" +
+                    PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL," +
+                    PetChangeEntry.COLUMN_OP + " TEXT NOT NULL," +
+                    PetChangeEntry.COLUMN_CHANGED_COLUMNS + " TEXT," +
+                    PetChangeEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL);",
+            "CREATE INDEX " + PetChangeEntry.TABLE_NAME + "_pet_seq_idx ON " + PetChangeEntry.TABLE_NAME +
+                    " (" + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_SEQUENCE + ");",
+            "CREATE TABLE " + CHANGES_STATE_TABLE_NAME + " (" +
+                    COLUMN_COMPACTED_THROUGH + " INTEGER NOT NULL," +
+                    COLUMN_TRUNCATED_THROUGH + " INTEGER NOT NULL);",
+            "INSERT INTO " + CHANGES_STATE_TABLE_NAME + " VALUES (0, 0);",
+            "CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                    " BEGIN " + logChange("NEW." + PetEntry._ID, PetContract.OP_INSERT, "NULL") + " END;",
+            // Only updates which change a logged column are logged, with the names of those columns.
+            "CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_update AFTER UPDATE ON " + PetEntry.TABLE_NAME +
+                    " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED + " = 0 BEGIN " +
+                    "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", " +
+                    PetChangeEntry.COLUMN_OP + ", " + PetChangeEntry.COLUMN_CHANGED_COLUMNS + ", " +
+                    PetChangeEntry.COLUMN_CHANGED_AT + ") SELECT NEW." + PetEntry._ID + ", '" + PetContract.OP_UPDATE +
+                    "', columns, " + SQL_NOW_MILLIS + " FROM (SELECT " + changedColumns() + " AS columns)" +
+                    " WHERE columns != ''; END;",
+            "CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_delete AFTER UPDATE OF " + COLUMN_DELETED +
+                    " ON " + PetEntry.TABLE_NAME + " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED +
+                    " != 0 BEGIN " + logChange("OLD." + PetEntry._ID, PetContract.OP_DELETE, "NULL") + " END;"
+    };
+
+    /** Log the pets which existed before the change log as inserted. */
+    private static final String SQL_POPULATE_CHANGES =
+            "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", " +
+            PetChangeEntry.COLUMN_OP + ", " + PetChangeEntry.COLUMN_CHANGED_AT + ") " +
+            "SELECT " + PetEntry._ID + ", '" + PetContract.OP_INSERT + "', " + SQL_NOW_MILLIS +
+            " FROM " + PetEntry.TABLE_NAME + " WHERE " + SELECTION_NOT_DELETED + " ORDER BY " + PetEntry._ID;
+
+    /** Add the sync columns to an existing pets table. */
+    private static final String[] SQL_ADD_REMOTE_COLUMNS = {
+            "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_REMOTE_ID + " TEXT;",
+            "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_REMOTE_VERSION + " INTEGER;"
+    };
+
+    /**
+     * Sync create entries. Pets received from the server are found by their remote ID. Writes
+     * which change {@link PetEntry#COLUMN_REMOTE_VERSION} come from the server, so they are not
+     * logged and never sent back. Deletes log the remote ID, as the row is purged later.
+     */
+    private static final String[] SQL_CREATE_SYNC = {
+            "ALTER TABLE " + PetChangeEntry.TABLE_NAME + " ADD COLUMN " + PetChangeEntry.COLUMN_REMOTE_ID + " TEXT;",
+            "CREATE UNIQUE INDEX " + PetEntry.TABLE_NAME + "_remote_id_idx ON " + PetEntry.TABLE_NAME +
+                    " (" + PetEntry.COLUMN_REMOTE_ID + ");",
+            "DROP TRIGGER IF EXISTS " + PetChangeEntry.TABLE_NAME + "_insert;",
+            "CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                    " WHEN NEW." + PetEntry.COLUMN_REMOTE_VERSION + " IS NULL BEGIN " +
+                    logChange("NEW." + PetEntry._ID, PetContract.OP_INSERT, "NULL") + " END;",
+            "DROP TRIGGER IF EXISTS " + PetChangeEntry.TABLE_NAME + "_update;",
+            "CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_update AFTER UPDATE ON " + PetEntry.TABLE_NAME +
+                    " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED + " = 0 AND NEW." +
+                    PetEntry.COLUMN_REMOTE_VERSION + " IS OLD." + PetEntry.COLUMN_REMOTE_VERSION + " BEGIN " +
+                    "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", " +
+                    PetChangeEntry.COLUMN_OP + ", " + PetChangeEntry.COLUMN_CHANGED_COLUMNS + ", " +
+                    PetChangeEntry.COLUMN_CHANGED_AT + ") SELECT NEW." + PetEntry._ID + ", '" + PetContract.OP_UPDATE +
+                    "', columns, " + SQL_NOW_MILLIS + " FROM (SELECT " + changedColumns() + " AS columns)" +
+                    " WHERE columns != ''; END;",
+            "DROP TRIGGER IF EXISTS " + PetChangeEntry.TABLE_NAME + "_delete;",
+            "CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_delete AFTER UPDATE OF " + COLUMN_DELETED +
+                    " ON " + PetEntry.TABLE_NAME + " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED +
+                    " != 0 BEGIN " + "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID +
+                    ", " + PetChangeEntry.COLUMN_OP + ", " + PetChangeEntry.COLUMN_REMOTE_ID + ", " +
+                    PetChangeEntry.COLUMN_CHANGED_AT + ") VALUES (OLD." + PetEntry._ID + ", '" + PetContract.OP_DELETE +
+                    "', OLD." + PetEntry.COLUMN_REMOTE_ID + ", " + SQL_NOW_MILLIS + "); " +
+                    // Free the remote ID, so the pet can be received again if the server keeps it.
+                    "UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_REMOTE_ID + " = NULL WHERE " +
+                    PetEntry._ID + " = OLD." + PetEntry._ID + "; END;"
+    };
+
+    /** Values of the SQLite synchronous setting. */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /**
+     * Describes how the database handles concurrent reads and writes.
+     *
+     * With write-ahead logging, readers keep reading the last committed data while a long
+     * write transaction runs, instead of waiting for it to finish. The platform keeps a pool
+     * of reader connections next to the writer connection; its size is decided by the
+     * platform and cannot be changed by applications.
+     */
+    public static final class ConcurrencyMode {
+        /** Rollback journal: a write transaction blocks all readers until it is committed. */
+        public static final ConcurrencyMode ROLLBACK_JOURNAL =
+                new ConcurrencyMode(false, SYNCHRONOUS_FULL, 0);
+
+        /** Write-ahead logging, checkpointed by SQLite whenever the log reaches 1000 pages. */
+        public static final ConcurrencyMode WRITE_AHEAD_LOG =
+                new ConcurrencyMode(true, SYNCHRONOUS_NORMAL, 1000);
+
+        /** True if the database uses write-ahead logging. */
+        public final boolean writeAheadLogging;
+        /** SQLite synchronous setting of the writer connection, e.g. {@link #SYNCHRONOUS_NORMAL}. */
+        public final String synchronous;
+        /**
+         * Number of pages in the write-ahead log after which SQLite checkpoints it automatically.
+         * Zero disables automatic checkpoints, so they have to be run with {@link #checkpoint()}.
+         * Ignored without write-ahead logging.
+         */
+        public final int checkpointPages;
+
+        public ConcurrencyMode(boolean writeAheadLogging, String synchronous, int checkpointPages) {
+            if (!SYNCHRONOUS_OFF.equals(synchronous) && !SYNCHRONOUS_NORMAL.equals(synchronous)
+                    && !SYNCHRONOUS_FULL.equals(synchronous)) {
+                throw new IllegalArgumentException("Unknown synchronous setting " + synchronous);
+            }
+            if (checkpointPages < 0) {
+                throw new IllegalArgumentException("Checkpoint pages must not be negative.");
+            }
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.checkpointPages = checkpointPages;
+        }
+    }
+
+    /** How the database handles concurrent reads and writes. */
+    private final ConcurrencyMode mConcurrencyMode;
+
+    /**
+     * Lets the provider calls and the background workers use the database at the same time,
+     * but not while the database file is closed and replaced, e.g. by a restore.
+     */
+    private final ReadWriteLock mReplaceLock = new ReentrantReadWriteLock();
 
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, ConcurrencyMode.WRITE_AHEAD_LOG);
+    }
+
+    public PetDbHelper(Context context, ConcurrencyMode concurrencyMode) {
+        this(context, concurrencyMode, null);
+    }
+
+    /**
+     * @param cursorFactory Factory for all cursors of the database, or null for the default cursors.
+     */
+    public PetDbHelper(Context context, ConcurrencyMode concurrencyMode, SQLiteDatabase.CursorFactory cursorFactory) {
+        super(context, DATABASE_NAME, cursorFactory, DATABASE_VERSION);
+        mConcurrencyMode = concurrencyMode;
+    }
+
+    public ConcurrencyMode getConcurrencyMode() {
+        return mConcurrencyMode;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+
+        // Switch the journal mode first, as it resets the settings of the writer connection.
+        if (mConcurrencyMode.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.disableWriteAheadLogging();
+        }
+
+        // Apply the settings to the writer connection, which runs all write transactions.
+        db.execSQL("PRAGMA synchronous=" + mConcurrencyMode.synchronous);
+        if (mConcurrencyMode.writeAheadLogging) {
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + mConcurrencyMode.checkpointPages, null);
+        }
+    }
+
+    /**
+     * Start a unit of work on the database, waiting while the database file is replaced.
+     * Every call has to be followed by {@link #endUse()}, also if the work fails. Calls may
+     * be nested.
+     */
+    void beginUse() {
+        mReplaceLock.readLock().lock();
+    }
+
+    /**
+     * End a unit of work started with {@link #beginUse()}.
+     */
+    void endUse() {
+        mReplaceLock.readLock().unlock();
+    }
+
+    /**
+     * Wait until the units of work which are running have ended, and keep new ones waiting
+     * until {@link #endReplace()}, so the database can be closed and its file replaced. Must
+     * not be called within a unit of work, which would wait for itself.
+     */
+    void beginReplace() {
+        mReplaceLock.writeLock().lock();
+    }
+
+    /**
+     * Let the units of work waiting for the replaced database continue.
+     */
+    void endReplace() {
+        mReplaceLock.writeLock().unlock();
+    }
+
+    /**
+     * Copy the pages of the write-ahead log back into the database file, as far as
+     * no reader still needs them. Does nothing without write-ahead logging.
+     */
+    public void checkpoint() {
+        if (!mConcurrencyMode.writeAheadLogging) {
+            return;
+        }
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        createIndexes(db);
+        execAll(db, SQL_CREATE_SEARCH);
+        execAll(db, SQL_CREATE_STATS);
+        db.execSQL(SQL_CREATE_IMPORT_CHECKPOINTS);
+        execAll(db, SQL_CREATE_SOFT_DELETE_TRIGGERS);
+        execAll(db, SQL_CREATE_WEIGHTS);
+        execAll(db, SQL_CREATE_CHANGES);
+        execAll(db, SQL_CREATE_SYNC);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        // Migrate step by step, so the pets entered by the user are kept.
+        if (oldVersion < 2) {
+            createIndexes(db);
+        }
+        if (oldVersion < 3) {
+            execAll(db, SQL_CREATE_SEARCH);
+            db.execSQL(SQL_POPULATE_SEARCH);
+        }
+        if (oldVersion < 4) {
+            execAll(db, SQL_CREATE_STATS);
+            execAll(db, SQL_POPULATE_STATS);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(SQL_CREATE_IMPORT_CHECKPOINTS);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(SQL_ADD_DELETED_COLUMN);
+            execAll(db, SQL_CREATE_SOFT_DELETE_TRIGGERS);
+        }
+        if (oldVersion < 7) {
+            db.execSQL(SQL_ADD_PHOTO_COLUMN);
+        }
+        if (oldVersion < 8) {
+            execAll(db, SQL_CREATE_WEIGHTS);
+            db.execSQL(SQL_POPULATE_WEIGHTS);
+        }
+        if (oldVersion < 9) {
+            execAll(db, SQL_CREATE_CHANGES);
+            db.execSQL(SQL_POPULATE_CHANGES);
+        }
+        if (oldVersion < 10) {
+            execAll(db, SQL_ADD_REMOTE_COLUMNS);
+            execAll(db, SQL_CREATE_SYNC);
+        }
+    }
+
+    /**
+     * Return the trigger statement which appends a change of the given pet to the change log.
+     */
+    private static String logChange(String petId, String op, String changedColumns) {
+        return "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", " +
+                PetChangeEntry.COLUMN_OP + ", " + PetChangeEntry.COLUMN_CHANGED_COLUMNS + ", " +
+                PetChangeEntry.COLUMN_CHANGED_AT + ") VALUES (" + petId + ", '" + op + "', " + changedColumns +
+                ", " + SQL_NOW_MILLIS + ");";
+    }
+
+    /**
+     * Return the SQL for the comma-separated names of the logged columns which differ between
+     * the OLD and NEW row of an update, or an empty string if none do.
+     */
+    private static String changedColumns() {
+        StringBuilder columns = new StringBuilder("rtrim(");
+        for (int i = 0; i < LOGGED_COLUMNS.length; i++) {
+            String column = LOGGED_COLUMNS[i];
+            columns.append(i == 0 ? "" : " || ")
+                    .append("CASE WHEN OLD.").append(column).append(" IS NOT NEW.").append(column)
+                    .append(" THEN '").append(column).append(",' ELSE '' END");
+        }
+        return columns.append(", ',')").toString();
+    }
+
+    /**
+     * Return the trigger statements which add the given new measurement to its rollup of the
+     * given period, creating the rollup for the first measurement of the period.
+     */
+    private static String addToRollup(int period, String periodStart) {
+        String where = " WHERE " + PetWeightEntry.COLUMN_PET_ID + " = NEW." + PetWeightEntry.COLUMN_PET_ID +
+                " AND " + COLUMN_PERIOD + " = " + period + " AND " + PetWeightEntry.COLUMN_PERIOD_START + " = " +
+                periodStart + "; ";
+        return "INSERT OR IGNORE INTO " + WEIGHT_ROLLUPS_TABLE_NAME + " VALUES (" +
+                "NEW." + PetWeightEntry.COLUMN_PET_ID + ", " + period + ", " + periodStart + ", 0, 0, " +
+                "NEW." + PetWeightEntry.COLUMN_WEIGHT + ", NEW." + PetWeightEntry.COLUMN_WEIGHT + "); " +
+                "UPDATE " + WEIGHT_ROLLUPS_TABLE_NAME + " SET " +
+                PetWeightEntry.COLUMN_MEASUREMENT_COUNT + " = " + PetWeightEntry.COLUMN_MEASUREMENT_COUNT + " + 1, " +
+                COLUMN_WEIGHT_SUM + " = " + COLUMN_WEIGHT_SUM + " + NEW." + PetWeightEntry.COLUMN_WEIGHT + ", " +
+                PetWeightEntry.COLUMN_MIN_WEIGHT + " = MIN(" + PetWeightEntry.COLUMN_MIN_WEIGHT + ", NEW." +
+                PetWeightEntry.COLUMN_WEIGHT + "), " +
+                PetWeightEntry.COLUMN_MAX_WEIGHT + " = MAX(" + PetWeightEntry.COLUMN_MAX_WEIGHT + ", NEW." +
+                PetWeightEntry.COLUMN_WEIGHT + ")" + where;
+    }
+
+    /** Return the SQL for the start of the UTC day of the given measurement (NEW or OLD). */
+    private static String dayStart(String row) {
+        return "(" + row + "." + PetWeightEntry.COLUMN_MEASURED_AT + " / " + DAY_MILLIS + " * " + DAY_MILLIS + ")";
+    }
+
+    /**
+     * Return the SQL for the start of the week of the given measurement (NEW or OLD). Weeks
+     * start on Monday, and the epoch was a Thursday, three days after a Monday.
+     */
+    private static String weekStart(String row) {
+        return "((" + row + "." + PetWeightEntry.COLUMN_MEASURED_AT + " / " + DAY_MILLIS + " + 3) / 7 * 7 - 3) * " +
+                DAY_MILLIS;
+    }
+
+    /** Return the SQL for the start of the UTC month of the given measurement (NEW or OLD). */
+    private static String monthStart(String row) {
+        return "CAST(strftime('%s', " + row + "." + PetWeightEntry.COLUMN_MEASURED_AT +
+                " / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+    }
+
+    /**
+     * Return the trigger statement which appends the current weight of the given pet row
+     * (NEW or OLD) to its history.
+     */
+    private static String measureWeight(String row) {
+        return "INSERT INTO " + PetWeightEntry.TABLE_NAME + " (" + PetWeightEntry.COLUMN_PET_ID + ", " +
+                PetWeightEntry.COLUMN_WEIGHT + ", " + PetWeightEntry.COLUMN_MEASURED_AT + ") VALUES (" +
+                row + "." + PetEntry._ID + ", " + row + "." + PetEntry.COLUMN_PET_WEIGHT + ", " + SQL_NOW_MILLIS + ");";
+    }
+
+    /**
+     * Return the trigger statements which count the given row (NEW or OLD) in the summaries.
+     */
+    private static String addToStats(String row) {
+        return "INSERT OR IGNORE INTO " + GENDER_STATS_TABLE_NAME + " VALUES (" +
+                row + "." + PetEntry.COLUMN_PET_GENDER + ", 0, 0); " +
+                "UPDATE " + GENDER_STATS_TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1, " +
+                COLUMN_WEIGHT_SUM + " = " + COLUMN_WEIGHT_SUM + " + " + row + "." + PetEntry.COLUMN_PET_WEIGHT +
+                " WHERE " + PetStatsEntry.COLUMN_GENDER + " = " + row + "." + PetEntry.COLUMN_PET_GENDER + "; " +
+                "INSERT OR IGNORE INTO " + BREED_STATS_TABLE_NAME + " VALUES (" +
+                "IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", ''), 0); " +
+                "UPDATE " + BREED_STATS_TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1" +
+                " WHERE " + PetStatsEntry.COLUMN_BREED + " = IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", ''); " +
+                "INSERT OR IGNORE INTO " + WEIGHT_STATS_TABLE_NAME + " VALUES (" +
+                row + "." + PetEntry.COLUMN_PET_WEIGHT + ", 0); " +
+                "UPDATE " + WEIGHT_STATS_TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1" +
+                " WHERE " + PetEntry.COLUMN_PET_WEIGHT + " = " + row + "." + PetEntry.COLUMN_PET_WEIGHT + "; ";
     }
 
+    /**
+     * Return the trigger statements which remove the given row (NEW or OLD) from the summaries.
+     * Groups without pets are deleted, so the minimum and maximum weight stay correct.
+     */
+    private static String removeFromStats(String row) {
+        return "UPDATE " + GENDER_STATS_TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1, " +
+                COLUMN_WEIGHT_SUM + " = " + COLUMN_WEIGHT_SUM + " - " + row + "." + PetEntry.COLUMN_PET_WEIGHT +
+                " WHERE " + PetStatsEntry.COLUMN_GENDER + " = " + row + "." + PetEntry.COLUMN_PET_GENDER + "; " +
+                "DELETE FROM " + GENDER_STATS_TABLE_NAME + " WHERE " + PetStatsEntry.COLUMN_GENDER + " = " +
+                row + "." + PetEntry.COLUMN_PET_GENDER + " AND " + PetStatsEntry.COLUMN_PET_COUNT + " <= 0; " +
+                "UPDATE " + BREED_STATS_TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1" +
+                " WHERE " + PetStatsEntry.COLUMN_BREED + " = IFNULL(" + row + "." + PetEntry.COLUMN_PET_BREED + ", ''); " +
+                "DELETE FROM " + BREED_STATS_TABLE_NAME + " WHERE " + PetStatsEntry.COLUMN_BREED + " = IFNULL(" +
+                row + "." + PetEntry.COLUMN_PET_BREED + ", '') AND " + PetStatsEntry.COLUMN_PET_COUNT + " <= 0; " +
+                "UPDATE " + WEIGHT_STATS_TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1" +
+                " WHERE " + PetEntry.COLUMN_PET_WEIGHT + " = " + row + "." + PetEntry.COLUMN_PET_WEIGHT + "; " +
+                "DELETE FROM " + WEIGHT_STATS_TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_WEIGHT + " = " +
+                row + "." + PetEntry.COLUMN_PET_WEIGHT + " AND " + PetStatsEntry.COLUMN_PET_COUNT + " <= 0; ";
+    }
+
+    /**
+     * Create the indexes for the filters and sort orders used with the pets table.
+     */
+    private static void createIndexes(SQLiteDatabase db) {
+        execAll(db, SQL_CREATE_INDEXES);
+    }
+
+    /**
+     * Execute all given SQL statements in order.
+     */
+    private static void execAll(SQLiteDatabase db, String[] statements) {
+        for (String sql : statements) {
+            db.execSQL(sql);
+        }
+    }
 
 }
@@ -0,0 +1,224 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams all pets as CSV or JSON into the pipe opened by {@link PetProvider#openFile(Uri, String)}.
+ *
+ * The pets are read page by page with keyset pagination and written straight to the pipe,
+ * so memory use does not depend on the number of pets.
+ */
+public class PetExporter implements ContentProvider.PipeDataWriter<PetExporter.Options> {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    /** Number of pets read from the database at once. */
+    private static final int PAGE_SIZE = 1000;
+
+    /** Size of the buffer between the text writer and the pipe. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Exported columns, in the order of the CSV columns. */
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    /** Provider from which the pets are read. */
+    private final ContentProvider mProvider;
+
+    /**
+     * Format of an export.
+     */
+    public static final class Options {
+        /** {@link PetContract#FORMAT_CSV} or {@link PetContract#FORMAT_JSON}. */
+        public final String format;
+        /** True to compress the output with gzip. */
+        public final boolean gzip;
+
+        public Options(String format, boolean gzip) {
+            if (!PetContract.FORMAT_CSV.equals(format) && !PetContract.FORMAT_JSON.equals(format)) {
+                throw new IllegalArgumentException("Unknown export format " + format);
+            }
+            this.format = format;
+            this.gzip = gzip;
+        }
+
+        /**
+         * Read the options from the query parameters of an export URI.
+         * CSV without compression is used when a parameter is missing.
+         */
+        public static Options fromUri(Uri uri) {
+            String format = uri.getQueryParameter(PetContract.QUERY_PARAM_FORMAT);
+            return new Options(format == null ? PetContract.FORMAT_CSV : format,
+                    uri.getBooleanQueryParameter(PetContract.QUERY_PARAM_GZIP, false));
+        }
+
+        /** Return the MIME type of the exported file. */
+        public String getMimeType() {
+            return PetContract.FORMAT_JSON.equals(format) ? PetContract.MIME_TYPE_JSON : PetContract.MIME_TYPE_CSV;
+        }
+    }
+
+    public PetExporter(ContentProvider provider) {
+        mProvider = provider;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, Options args) {
+        // The pipe itself is closed by the provider once this method returns.
+        try {
+            export(new FileOutputStream(output.getFileDescriptor()), args);
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early.
+            Log.w(LOG_TAG, "Failed to export pets to " + uri, e);
+        }
+    }
+
+    /**
+     * Write all pets to the given stream. The stream is flushed, but not closed.
+     */
+    public void export(OutputStream out, Options options) throws IOException {
+        GZIPOutputStream gzipStream = null;
+        if (options.gzip) {
+            gzipStream = new GZIPOutputStream(out, BUFFER_SIZE);
+            out = gzipStream;
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+
+        if (PetContract.FORMAT_JSON.equals(options.format)) {
+            exportJson(writer);
+        } else {
+            exportCsv(writer);
+        }
+
+        writer.flush();
+        if (gzipStream != null) {
+            gzipStream.finish();
+        }
+        out.flush();
+    }
+
+    /**
+     * Write all pets as CSV with a header row.
+     */
+    private void exportCsv(Writer writer) throws IOException {
+        for (int column = 0; column < PROJECTION.length; column++) {
+            if (column > 0) {
+                writer.write(',');
+            }
+            writer.write(PROJECTION[column]);
+        }
+        writer.write('\n');
+
+        long lastId = 0;
+        Cursor page;
+        while ((page = queryPage(lastId)) != null) {
+            try {
+                while (page.moveToNext()) {
+                    lastId = page.getLong(0);
+                    writer.write(Long.toString(lastId));
+                    writer.write(',');
+                    writeCsvField(writer, page.getString(1));
+                    writer.write(',');
+                    writeCsvField(writer, page.getString(2));
+                    writer.write(',');
+                    writer.write(Integer.toString(page.getInt(3)));
+                    writer.write(',');
+                    writer.write(Integer.toString(page.getInt(4)));
+                    writer.write('\n');
+                }
+            } finally {
+                page.close();
+            }
+        }
+    }
+
+    /**
+     * Write a CSV field, quoting it if it contains a separator, quote or line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Write all pets as a JSON array of objects.
+     */
+    private void exportJson(Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+
+        long lastId = 0;
+        Cursor page;
+        while ((page = queryPage(lastId)) != null) {
+            try {
+                while (page.moveToNext()) {
+                    lastId = page.getLong(0);
+                    json.beginObject();
+                    json.name(PetEntry._ID).value(lastId);
+                    json.name(PetEntry.COLUMN_PET_NAME).value(page.getString(1));
+                    json.name(PetEntry.COLUMN_PET_BREED);
+                    if (page.isNull(2)) {
+                        json.nullValue();
+                    } else {
+                        json.value(page.getString(2));
+                    }
+                    json.name(PetEntry.COLUMN_PET_GENDER).value(page.getInt(3));
+                    json.name(PetEntry.COLUMN_PET_WEIGHT).value(page.getInt(4));
+                    json.endObject();
+                }
+            } finally {
+                page.close();
+            }
+        }
+
+        json.endArray();
+        json.flush();
+    }
+
+    /**
+     * Query the page of pets after the given ID.
+     * @return The page, or null if there are no more pets.
+     */
+    private Cursor queryPage(long afterId) {
+        Cursor page = mProvider.query(PetEntry.buildPageUri(afterId, PAGE_SIZE), PROJECTION, null, null, null);
+        if (page != null && page.getCount() == 0) {
+            page.close();
+            return null;
+        }
+        return page;
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports pets from a CSV or JSON stream, in the formats written by {@link PetExporter}.
+ *
+ * The stream is read row by row and the rows are committed in chunks, each chunk in its own
+ * transaction, so memory use does not depend on the size of the file. Rows are validated with
+ * the same rules as a single insert; invalid rows are reported and skipped. The number of
+ * committed rows of a source is stored with every chunk, so an import interrupted by a crash
+ * continues after the last committed chunk when it is started again with the same source key.
+ *
+ * Imports do disk I/O and must not be run on the main thread.
+ */
+public class PetImporter {
+    /** Default number of source rows committed in a single transaction. */
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    /** Size of the buffer between the stream and the parser. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** First two bytes of a gzip stream. */
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    /** Imported columns, in the order of the fields of a row. */
+    private static final String[] COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    /** Provider into which the pets are imported. */
+    private final PetProvider mProvider;
+
+    /** Number of source rows committed in a single transaction. */
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Listener for the progress of an import. Called on the importing thread.
+     */
+    public interface Listener {
+        /** Called after every committed chunk. */
+        void onProgress(long rowsRead, long rowsImported, long rowsRejected);
+
+        /**
+         * Called for every row which is not a valid pet.
+         * @param row       Number of the row in the source, starting at 1 and not counting the CSV header.
+         * @param reason    Why the row has been rejected.
+         */
+        void onRowRejected(long row, String reason);
+    }
+
+    /**
+     * Outcome of a finished import.
+     */
+    public static final class Result {
+        /** Rows skipped because they had been committed by an earlier, interrupted import. */
+        public final long rowsSkipped;
+        /** Rows read by this import, not counting the skipped ones. */
+        public final long rowsRead;
+        /** Rows inserted as pets. */
+        public final long rowsImported;
+        /** Rows rejected as invalid. */
+        public final long rowsRejected;
+
+        Result(long rowsSkipped, long rowsRead, long rowsImported, long rowsRejected) {
+            this.rowsSkipped = rowsSkipped;
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+        }
+    }
+
+    /**
+     * Reads the rows of a source, each as the fields in the order of {@link #COLUMNS}.
+     */
+    private interface RowReader {
+        /** Return the fields of the next row, or null at the end of the source. */
+        String[] next() throws IOException;
+    }
+
+    /**
+     * Constructs a new {@link PetImporter}. The provider can be obtained from
+     * {@link ContentProviderClient#getLocalContentProvider()}.
+     */
+    public PetImporter(PetProvider provider) {
+        mProvider = provider;
+    }
+
+    /**
+     * Set the number of source rows committed in a single transaction.
+     * Larger chunks import faster, smaller chunks lose less work on a crash.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        mChunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * Import all pets of the given stream. The stream may be compressed with gzip and is not closed.
+     * @param in        The CSV or JSON stream.
+     * @param format    {@link PetContract#FORMAT_CSV} or {@link PetContract#FORMAT_JSON}.
+     * @param source    Key which identifies the content of the stream, e.g. its URI together with
+     *                  its size and modification time. An import with the key of an interrupted
+     *                  import skips the rows which have already been committed.
+     * @param listener  Listener for the progress, or null.
+     * @throws IOException if the stream cannot be read or is malformed. All chunks committed
+     *                  before the error are kept and skipped when the import is started again.
+     */
+    public Result importPets(InputStream in, String format, String source, Listener listener) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(decompress(in), "UTF-8"), BUFFER_SIZE);
+        RowReader rows;
+        if (PetContract.FORMAT_JSON.equals(format)) {
+            rows = new JsonRowReader(reader);
+        } else if (PetContract.FORMAT_CSV.equals(format)) {
+            rows = new CsvRowReader(reader);
+        } else {
+            throw new IllegalArgumentException("Unknown import format " + format);
+        }
+
+        long rowsSkipped = mProvider.getImportCheckpoint(source);
+        long rowNumber = 0;
+        long rowsImported = 0;
+        long rowsRejected = 0;
+        List<ContentValues> chunk = new ArrayList<>(mChunkSize);
+        int chunkRows = 0;
+
+        String[] fields;
+        while ((fields = rows.next()) != null) {
+            rowNumber++;
+            if (rowNumber <= rowsSkipped) {
+                continue;
+            }
+            try {
+                ContentValues pet = toPet(fields);
+                PetProvider.validateNewPet(pet);
+                chunk.add(pet);
+            } catch (IllegalArgumentException e) {
+                rowsRejected++;
+                if (listener != null) {
+                    listener.onRowRejected(rowNumber, e.getMessage());
+                }
+            }
+
+            if (++chunkRows == mChunkSize) {
+                rowsImported += mProvider.importPets(source, chunk, rowNumber);
+                chunk.clear();
+                chunkRows = 0;
+                if (listener != null) {
+                    listener.onProgress(rowNumber - rowsSkipped, rowsImported, rowsRejected);
+                }
+            }
+        }
+
+        if (chunkRows > 0) {
+            rowsImported += mProvider.importPets(source, chunk, rowNumber);
+            if (listener != null) {
+                listener.onProgress(rowNumber - rowsSkipped, rowsImported, rowsRejected);
+            }
+        }
+        // The source has been imported completely, so a new import of it starts from scratch.
+        mProvider.clearImportCheckpoint(source);
+
+        long rowsRead = Math.max(0, rowNumber - rowsSkipped);
+        return new Result(Math.min(rowsSkipped, rowNumber), rowsRead, rowsImported, rowsRejected);
+    }
+
+    /**
+     * Return a stream of the uncompressed content, if the given stream is compressed with gzip.
+     */
+    private static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int magic = buffered.read() | (buffered.read() << 8);
+        buffered.reset();
+        return magic == GZIP_MAGIC ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+    }
+
+    /**
+     * Convert the fields of a row into the values of a new pet.
+     * @throws IllegalArgumentException if gender or weight is not a number.
+     */
+    private static ContentValues toPet(String[] fields) {
+        ContentValues pet = new ContentValues(COLUMNS.length);
+        pet.put(PetEntry.COLUMN_PET_NAME, fields[0]);
+        // An empty CSV field cannot be told apart from a missing breed.
+        pet.put(PetEntry.COLUMN_PET_BREED, fields[1] == null || fields[1].isEmpty() ? null : fields[1]);
+        pet.put(PetEntry.COLUMN_PET_GENDER, parseInt(fields[2], "Gender"));
+        pet.put(PetEntry.COLUMN_PET_WEIGHT, parseInt(fields[3], "Weight"));
+        return pet;
+    }
+
+    /**
+     * Parse an integer field. Returns null for a missing field, which validation rejects.
+     */
+    private static Integer parseInt(String field, String name) {
+        if (field == null || field.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + field);
+        }
+    }
+
+    /**
+     * Reads CSV with a header row. Fields may be quoted, with doubled quotes inside quoted fields.
+     * Columns are matched by the names in the header; unknown columns, like {@link PetEntry#_ID},
+     * are ignored and blank lines are skipped.
+     */
+    private static class CsvRowReader implements RowReader {
+        private final Reader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private final List<String> mRecord = new ArrayList<>();
+        /** Index of every column of {@link #COLUMNS} in a record, or -1 if missing. */
+        private int[] mColumnIndexes;
+
+        CsvRowReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            if (mColumnIndexes == null) {
+                if (!readRecord()) {
+                    return null;
+                }
+                mColumnIndexes = mapHeader(mRecord);
+            }
+
+            do {
+                if (!readRecord()) {
+                    return null;
+                }
+            } while (mRecord.size() == 1 && mRecord.get(0).isEmpty());
+
+            String[] fields = new String[COLUMNS.length];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                int index = mColumnIndexes[i];
+                if (index >= 0 && index < mRecord.size()) {
+                    fields[i] = mRecord.get(index);
+                }
+            }
+            return fields;
+        }
+
+        /**
+         * Return the index of every column of {@link #COLUMNS} in the given header.
+         */
+        private static int[] mapHeader(List<String> header) {
+            if (!header.isEmpty() && header.get(0).startsWith("\uFEFF")) {
+                // Spreadsheet programs often start UTF-8 files with a byte order mark.
+                header.set(0, header.get(0).substring(1));
+            }
+            int[] indexes = new int[COLUMNS.length];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                indexes[i] = -1;
+                for (int column = 0; column < header.size(); column++) {
+                    if (COLUMNS[i].equalsIgnoreCase(header.get(column).trim())) {
+                        indexes[i] = column;
+                        break;
+                    }
+                }
+            }
+            return indexes;
+        }
+
+        /**
+         * Read the next record into {@link #mRecord}.
+         * @return False at the end of the source.
+         */
+        private boolean readRecord() throws IOException {
+            mRecord.clear();
+            mField.setLength(0);
+            int c = mReader.read();
+            if (c == -1) {
+                return false;
+            }
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted CSV field");
+                    }
+                    if (c == '"') {
+                        c = mReader.read();
+                        if (c != '"') {
+                            // End of the quoted part, c is the character after the closing quote.
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    mField.append((char) c);
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    mRecord.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    mRecord.add(mField.toString());
+                    return true;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+                c = mReader.read();
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON array of objects. Unknown names, like {@link PetEntry#_ID}, are ignored.
+     */
+    private static class JsonRowReader implements RowReader {
+        private final JsonReader mJson;
+        private boolean mStarted;
+
+        JsonRowReader(Reader reader) {
+            mJson = new JsonReader(reader);
+        }
+
+        @Override
+        public String[] next() throws IOException {
+            try {
+                return readRow();
+            } catch (IllegalStateException e) {
+                // Thrown by the reader for valid JSON of the wrong structure, e.g. an object
+                // instead of the array, or numbers instead of the objects of the pets.
+                throw new IOException("Malformed JSON of pets", e);
+            }
+        }
+
+        private String[] readRow() throws IOException {
+            if (!mStarted) {
+                mJson.beginArray();
+                mStarted = true;
+            }
+            if (!mJson.hasNext()) {
+                mJson.endArray();
+                return null;
+            }
+
+            String[] fields = new String[COLUMNS.length];
+            mJson.beginObject();
+            while (mJson.hasNext()) {
+                int index = indexOf(mJson.nextName());
+                JsonToken token = mJson.peek();
+                if (index >= 0 && (token == JsonToken.STRING || token == JsonToken.NUMBER)) {
+                    // Numbers are read as strings and parsed like CSV fields.
+                    fields[index] = mJson.nextString();
+                } else {
+                    // Any other value leaves the field missing, which validation rejects.
+                    mJson.skipValue();
+                }
+            }
+            mJson.endObject();
+            return fields;
+        }
+
+        private static int indexOf(String name) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (COLUMNS[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Stores the photo files of the pets in the private files directory of the app. The pets
+ * table only holds the file names, see {@link PetContract.PetEntry#COLUMN_PET_PHOTO}.
+ */
+final class PetPhotoStore {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    /** Name of the directory with the photos. */
+    private static final String DIRECTORY_NAME = "photos";
+
+    private final File mDirectory;
+
+    PetPhotoStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Return the photo file with the given name.
+     * @throws FileNotFoundException If the name does not belong to a photo.
+     */
+    File getFile(String name) throws FileNotFoundException {
+        // Names come from the database, but never leave the photo directory.
+        if (name.indexOf(File.separatorChar) >= 0 || name.startsWith(".")) {
+            throw new FileNotFoundException("Invalid photo name " + name);
+        }
+        return new File(mDirectory, name);
+    }
+
+    /**
+     * Create a new, empty file for a photo of the given pet. Every file gets a new name.
+     */
+    File createFile(long petId) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        return File.createTempFile("pet" + petId + "-", ".photo", mDirectory);
+    }
+
+    /**
+     * Delete the photo with the given name, if it exists.
+     */
+    void delete(String name) {
+        try {
+            File file = getFile(name);
+            if (file.exists() && !file.delete()) {
+                Log.w(LOG_TAG, "Cannot delete photo " + file);
+            }
+        } catch (FileNotFoundException e) {
+            Log.w(LOG_TAG, "Not deleting invalid photo " + name, e);
+        }
+    }
+}
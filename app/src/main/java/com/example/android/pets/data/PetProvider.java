@@ -1,17 +1,47 @@
 package com.example.android.pets.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.StrictMode;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
 import android.support.annotation.Nullable;
+import android.support.v4.os.TraceCompat;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * {@link ContentProvider} for Pets app.
  */
@@ -23,6 +53,26 @@ public class PetProvider extends ContentProvider {
     private static final int PETS = 100;
     /** URI matcher code for content URI for a single pet in the pets table. */
     private static final int PET_ID = 101;
+    /** URI matcher code for content URI for searching pets by name and breed. */
+    private static final int PET_SEARCH = 102;
+    /** URI matcher code for content URI for the statistics of all pets. */
+    private static final int PET_STATS = 103;
+    /** URI matcher code for content URI for the statistics per gender. */
+    private static final int PET_STATS_GENDER = 104;
+    /** URI matcher code for content URI for the statistics per breed. */
+    private static final int PET_STATS_BREED = 105;
+    /** URI matcher code for content URI for exporting all pets as a file. */
+    private static final int PET_EXPORT = 106;
+    /** URI matcher code for content URI for the photo of a single pet. */
+    private static final int PET_PHOTO = 107;
+    /** URI matcher code for content URI for the weight measurements of a single pet. */
+    private static final int PET_WEIGHTS = 108;
+    /** URI matcher code for content URI for a single weight measurement. */
+    private static final int PET_WEIGHT_ID = 109;
+    /** URI matcher code for content URI for the weight rollups of a single pet per period. */
+    private static final int PET_WEIGHTS_ROLLUP = 110;
+    /** URI matcher code for content URI for the change log of the pets. */
+    private static final int PET_CHANGES = 111;
 
     /** {@link UriMatcher} object to match a content URI to a corresponding code. */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -31,41 +81,475 @@ public class PetProvider extends ContentProvider {
     static {
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#/" + PetContract.PATH_WEIGHTS, PET_WEIGHTS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#/" + PetContract.PATH_WEIGHTS + "/#", PET_WEIGHT_ID);
+        for (String period : new String[] { PetContract.PATH_WEIGHTS_DAY, PetContract.PATH_WEIGHTS_WEEK,
+                PetContract.PATH_WEIGHTS_MONTH }) {
+            sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#/" + PetContract.PATH_WEIGHTS + "/" + period,
+                    PET_WEIGHTS_ROLLUP);
+        }
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH, PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PET_CHANGES);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_STATS + "/" + PetContract.PATH_STATS_GENDER, PET_STATS_GENDER);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/" + PetContract.PATH_STATS + "/" + PetContract.PATH_STATS_BREED, PET_STATS_BREED);
+    }
+
+    /** Tables of a search: the pets joined with their full-text search rows. */
+    static final String SEARCH_TABLES =
+            PetEntry.TABLE_NAME + " INNER JOIN " + PetDbHelper.SEARCH_TABLE_NAME + " ON (" +
+            PetEntry.TABLE_NAME + "." + PetEntry._ID + " = " + PetDbHelper.SEARCH_TABLE_NAME + ".docid)";
+
+    /** Maps the pet columns of a search to the pets table, as the search table has the same names. */
+    private static final HashMap<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : new String[] { PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO }) {
+            sSearchProjectionMap.put(column, PetEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
     }
 
+    /** Ranks pets whose name starts with the first search word before the other matches. */
+    static final String SEARCH_SORT_ORDER =
+            "CASE WHEN " + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + " LIKE ? THEN 0 ELSE 1 END, " +
+            PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME;
+
+    /**
+     * Statistics of all pets, read from the summary tables. The minimum and maximum weight
+     * are the first and last key of the weight summary.
+     */
+    static final String STATS_TABLES = "(SELECT " +
+            "IFNULL(SUM(" + PetStatsEntry.COLUMN_PET_COUNT + "), 0) AS " + PetStatsEntry.COLUMN_PET_COUNT + ", " +
+            "CAST(SUM(" + PetDbHelper.COLUMN_WEIGHT_SUM + ") AS REAL) / SUM(" + PetStatsEntry.COLUMN_PET_COUNT + ") AS " +
+            PetStatsEntry.COLUMN_AVERAGE_WEIGHT + ", " +
+            "(SELECT MIN(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetDbHelper.WEIGHT_STATS_TABLE_NAME + ") AS " +
+            PetStatsEntry.COLUMN_MIN_WEIGHT + ", " +
+            "(SELECT MAX(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetDbHelper.WEIGHT_STATS_TABLE_NAME + ") AS " +
+            PetStatsEntry.COLUMN_MAX_WEIGHT +
+            " FROM " + PetDbHelper.GENDER_STATS_TABLE_NAME + ")";
+
+    /** Maps the columns of the rollups, computing the average from the sum and the count. */
+    private static final HashMap<String, String> sRollupProjectionMap = new HashMap<>();
+
+    static {
+        sRollupProjectionMap.put(PetWeightEntry._ID, "rowid AS " + PetWeightEntry._ID);
+        for (String column : new String[] { PetWeightEntry.COLUMN_PERIOD_START, PetWeightEntry.COLUMN_MEASUREMENT_COUNT,
+                PetWeightEntry.COLUMN_MIN_WEIGHT, PetWeightEntry.COLUMN_MAX_WEIGHT }) {
+            sRollupProjectionMap.put(column, column);
+        }
+        sRollupProjectionMap.put(PetWeightEntry.COLUMN_AVERAGE_WEIGHT, "CAST(" + PetDbHelper.COLUMN_WEIGHT_SUM +
+                " AS REAL) / " + PetWeightEntry.COLUMN_MEASUREMENT_COUNT + " AS " + PetWeightEntry.COLUMN_AVERAGE_WEIGHT);
+    }
+
+    /** Statistics per gender, read from the gender summary table. */
+    static final String STATS_GENDER_TABLES = "(SELECT " +
+            PetStatsEntry.COLUMN_GENDER + ", " + PetStatsEntry.COLUMN_PET_COUNT + ", " +
+            "CAST(" + PetDbHelper.COLUMN_WEIGHT_SUM + " AS REAL) / " + PetStatsEntry.COLUMN_PET_COUNT + " AS " +
+            PetStatsEntry.COLUMN_AVERAGE_WEIGHT +
+            " FROM " + PetDbHelper.GENDER_STATS_TABLE_NAME + ")";
+
     /** Database helper object */
     public PetDbHelper mDbHelper;
 
+    /** Coalesces the change notifications sent after writes. */
+    private PetChangeNotifier mChangeNotifier;
+
+    /** Streams exported pets into pipes. */
+    private PetExporter mExporter;
+
+    /** Compiled single-pet statements of the current writable database. */
+    private PetStatements mStatements;
+
+    /** Removes the rows of deleted pets in the background. */
+    private PetPurger mPurger;
+
+    /** Latencies and row counts of the provider calls. */
+    private PetProviderMetrics mMetrics;
+
+    /** Photo files of the pets. */
+    private PetPhotoStore mPhotos;
+
+    /** Reads and compacts the change log of the pets. */
+    private PetChangeLog mChangeLog;
+
+    /** Snapshots of the database. */
+    private PetBackup mBackup;
+
+    /** Words of the names and breeds in memory, for lookups while the user types. */
+    private PetTypeAhead mTypeAhead;
+
+    /**
+     * Held by a restore from staging to replacing, so restores do not share the staging
+     * directory. Not the provider itself, which the running calls need while a restore waits.
+     */
+    private final Object mRestoreLock = new Object();
+
+    /** Directory of the snapshots, below the files directory. */
+    private static final String BACKUP_DIRECTORY = "backups";
+
+    /** Directory in which a snapshot is restored, next to the database. */
+    private static final String RESTORE_DIRECTORY = "restore";
+
+    /** Names of the matched URIs in the metrics, indexed by {@link #uriSlot(int)}. */
+    private static final String[] URI_NAMES = {
+            "unknown", "pets", "pet_id", "search", "stats", "stats_gender", "stats_breed", "export", "photo", "weights", "weight_id",
+            "weights_rollup", "changes"
+    };
+
+    /**
+     * Selection of a single pet by ID, which has not been deleted. Kept constant so SQLite
+     * reuses the prepared statement.
+     */
+    static final String SELECTION_ID = PetEntry._ID + "=? AND " + PetDbHelper.SELECTION_NOT_DELETED;
+
+    /** Query of all columns of a single pet, for the plain by-ID query without projection. */
+    static final String SQL_QUERY_PET = "SELECT " +
+            PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", " +
+            PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_PHOTO +
+            " FROM " + PetEntry.TABLE_NAME + " WHERE " + SELECTION_ID;
+
+    /**
+     * Selection of the measurements or rollups of a pet which has not been deleted, with the
+     * pet ID as both arguments. The pet is looked up once, not per row, and the rows are read
+     * in time order from the index.
+     */
+    static final String SELECTION_WEIGHTS_OF_PET = PetWeightEntry.COLUMN_PET_ID + "=? AND EXISTS (SELECT 1 FROM " +
+            PetEntry.TABLE_NAME + " WHERE " + SELECTION_ID + ")";
+
+    /** Query of the photo file name of a single pet. */
+    private static final String SQL_QUERY_PHOTO = "SELECT " + PetEntry.COLUMN_PET_PHOTO +
+            " FROM " + PetEntry.TABLE_NAME + " WHERE " + SELECTION_ID;
+
 
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
-        mDbHelper = new PetDbHelper(getContext());
+        mMetrics = new PetProviderMetrics(URI_NAMES);
+        // Cursors remember their SQL, so slow queries can be logged with their query plan.
+        mDbHelper = new PetDbHelper(getContext(), PetDbHelper.ConcurrencyMode.WRITE_AHEAD_LOG,
+                mMetrics.getCursorFactory());
+        mChangeNotifier = new PetChangeNotifier(getContext().getContentResolver());
+        mExporter = new PetExporter(this);
+        mPhotos = new PetPhotoStore(getContext());
+        mPurger = new PetPurger(mDbHelper, mPhotos);
+        // Finish purging the pets deleted before the process was stopped.
+        mPurger.schedule();
+        mChangeLog = new PetChangeLog(mDbHelper);
+        mChangeLog.schedule();
+        mBackup = new PetBackup(mDbHelper, new File(getContext().getFilesDir(), BACKUP_DIRECTORY));
+        // Built on the first lookup, then kept up to date with the committed changes.
+        mTypeAhead = new PetTypeAhead(mDbHelper, mChangeLog);
+        mChangeNotifier.setListener(mTypeAhead);
 
         return true;
     }
 
+    /**
+     * Return the latency and row metrics of this provider.
+     */
+    public PetProviderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Return a snapshot of the metrics for {@link PetContract#METHOD_GET_METRICS}, or clear
+     * them for {@link PetContract#METHOD_RESET_METRICS}. Back up and restore the database for
+     * {@link PetContract#METHOD_BACKUP}, {@link PetContract#METHOD_RESTORE} and
+     * {@link PetContract#METHOD_LIST_BACKUPS}, and look up pets for {@link PetContract#METHOD_SUGGEST}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.snapshot();
+        }
+        if (PetContract.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        }
+        if (PetContract.METHOD_BACKUP.equals(method)) {
+            return backup();
+        }
+        if (PetContract.METHOD_RESTORE.equals(method)) {
+            restore(arg);
+            return null;
+        }
+        if (PetContract.METHOD_LIST_BACKUPS.equals(method)) {
+            List<String> ids = mBackup.listSnapshots();
+            Bundle result = new Bundle();
+            result.putStringArray(PetContract.KEY_SNAPSHOT_IDS, ids.toArray(new String[ids.size()]));
+            return result;
+        }
+        if (PetContract.METHOD_SUGGEST.equals(method)) {
+            int limit = extras == null ? PetTypeAhead.DEFAULT_LIMIT
+                    : extras.getInt(PetContract.EXTRA_LIMIT, PetTypeAhead.DEFAULT_LIMIT);
+            Bundle result = new Bundle();
+            result.putLongArray(PetContract.KEY_PET_IDS, suggest(arg, limit));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Return the IDs of the pets matching the words typed so far, from memory, or from the
+     * full-text search until the words have been loaded into memory.
+     */
+    private long[] suggest(String query, int limit) {
+        long[] ids = mTypeAhead.lookup(query, limit);
+        if (ids != null) {
+            return ids;
+        }
+        mDbHelper.beginUse();
+        try {
+            Cursor cursor = searchPets(mDbHelper.getReadableDatabase(),
+                    PetEntry.buildSearchUri(query == null ? "" : query), new String[] { PetEntry._ID });
+            try {
+                ids = new long[Math.min(limit, cursor.getCount())];
+                for (int i = 0; i < ids.length && cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                }
+                return ids;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Take a snapshot of the database.
+     * @return The ID and size of the snapshot.
+     */
+    private Bundle backup() {
+        PetBackup.Snapshot snapshot;
+        mDbHelper.beginUse();
+        try {
+            snapshot = mBackup.backup();
+        } catch (IOException e) {
+            throw new IllegalStateException("Backup failed", e);
+        } finally {
+            mDbHelper.endUse();
+        }
+        Bundle result = new Bundle();
+        result.putString(PetContract.KEY_SNAPSHOT_ID, snapshot.id);
+        result.putLong("database_bytes", snapshot.databaseBytes);
+        result.putInt("blocks", snapshot.blocks);
+        result.putInt("new_blocks", snapshot.newBlocks);
+        result.putLong("stored_bytes", snapshot.storedBytes);
+        return result;
+    }
+
+    /**
+     * Replace the database with a snapshot, once it has been restored next to the database
+     * and verified. The calls and background workers keep using the database while the
+     * snapshot is restored; only the replacement waits for them to finish, and keeps new ones
+     * waiting until the restored database has been opened.
+     */
+    private void restore(String id) {
+        synchronized (mRestoreLock) {
+            File databaseFile = getContext().getDatabasePath(PetDbHelper.DATABASE_NAME);
+            File stagingDirectory = new File(databaseFile.getParentFile(), RESTORE_DIRECTORY);
+            File restoredFile;
+            try {
+                restoredFile = mBackup.restoreTo(id, stagingDirectory);
+            } catch (IOException e) {
+                // The database has not been touched.
+                throw new IllegalStateException("Cannot restore snapshot " + id, e);
+            }
+
+            mDbHelper.beginReplace();
+            try {
+                replaceDatabase(databaseFile, stagingDirectory, restoredFile);
+            } finally {
+                mDbHelper.endReplace();
+            }
+        }
+        // The snapshot may have deleted pets which were not purged yet.
+        mPurger.schedule();
+        notifyChange(PetEntry.CONTENT_URI);
+    }
+
+    /**
+     * Replace the database file with the restored one. Must be called while no one uses the
+     * database.
+     */
+    private void replaceDatabase(File databaseFile, File stagingDirectory, File restoredFile) {
+        long lastSequence = PetChangeLog.getLastSequence(mDbHelper.getWritableDatabase());
+        synchronized (this) {
+            if (mStatements != null) {
+                mStatements.close();
+                mStatements = null;
+            }
+        }
+        // Closing the last connection merges the log, and the rename replaces the file at once.
+        mDbHelper.close();
+        boolean replaced = restoredFile.renameTo(databaseFile);
+        stagingDirectory.delete();
+        if (!replaced) {
+            throw new IllegalStateException("Cannot replace " + databaseFile);
+        }
+        PetBackup.deleteCompanionFiles(databaseFile);
+
+        // Opening upgrades a snapshot of an older version.
+        mChangeLog.continueAfter(mDbHelper.getWritableDatabase(), lastSequence);
+    }
+
+    /**
+     * Print the metrics, e.g. with
+     * {@code adb shell dumpsys activity provider com.example.android.pets/.data.PetProvider}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
+    /**
+     * Return the slot of the given URI matcher code in the metrics.
+     */
+    private static int uriSlot(int match) {
+        return match == UriMatcher.NO_MATCH ? 0 : match - PETS + 1;
+    }
+
+    /**
+     * Return the object which removes the rows of deleted pets, e.g. for changing its rate.
+     */
+    public PetPurger getPurger() {
+        return mPurger;
+    }
+
+    /**
+     * Return the change log of the pets, e.g. for changing its retention.
+     */
+    public PetChangeLog getChangeLog() {
+        return mChangeLog;
+    }
+
+    /**
+     * Return the in-memory index of the pet names and breeds, e.g. for building it right away.
+     */
+    public PetTypeAhead getTypeAhead() {
+        return mTypeAhead;
+    }
+
+    /**
+     * Return the object which coalesces change notifications of this provider,
+     * e.g. for changing its window or reading its metrics.
+     */
+    public PetChangeNotifier getChangeNotifier() {
+        return mChangeNotifier;
+    }
+
     @Nullable
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        final int uriSlot = uriSlot(match);
+        mDbHelper.beginUse();
+        TraceCompat.beginSection(mMetrics.getTraceSection(PetProviderMetrics.QUERY, uriSlot));
+        try {
+            long start = System.nanoTime();
+            Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Fill the cursor window here, so its cost is measured and attributed to the URI.
+            long fillStart = System.nanoTime();
+            int rows = cursor.getCount();
+            long end = System.nanoTime();
+            mMetrics.recordQuery(mDbHelper.getReadableDatabase(), uri, uriSlot, end - start, end - fillStart, rows);
+            return cursor;
+        } finally {
+            TraceCompat.endSection();
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Query the matched URI.
+     */
+    private Cursor query(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         String sortOrder) {
         // Get readable database
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
         // Create {@link Cursor} object for storing data from Pets database.
         Cursor cursor;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                    cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                    // Deleted pets are kept until they are purged, but never returned.
+                    selection = DatabaseUtils.concatenateWhere(selection, PetDbHelper.SELECTION_NOT_DELETED);
+                    String limit = null;
+                    if (isPageUri(uri)) {
+                        // Keyset pagination: seek right after the last ID of the previous page
+                        // instead of skipping rows with OFFSET.
+                        long afterId = parseAfterId(uri);
+                        selection = DatabaseUtils.concatenateWhere(selection, PetEntry._ID + ">?");
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                new String[] { String.valueOf(afterId) });
+                        sortOrder = PetEntry._ID + " ASC";
+                        limit = String.valueOf(parseLimit(uri));
+                    }
+                    cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder, limit);
                 break;
             case PET_ID:
-                    selection = PetEntry._ID + "=?";
                     selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                    cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                    if (projection == null) {
+                        // Skip building the same SQL for every query of a whole pet.
+                        cursor = db.rawQuery(SQL_QUERY_PET, selectionArgs);
+                    } else {
+                        cursor = db.query(PetEntry.TABLE_NAME, projection, SELECTION_ID, selectionArgs, null, null, sortOrder);
+                    }
+                break;
+            case PET_SEARCH:
+                    cursor = searchPets(db, uri, projection);
                 break;
+            case PET_STATS:
+                    cursor = queryStats(db, STATS_TABLES, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_STATS_GENDER:
+                    if (sortOrder == null) {
+                        sortOrder = PetStatsEntry.COLUMN_GENDER;
+                    }
+                    cursor = queryStats(db, STATS_GENDER_TABLES, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_STATS_BREED:
+                    if (sortOrder == null) {
+                        sortOrder = PetStatsEntry.COLUMN_PET_COUNT + " DESC";
+                    }
+                    cursor = queryStats(db, PetDbHelper.BREED_STATS_TABLE_NAME, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_WEIGHTS:
+                    cursor = queryWeights(db, uri, PetWeightEntry.TABLE_NAME, null, PetWeightEntry.COLUMN_MEASURED_AT,
+                            projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_WEIGHT_ID:
+                    selection = DatabaseUtils.concatenateWhere(selection, PetWeightEntry._ID + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) });
+                    cursor = queryWeights(db, uri, PetWeightEntry.TABLE_NAME, null, PetWeightEntry.COLUMN_MEASURED_AT,
+                            projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_WEIGHTS_ROLLUP:
+                    // Only the rollups are read, a row per period, however many measurements there are.
+                    selection = DatabaseUtils.concatenateWhere(selection, PetDbHelper.COLUMN_PERIOD + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(parsePeriod(uri)) });
+                    cursor = queryWeights(db, uri, PetDbHelper.WEIGHT_ROLLUPS_TABLE_NAME, sRollupProjectionMap,
+                            PetWeightEntry.COLUMN_PERIOD_START, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_CHANGES:
+                    // Reads only the changes after the given sequence number, through the primary key.
+                    String changesLimit = uri.getQueryParameter(PetContract.QUERY_PARAM_LIMIT) == null
+                            ? null : String.valueOf(parseLimit(uri));
+                    cursor = mChangeLog.query(db, projection, parseSince(uri), changesLimit);
+                    // Every write of a pet adds a change, and all writes notify below the pets URI.
+                    cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                    return cursor;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
@@ -79,27 +563,435 @@ public class PetProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Search pets whose name or breed contains words starting with the words of the query
+     * in the last path segment of the URI.
+     */
+    private static Cursor searchPets(SQLiteDatabase db, Uri uri, String[] projection) {
+        // Keep only letters and digits of the query, so it cannot use the full-text query syntax.
+        String query = uri.getPathSegments().size() > 2 ? uri.getLastPathSegment() : "";
+        String[] words = query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                // Match every word as a prefix.
+                match.append(match.length() == 0 ? "" : " ").append(word).append('*');
+            }
+        }
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(SEARCH_TABLES);
+        queryBuilder.setProjectionMap(sSearchProjectionMap);
+        if (match.length() == 0) {
+            // Nothing to search for, so return an empty result.
+            return queryBuilder.query(db, projection, "0", null, null, null, null);
+        }
+
+        String firstWord = match.substring(0, match.indexOf("*"));
+        String selection = PetDbHelper.SEARCH_TABLE_NAME + " MATCH ?";
+        String[] selectionArgs = { match.toString(), firstWord + "%" };
+        return queryBuilder.query(db, projection, selection, selectionArgs, null, null, SEARCH_SORT_ORDER);
+    }
+
+    /**
+     * Query the given statistics tables. They only hold a row per group, so the query
+     * does not depend on the number of pets.
+     */
+    private static Cursor queryStats(SQLiteDatabase db, String tables, String[] projection,
+                                     String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(tables);
+        return queryBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Query the measurements or rollups of the pet in the given weights URI, in the time range
+     * of the URI, through the index on the pet and time.
+     * @param timeColumn    The time column of the table, which is also the default order.
+     */
+    private static Cursor queryWeights(SQLiteDatabase db, Uri uri, String table, HashMap<String, String> projectionMap,
+                                       String timeColumn, String[] projection, String selection,
+                                       String[] selectionArgs, String sortOrder) {
+        String petId = uri.getPathSegments().get(1);
+        selection = DatabaseUtils.concatenateWhere(selection, SELECTION_WEIGHTS_OF_PET + " AND " +
+                timeColumn + ">=? AND " + timeColumn + "<?");
+        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { petId, petId,
+                String.valueOf(parseTime(uri, PetContract.QUERY_PARAM_FROM, 0)),
+                String.valueOf(parseTime(uri, PetContract.QUERY_PARAM_TO, Long.MAX_VALUE)) });
+
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(table);
+        if (projectionMap != null) {
+            queryBuilder.setProjectionMap(projectionMap);
+        }
+        return queryBuilder.query(db, projection, selection, selectionArgs, null, null,
+                sortOrder == null ? timeColumn : sortOrder);
+    }
+
+    /**
+     * Return the time in the given query parameter of the URI, or the default if it is missing.
+     */
+    private static long parseTime(Uri uri, String parameter, long defaultTime) {
+        String time = uri.getQueryParameter(parameter);
+        if (time == null) {
+            return defaultTime;
+        }
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + " in " + uri);
+        }
+    }
+
+    /**
+     * Return the last sequence number seen by the caller of the given changes URI, or 0.
+     */
+    private static long parseSince(Uri uri) {
+        long since = parseTime(uri, PetContract.QUERY_PARAM_SINCE, 0);
+        if (since < 0) {
+            throw new IllegalArgumentException("Invalid since in " + uri);
+        }
+        return since;
+    }
+
+    /**
+     * Return the rollup period of the given rollup URI, e.g. {@link PetDbHelper#PERIOD_DAY}.
+     */
+    private static int parsePeriod(Uri uri) {
+        String period = uri.getLastPathSegment();
+        if (PetContract.PATH_WEIGHTS_DAY.equals(period)) {
+            return PetDbHelper.PERIOD_DAY;
+        }
+        if (PetContract.PATH_WEIGHTS_WEEK.equals(period)) {
+            return PetDbHelper.PERIOD_WEEK;
+        }
+        if (PetContract.PATH_WEIGHTS_MONTH.equals(period)) {
+            return PetDbHelper.PERIOD_MONTH;
+        }
+        throw new IllegalArgumentException("Unknown rollup period in " + uri);
+    }
+
+    /**
+     * Return true if the given pets URI asks for a single page of pets.
+     */
+    private static boolean isPageUri(Uri uri) {
+        return uri.getQueryParameter(PetContract.QUERY_PARAM_AFTER_ID) != null
+                || uri.getQueryParameter(PetContract.QUERY_PARAM_LIMIT) != null;
+    }
+
+    /**
+     * Return the last ID of the previous page, or 0 if the URI asks for the first page.
+     */
+    private static long parseAfterId(Uri uri) {
+        String afterId = uri.getQueryParameter(PetContract.QUERY_PARAM_AFTER_ID);
+        if (afterId == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(afterId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid after_id in " + uri);
+        }
+    }
+
+    /**
+     * Return the maximum number of pets in the page asked for by the URI.
+     */
+    private static int parseLimit(Uri uri) {
+        String limit = uri.getQueryParameter(PetContract.QUERY_PARAM_LIMIT);
+        if (limit == null) {
+            throw new IllegalArgumentException("Page requires a limit " + uri);
+        }
+        try {
+            int pageSize = Integer.parseInt(limit);
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("Page limit must be positive " + uri);
+            }
+            return pageSize;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+    }
+
     @Nullable
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
+        final int uriSlot = uriSlot(match);
+        TraceCompat.beginSection(mMetrics.getTraceSection(PetProviderMetrics.GET_TYPE, uriSlot));
+        try {
+            long start = System.nanoTime();
+            String type = getType(match, uri);
+            mMetrics.record(PetProviderMetrics.GET_TYPE, uriSlot, System.nanoTime() - start, 0);
+            return type;
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Return the MIME type of the matched URI.
+     */
+    private static String getType(int match, Uri uri) {
         switch (match) {
             case PETS:
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_EXPORT:
+                return PetExporter.Options.fromUri(uri).getMimeType();
+            case PET_PHOTO:
+                return PetEntry.CONTENT_PHOTO_TYPE;
+            case PET_STATS:
+                return PetStatsEntry.CONTENT_ITEM_TYPE;
+            case PET_STATS_GENDER:
+            case PET_STATS_BREED:
+                return PetStatsEntry.CONTENT_LIST_TYPE;
+            case PET_WEIGHTS:
+            case PET_WEIGHTS_ROLLUP:
+                return PetWeightEntry.CONTENT_LIST_TYPE;
+            case PET_WEIGHT_ID:
+                return PetWeightEntry.CONTENT_ITEM_TYPE;
+            case PET_CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Open the export file of all pets, or the photo of a pet. The export is the read end of
+     * a pipe, which a background writer fills with the pets straight from the database.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PET_EXPORT:
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("Export can only be read " + uri);
+                }
+                PetExporter.Options options = PetExporter.Options.fromUri(uri);
+                return openPipeHelper(uri, options.getMimeType(), null, options, mExporter);
+            case PET_PHOTO:
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                if ("r".equals(mode)) {
+                    return openPhoto(id, uri);
+                }
+                if ("w".equals(mode) || "wt".equals(mode)) {
+                    return openPhotoWriter(id, uri);
+                }
+                throw new FileNotFoundException("Unsupported mode " + mode + " for " + uri);
+            default:
+                throw new FileNotFoundException("No file for " + uri);
+        }
+    }
+
+    /**
+     * Open the photo file of a pet for reading.
+     */
+    private ParcelFileDescriptor openPhoto(long id, Uri uri) throws FileNotFoundException {
+        String photo;
+        mDbHelper.beginUse();
+        try {
+            photo = queryPhoto(id);
+        } finally {
+            mDbHelper.endUse();
+        }
+        if (photo == null) {
+            throw new FileNotFoundException("No photo for " + uri);
+        }
+        return ParcelFileDescriptor.open(mPhotos.getFile(photo), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Open a pipe into which the caller writes a new photo of a pet. A background thread
+     * copies it into a new file, and the photo of the pet is replaced only after the caller
+     * has closed the pipe, so readers never see a partly written photo.
+     */
+    private ParcelFileDescriptor openPhotoWriter(final long id, Uri uri) throws FileNotFoundException {
+        long pets;
+        mDbHelper.beginUse();
+        try {
+            pets = DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), PetEntry.TABLE_NAME, SELECTION_ID,
+                    new String[] { String.valueOf(id) });
+        } finally {
+            mDbHelper.endUse();
+        }
+        if (pets == 0) {
+            throw new FileNotFoundException("No pet for " + uri);
+        }
+        final File file;
+        final ParcelFileDescriptor[] pipe;
+        try {
+            file = mPhotos.createFile(id);
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot store photo for " + uri + ": " + e.getMessage());
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean stored = false;
+                try {
+                    copy(new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]), file);
+                    mDbHelper.beginUse();
+                    try {
+                        stored = setPetPhoto(id, file.getName());
+                    } finally {
+                        mDbHelper.endUse();
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to store photo of pet " + id, e);
+                } finally {
+                    if (!stored && !file.delete()) {
+                        Log.w(LOG_TAG, "Cannot delete unused photo " + file);
+                    }
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Replace the photo file name of a pet, delete the previous photo and notify listeners.
+     * @return False if the pet does not exist anymore.
+     */
+    private boolean setPetPhoto(long id, String photo) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String previousPhoto;
+        int rowsUpdated;
+        db.beginTransaction();
+        try {
+            previousPhoto = queryPhoto(id);
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_PHOTO, photo);
+            rowsUpdated = db.update(PetEntry.TABLE_NAME, values, SELECTION_ID, new String[] { String.valueOf(id) });
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsUpdated == 0) {
+            return false;
+        }
+        if (previousPhoto != null) {
+            mPhotos.delete(previousPhoto);
+        }
+        notifyChange(PetEntry.buildChangeUri(id, PetContract.OP_UPDATE));
+        return true;
+    }
+
+    /**
+     * Return the photo file name of a pet, or null if it has no photo or does not exist.
+     */
+    private String queryPhoto(long id) {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(SQL_QUERY_PHOTO,
+                new String[] { String.valueOf(id) });
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copy the given stream into a file and close the stream.
+     */
+    private static void copy(InputStream in, File file) throws IOException {
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the MIME types in which all pets can be exported, matching the given filter.
+     */
+    @Nullable
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            return null;
+        }
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : new String[] { PetContract.MIME_TYPE_CSV, PetContract.MIME_TYPE_JSON }) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Open the export file of all pets in the format asked for by the MIME type filter,
+     * e.g. {@link PetContract#MIME_TYPE_JSON}. Without a matching type the format of the
+     * URI is used.
+     */
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PET_EXPORT:
+                PetExporter.Options options = PetExporter.Options.fromUri(uri);
+                if (!ClipDescription.compareMimeTypes(options.getMimeType(), mimeTypeFilter)) {
+                    if (ClipDescription.compareMimeTypes(PetContract.MIME_TYPE_JSON, mimeTypeFilter)) {
+                        options = new PetExporter.Options(PetContract.FORMAT_JSON, options.gzip);
+                    } else if (ClipDescription.compareMimeTypes(PetContract.MIME_TYPE_CSV, mimeTypeFilter)) {
+                        options = new PetExporter.Options(PetContract.FORMAT_CSV, options.gzip);
+                    } else {
+                        throw new FileNotFoundException("Cannot export pets as " + mimeTypeFilter);
+                    }
+                }
+                ParcelFileDescriptor pipe = openPipeHelper(uri, options.getMimeType(), opts, options, mExporter);
+                return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+            default:
+                return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+    }
+
     @Nullable
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        noteWrite("insert");
         final int match = sUriMatcher.match(uri);
+        final int uriSlot = uriSlot(match);
+        mDbHelper.beginUse();
+        TraceCompat.beginSection(mMetrics.getTraceSection(PetProviderMetrics.INSERT, uriSlot));
+        try {
+            long start = System.nanoTime();
+            Uri petUri = insert(match, uri, values);
+            mMetrics.record(PetProviderMetrics.INSERT, uriSlot, System.nanoTime() - start, petUri == null ? 0 : 1);
+            return petUri;
+        } finally {
+            TraceCompat.endSection();
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Insert into the matched URI.
+     */
+    private Uri insert(int match, Uri uri, ContentValues values) {
         switch (match) {
             case PETS:
                     return insertPet(uri, values);
+            case PET_WEIGHTS:
+                    return insertWeight(uri, values);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -110,6 +1002,280 @@ public class PetProvider extends ContentProvider {
      * @return The new content URI for that specific row in the database.
      */
     private Uri insertPet(Uri uri, ContentValues values) {
+        // Check that the values describe a valid pet.
+        validateNewPet(values);
+
+        // Insert pet into database, through the compiled statement if it binds all values.
+        long lastPetId;
+        if (PetStatements.hasOnlyPetColumns(values)) {
+            lastPetId = getStatements().insertPet(values);
+        } else {
+            lastPetId = mDbHelper.getWritableDatabase().insert(PetEntry.TABLE_NAME, null, values);
+        }
+        // If the lastPetId is -1, then the insertion failed. Log an error and return null.
+        if (lastPetId == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that this single pet has been inserted.
+        notifyChange(PetEntry.buildChangeUri(lastPetId, PetContract.OP_INSERT));
+
+        // Return the new URI with the ID appended to the end of it.
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, lastPetId);
+    }
+
+    /**
+     * Append a weight measurement to the history of the pet in the given weights URI.
+     * @return The URI of the measurement, or null if the pet does not exist.
+     */
+    private Uri insertWeight(Uri uri, ContentValues values) {
+        long petId = Long.parseLong(uri.getPathSegments().get(1));
+        ContentValues measurement = validateMeasurement(values);
+        long measurementId = getStatements().insertWeights(petId, Collections.singletonList(measurement));
+        if (measurementId == -1) {
+            Log.e(LOG_TAG, "Failed to insert measurement for " + uri);
+            return null;
+        }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, measurementId);
+    }
+
+    /**
+     * Append all given measurements to the history of the pet in the given weights URI in a
+     * single transaction. Listeners are notified once, after the transaction has been committed.
+     * @return The number of inserted measurements.
+     */
+    private int bulkInsertWeights(Uri uri, ContentValues[] values) {
+        long petId = Long.parseLong(uri.getPathSegments().get(1));
+        List<ContentValues> measurements = new ArrayList<>(values.length);
+        for (ContentValues row : values) {
+            measurements.add(validateMeasurement(row));
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean committed = false;
+        mChangeNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            if (!measurements.isEmpty()) {
+                if (getStatements().insertWeights(petId, measurements) == -1) {
+                    throw new IllegalArgumentException("Cannot insert measurements for unknown pet " + uri);
+                }
+                notifyChange(uri);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mChangeNotifier.endBatch(committed);
+        }
+        return measurements.size();
+    }
+
+    /**
+     * Check that the given values describe a valid weight measurement.
+     * @return The measurement, with the current time if it has no time.
+     * @throws IllegalArgumentException if the weight or time is missing or invalid.
+     */
+    private static ContentValues validateMeasurement(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!PetWeightEntry.COLUMN_WEIGHT.equals(key) && !PetWeightEntry.COLUMN_MEASURED_AT.equals(key)) {
+                throw new IllegalArgumentException("Measurement cannot have " + key);
+            }
+        }
+        Integer weight = values.getAsInteger(PetWeightEntry.COLUMN_WEIGHT);
+        if (weight == null || weight < 0) {
+            throw new IllegalArgumentException("Measurement requires valid weight");
+        }
+        if (!values.containsKey(PetWeightEntry.COLUMN_MEASURED_AT)) {
+            ContentValues measurement = new ContentValues(values);
+            measurement.put(PetWeightEntry.COLUMN_MEASURED_AT, System.currentTimeMillis());
+            return measurement;
+        }
+        // Periods are computed with integer division, which only rounds down from the epoch on.
+        Long measuredAt = values.getAsLong(PetWeightEntry.COLUMN_MEASURED_AT);
+        if (measuredAt == null || measuredAt < 0) {
+            throw new IllegalArgumentException("Measurement requires valid time");
+        }
+        return values;
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        noteWrite("bulkInsert");
+        final int match = sUriMatcher.match(uri);
+        mDbHelper.beginUse();
+        try {
+            switch (match) {
+                case PETS:
+                    return bulkInsertPets(uri, values);
+                case PET_WEIGHTS:
+                    return bulkInsertWeights(uri, values);
+                default:
+                    throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
+            }
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Insert all given pets in a single transaction, reusing one compiled insert statement.
+     * Listeners are notified once, after the transaction has been committed.
+     * @return The number of inserted rows.
+     */
+    private int bulkInsertPets(Uri uri, ContentValues[] values) {
+        // Validate every row first, so an invalid pet does not leave half of the rows behind.
+        for (ContentValues row : values) {
+            validateNewPet(row);
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int rowsInserted;
+        boolean committed = false;
+        mChangeNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            rowsInserted = insertPetRows(db, values);
+            // Notify all listeners once for the whole batch.
+            if (rowsInserted != 0) {
+                notifyChange(uri);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mChangeNotifier.endBatch(committed);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Insert validated pets in the given order, through the compiled statement as long as
+     * it binds all values of the rows, as {@link #insertPet(Uri, ContentValues)} does.
+     * Has to be called inside a transaction.
+     * @return The number of inserted rows.
+     */
+    private int insertPetRows(SQLiteDatabase db, ContentValues[] values) {
+        int rowsInserted = 0;
+        List<ContentValues> pending = new ArrayList<>();
+        for (ContentValues row : values) {
+            if (PetStatements.hasOnlyPetColumns(row)) {
+                pending.add(row);
+                continue;
+            }
+            if (!pending.isEmpty()) {
+                rowsInserted += getStatements().insertPets(pending);
+                pending.clear();
+            }
+            if (db.insert(PetEntry.TABLE_NAME, null, row) != -1) {
+                rowsInserted++;
+            }
+        }
+        if (!pending.isEmpty()) {
+            rowsInserted += getStatements().insertPets(pending);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Insert a chunk of validated pets of an import and record how many rows of the source
+     * have been consumed, both in the same transaction. After a crash the import resumes
+     * right after the last committed chunk.
+     * @return The number of inserted rows.
+     */
+    int importPets(String source, List<ContentValues> pets, long rowsConsumed) {
+        noteWrite("importPets");
+        mDbHelper.beginUse();
+        try {
+            return importPetsChunk(source, pets, rowsConsumed);
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    private int importPetsChunk(String source, List<ContentValues> pets, long rowsConsumed) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int rowsInserted;
+        boolean committed = false;
+        mChangeNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            rowsInserted = getStatements().insertPets(pets);
+
+            ContentValues checkpoint = new ContentValues();
+            checkpoint.put(PetDbHelper.COLUMN_SOURCE, source);
+            checkpoint.put(PetDbHelper.COLUMN_ROWS_CONSUMED, rowsConsumed);
+            db.insertWithOnConflict(PetDbHelper.IMPORT_CHECKPOINTS_TABLE_NAME, null, checkpoint,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+
+            if (rowsInserted != 0) {
+                notifyChange(PetEntry.CONTENT_URI);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mChangeNotifier.endBatch(committed);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Return the number of rows of the given import source which have already been committed.
+     */
+    long getImportCheckpoint(String source) {
+        mDbHelper.beginUse();
+        try {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            Cursor cursor = db.query(PetDbHelper.IMPORT_CHECKPOINTS_TABLE_NAME,
+                    new String[] { PetDbHelper.COLUMN_ROWS_CONSUMED },
+                    PetDbHelper.COLUMN_SOURCE + "=?", new String[] { source }, null, null, null);
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Forget the progress of the given import source, once it has been imported completely.
+     */
+    void clearImportCheckpoint(String source) {
+        mDbHelper.beginUse();
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            db.delete(PetDbHelper.IMPORT_CHECKPOINTS_TABLE_NAME, PetDbHelper.COLUMN_SOURCE + "=?",
+                    new String[] { source });
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Return the compiled statements of the current writable database, compiling them
+     * again if the database has been reopened.
+     */
+    private synchronized PetStatements getStatements() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (mStatements == null || !mStatements.isFor(db)) {
+            if (mStatements != null) {
+                mStatements.close();
+            }
+            mStatements = new PetStatements(db);
+        }
+        return mStatements;
+    }
+
+    /**
+     * Check that the given content values describe a valid new pet.
+     * @throws IllegalArgumentException if any of the required values is missing or invalid.
+     */
+    static void validateNewPet(ContentValues values) {
         // Check if name is not empty.
         String nameString = values.getAsString(PetEntry.COLUMN_PET_NAME);
         if (nameString == null) {
@@ -128,47 +1294,64 @@ public class PetProvider extends ContentProvider {
             throw new IllegalArgumentException("Pet requires a weight.");
         }
 
-        // Get writable database for insert new pet.
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
-        // Insert pet into database
-        long lastPetId = db.insert(PetEntry.TABLE_NAME, null, values);
-        // If the lastPetId is -1, then the insertion failed. Log an error and return null.
-        if (lastPetId == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // Pets are only flagged as deleted by a delete.
+        if (values.containsKey(PetDbHelper.COLUMN_DELETED)) {
+            throw new IllegalArgumentException("Deleted flag cannot be inserted.");
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
-
-        // Return the new URI with the ID appended to the end of it.
-        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, lastPetId);
+        // Photos are only written through the photo URI of the pet.
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Photo cannot be inserted.");
+        }
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        noteWrite("delete");
+        // Match the URI with possible options.
+        final int match = sUriMatcher.match(uri);
+        final int uriSlot = uriSlot(match);
+        mDbHelper.beginUse();
+        TraceCompat.beginSection(mMetrics.getTraceSection(PetProviderMetrics.DELETE, uriSlot));
+        try {
+            long start = System.nanoTime();
+            int rowsDeleted = delete(match, uri, selection, selectionArgs);
+            mMetrics.record(PetProviderMetrics.DELETE, uriSlot, System.nanoTime() - start, rowsDeleted);
+            return rowsDeleted;
+        } finally {
+            TraceCompat.endSection();
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Delete from the matched URI.
+     */
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         //Get writable database.
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        // Match the URI with possible options.
-        final int match = sUriMatcher.match(uri);
         int rowsDeleted;
         switch (match) {
             case PETS:
-                // Delete all rows that match the selection and selection args.
-                rowsDeleted = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Flag all pets that match the selection and selection args as deleted.
+                // Their rows are removed in small chunks by the purger.
+                ContentValues deleted = new ContentValues();
+                deleted.put(PetDbHelper.COLUMN_DELETED, 1);
+                rowsDeleted = db.update(PetEntry.TABLE_NAME, deleted,
+                        DatabaseUtils.concatenateWhere(selection, PetDbHelper.SELECTION_NOT_DELETED), selectionArgs);
                 if (rowsDeleted != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
+                    mPurger.schedule();
                 }
                 return rowsDeleted;
             case PET_ID:
-                // Delete a single row given by the ID in the URI.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Flag a single pet given by the ID in the URI as deleted.
+                long deletedId = ContentUris.parseId(uri);
+                rowsDeleted = getStatements().deletePet(deletedId);
                 if (rowsDeleted != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(PetEntry.buildChangeUri(deletedId, PetContract.OP_DELETE));
+                    mPurger.schedule();
                 }
                 return rowsDeleted;
             default:
@@ -178,25 +1361,42 @@ public class PetProvider extends ContentProvider {
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        noteWrite("update");
         // Match the URI with possible options.
         final int match = sUriMatcher.match(uri);
+        final int uriSlot = uriSlot(match);
+        mDbHelper.beginUse();
+        TraceCompat.beginSection(mMetrics.getTraceSection(PetProviderMetrics.UPDATE, uriSlot));
+        try {
+            long start = System.nanoTime();
+            int rowsUpdated = update(match, uri, values, selection, selectionArgs);
+            mMetrics.record(PetProviderMetrics.UPDATE, uriSlot, System.nanoTime() - start, rowsUpdated);
+            return rowsUpdated;
+        } finally {
+            TraceCompat.endSection();
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Update the matched URI.
+     */
+    private int update(int match, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         int rowsUpdated;
         switch (match) {
             case PETS:
                 // Update pets and return number of updated rows.
-                rowsUpdated = updatePet(values, selection, selectionArgs);
+                rowsUpdated = updatePets(values, selection, selectionArgs);
                 if (rowsUpdated != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
                 }
                 return rowsUpdated;
             case PET_ID:
-                // Extract out the ID from the URI, and select that row for update.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                // Update pet and return number of updated rows.
-                rowsUpdated = updatePet(values, selection, selectionArgs);
+                // Update the pet with the ID from the URI and return number of updated rows.
+                long updatedId = ContentUris.parseId(uri);
+                rowsUpdated = updatePet(updatedId, values);
                 if (rowsUpdated != 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(PetEntry.buildChangeUri(updatedId, PetContract.OP_UPDATE));
                 }
                 return rowsUpdated;
             default:
@@ -204,7 +1404,49 @@ public class PetProvider extends ContentProvider {
         }
     }
 
-    private int updatePet(ContentValues values, String selection, String[] selectionArgs) {
+    /**
+     * Update the pets matching the selection with the given values.
+     * @return The number of updated rows.
+     */
+    private int updatePets(ContentValues values, String selection, String[] selectionArgs) {
+        validateUpdate(values);
+
+        // If there are no values to update, then don't try to update the database.
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Open writable connection with database for update pets data.
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Update table and return number of updated rows. Deleted pets are not updated.
+        return  db.update(PetEntry.TABLE_NAME, values,
+                DatabaseUtils.concatenateWhere(selection, PetDbHelper.SELECTION_NOT_DELETED), selectionArgs);
+    }
+
+    /**
+     * Update a single pet with the given values. Updates of all columns, as written by the
+     * editor, go through the compiled update statement.
+     * @return The number of updated rows.
+     */
+    private int updatePet(long id, ContentValues values) {
+        validateUpdate(values);
+
+        if (values.size() == 0) {
+            return 0;
+        }
+        if (PetStatements.isFullRow(values)) {
+            return getStatements().updatePet(id, values);
+        }
+        return mDbHelper.getWritableDatabase().update(PetEntry.TABLE_NAME, values, SELECTION_ID,
+                new String[] { String.valueOf(id) });
+    }
+
+    /**
+     * Check that the given values of an update are valid.
+     * @throws IllegalArgumentException if any of the present values is invalid.
+     */
+    private static void validateUpdate(ContentValues values) {
         // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
@@ -233,15 +1475,67 @@ public class PetProvider extends ContentProvider {
             }
         }
 
-        // If there are no values to update, then don't try to update the database.
-        if (values.size() == 0) {
-            return 0;
+        // Pets are only flagged as deleted by a delete.
+        if (values.containsKey(PetDbHelper.COLUMN_DELETED)) {
+            throw new IllegalArgumentException("Deleted flag cannot be updated");
         }
 
-        // Open writable connection with database for update pets data.
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // Photos are only written through the photo URI of the pet.
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Photo cannot be updated");
+        }
+    }
+
+    /**
+     * Apply all operations in a single database transaction. Back-references between
+     * operations are resolved as usual, but listeners are notified only once per affected
+     * URI, after the whole batch has been committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        noteWrite("applyBatch");
+        mDbHelper.beginUse();
+        try {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        // Update table and return number of updated rows.
-        return  db.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+            // Nested transactions and batches join the outermost one.
+            ContentProviderResult[] results;
+            boolean committed = false;
+            mChangeNotifier.beginBatch();
+            db.beginTransaction();
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                db.endTransaction();
+                mChangeNotifier.endBatch(committed);
+            }
+            return results;
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. The notification
+     * is coalesced with others by {@link PetChangeNotifier}. Changes of a single pet are
+     * notified with {@link PetEntry#buildChangeUri}, so observers can refresh just that pet.
+     */
+    private void notifyChange(Uri uri) {
+        mChangeNotifier.notifyChange(uri);
+        // The write has been logged, so older changes may have to be compacted.
+        mChangeLog.schedule();
+    }
+
+    /**
+     * Report a write on the main thread to {@link StrictMode} as a slow call, so thread policies
+     * with {@link StrictMode.ThreadPolicy.Builder#detectCustomSlowCalls()} catch it.
+     */
+    private static void noteWrite(String operation) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            StrictMode.noteSlowCall("PetProvider." + operation + " on the main thread");
+        }
     }
 }
@@ -0,0 +1,302 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms, row counts and a slow-query log of {@link PetProvider}, per operation
+ * and matched URI.
+ *
+ * Recording only uses atomic counters, so it never blocks a provider call. Only slow
+ * queries take a lock, after their query plan has been explained.
+ */
+public final class PetProviderMetrics {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetProviderMetrics.class.getSimpleName();
+
+    /** Instrumented operations */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int GET_TYPE = 4;
+    /** Filling the window of a query cursor, recorded apart from running the query. */
+    static final int CURSOR_FILL = 5;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "update", "delete", "getType", "cursorFill"
+    };
+
+    /** Default latency above which a query is logged with its query plan. */
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+
+    /** Number of slow queries kept in the log. */
+    private static final int SLOW_QUERY_LOG_SIZE = 20;
+
+    /** Prefix of {@link SQLiteQuery#toString()} before the SQL. */
+    private static final String SQLITE_QUERY_PREFIX = "SQLiteQuery: ";
+
+    /** Names of the matched URIs, indexed by URI slot. */
+    private final String[] mUriNames;
+
+    /** Histograms, indexed by operation and URI slot. */
+    private final Histogram[][] mHistograms;
+
+    /** Names of the trace sections, indexed by operation and URI slot. */
+    private final String[][] mTraceSections;
+
+    private volatile long mSlowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1000000;
+
+    /** The last slow queries, guarded by itself. */
+    private final ArrayDeque<String> mSlowQueries = new ArrayDeque<>(SLOW_QUERY_LOG_SIZE);
+
+    /** SQL of the last cursor created on the current thread. */
+    private final ThreadLocal<String> mLastSql = new ThreadLocal<>();
+
+    /** Creates the cursors of the database and remembers their SQL for the slow-query log. */
+    private final SQLiteDatabase.CursorFactory mCursorFactory = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                                SQLiteQuery query) {
+            mLastSql.set(query.toString());
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    /**
+     * Latency histogram with buckets of powers of two microseconds.
+     */
+    private static final class Histogram {
+        /** Bucket i counts latencies of less than 2^i microseconds, and at least half of it. */
+        static final int BUCKETS = 32;
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+
+        void record(long nanos, long rowCount) {
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (rowCount > 0) {
+                rows.addAndGet(rowCount);
+            }
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // Retry until the maximum is at least this latency.
+            }
+        }
+
+        /** Return the upper bound of the bucket of the given percentile, in microseconds. */
+        long percentileMicros(double fraction) {
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            rows.set(0);
+        }
+    }
+
+    /**
+     * @param uriNames Names of the matched URIs, indexed by the URI slot passed when recording.
+     */
+    PetProviderMetrics(String[] uriNames) {
+        mUriNames = uriNames;
+        mHistograms = new Histogram[OPERATION_NAMES.length][uriNames.length];
+        mTraceSections = new String[OPERATION_NAMES.length][uriNames.length];
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < uriNames.length; slot++) {
+                mHistograms[operation][slot] = new Histogram();
+                mTraceSections[operation][slot] = "PetProvider." + OPERATION_NAMES[operation] + " " + uriNames[slot];
+            }
+        }
+    }
+
+    /** Return the factory for the cursors of the database, see {@link #recordQuery}. */
+    SQLiteDatabase.CursorFactory getCursorFactory() {
+        return mCursorFactory;
+    }
+
+    /** Set the latency above which a query is logged with its query plan. */
+    public void setSlowQueryMillis(long millis) {
+        mSlowQueryNanos = millis * 1000000;
+    }
+
+    /** Return the name of the trace section of the given operation and URI slot. */
+    String getTraceSection(int operation, int uriSlot) {
+        return mTraceSections[operation][uriSlot];
+    }
+
+    /**
+     * Record the latency of an operation and the number of rows it returned or changed.
+     */
+    void record(int operation, int uriSlot, long nanos, long rows) {
+        mHistograms[operation][uriSlot].record(nanos, rows);
+    }
+
+    /**
+     * Record a query. If it was slow, the plan of the last query run on this thread is
+     * explained and logged.
+     * @param db            The database of the query.
+     * @param queryNanos    Time to run the query, including {@code fillNanos}.
+     * @param fillNanos     Time to fill the window of the cursor.
+     */
+    void recordQuery(SQLiteDatabase db, Uri uri, int uriSlot, long queryNanos, long fillNanos, int rows) {
+        record(QUERY, uriSlot, queryNanos, rows);
+        record(CURSOR_FILL, uriSlot, fillNanos, 0);
+
+        String sql = mLastSql.get();
+        mLastSql.set(null);
+        if (queryNanos < mSlowQueryNanos || sql == null) {
+            return;
+        }
+        if (sql.startsWith(SQLITE_QUERY_PREFIX)) {
+            sql = sql.substring(SQLITE_QUERY_PREFIX.length());
+        }
+        String entry = String.format(Locale.ROOT, "%.1f ms, %d rows: %s\n  SQL: %s\n  Plan: %s",
+                queryNanos / 1e6, rows, uri, sql, explain(db, sql));
+        Log.w(LOG_TAG, "Slow query " + entry);
+        synchronized (mSlowQueries) {
+            if (mSlowQueries.size() == SLOW_QUERY_LOG_SIZE) {
+                mSlowQueries.removeFirst();
+            }
+            mSlowQueries.addLast(entry);
+        }
+    }
+
+    /**
+     * Return the query plan of the given SQL, one step per line. Arguments are left unbound.
+     */
+    private static String explain(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            try {
+                int detailColumnIndex = cursor.getColumnIndex("detail");
+                if (detailColumnIndex < 0) {
+                    detailColumnIndex = cursor.getColumnCount() - 1;
+                }
+                while (cursor.moveToNext()) {
+                    plan.append(plan.length() == 0 ? "" : "; ").append(cursor.getString(detailColumnIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            plan.append("unavailable: ").append(e.getMessage());
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Return a snapshot of all metrics. Every operation and URI with at least one call has
+     * a nested bundle named "operation/uri" with its count, latencies in microseconds and rows.
+     * The slow-query log is a string array named "slow_queries".
+     */
+    public Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < mUriNames.length; slot++) {
+                Histogram histogram = mHistograms[operation][slot];
+                long count = histogram.count.get();
+                if (count == 0) {
+                    continue;
+                }
+                Bundle metrics = new Bundle();
+                metrics.putLong("count", count);
+                metrics.putLong("total_us", histogram.totalNanos.get() / 1000);
+                metrics.putLong("max_us", histogram.maxNanos.get() / 1000);
+                metrics.putLong("p50_us", histogram.percentileMicros(0.5));
+                metrics.putLong("p90_us", histogram.percentileMicros(0.9));
+                metrics.putLong("p99_us", histogram.percentileMicros(0.99));
+                metrics.putLong("rows", histogram.rows.get());
+                snapshot.putBundle(OPERATION_NAMES[operation] + "/" + mUriNames[slot], metrics);
+            }
+        }
+        synchronized (mSlowQueries) {
+            snapshot.putStringArray("slow_queries", mSlowQueries.toArray(new String[mSlowQueries.size()]));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Clear all metrics and the slow-query log.
+     */
+    public void reset() {
+        for (Histogram[] histograms : mHistograms) {
+            for (Histogram histogram : histograms) {
+                histogram.reset();
+            }
+        }
+        synchronized (mSlowQueries) {
+            mSlowQueries.clear();
+        }
+    }
+
+    /**
+     * Print all metrics and the slow-query log in a human readable form.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("PetProvider metrics (latencies in microseconds, percentiles as bucket upper bounds):");
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < mUriNames.length; slot++) {
+                Histogram histogram = mHistograms[operation][slot];
+                long count = histogram.count.get();
+                if (count == 0) {
+                    continue;
+                }
+                writer.println(String.format(Locale.ROOT,
+                        "  %-10s %-13s count=%d avg=%d p50=%d p90=%d p99=%d max=%d rows=%d",
+                        OPERATION_NAMES[operation], mUriNames[slot], count,
+                        histogram.totalNanos.get() / 1000 / count, histogram.percentileMicros(0.5),
+                        histogram.percentileMicros(0.9), histogram.percentileMicros(0.99),
+                        histogram.maxNanos.get() / 1000, histogram.rows.get()));
+            }
+        }
+        ArrayList<String> slowQueries;
+        synchronized (mSlowQueries) {
+            slowQueries = new ArrayList<>(mSlowQueries);
+        }
+        writer.println("Slow queries (over " + mSlowQueryNanos / 1000000 + " ms): " + slowQueries.size());
+        for (String slowQuery : slowQueries) {
+            writer.println("  " + slowQuery);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes the rows of deleted pets in the background.
+ *
+ * Deleting pets only flags them with {@link PetDbHelper#COLUMN_DELETED}. The purger then
+ * deletes the flagged rows in small transactions with a pause in between, so a large delete
+ * never holds the write lock for long and readers and writers get their turn between chunks.
+ * The photo files of the removed rows are deleted after their transaction has been committed.
+ */
+public class PetPurger {
+    /** Default number of rows removed in a single transaction. */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /** Default pause between two transactions, in milliseconds. */
+    public static final long DEFAULT_PAUSE_MILLIS = 50;
+
+    /** Next chunk of deleted pets after a given ID, in the order of their rows. */
+    private static final String SQL_FIND_DELETED =
+            "SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME +
+            " WHERE " + PetEntry._ID + ">? AND " + PetDbHelper.COLUMN_DELETED + "!=0" +
+            " ORDER BY " + PetEntry._ID + " LIMIT ?";
+
+    /** Removal of the deleted pets in a range of IDs. */
+    private static final String SELECTION_DELETED_RANGE =
+            PetEntry._ID + " BETWEEN ? AND ? AND " + PetDbHelper.COLUMN_DELETED + "!=0";
+
+    /** Photo files of the deleted pets in a range of IDs. */
+    private static final String SQL_FIND_DELETED_PHOTOS =
+            "SELECT " + PetEntry.COLUMN_PET_PHOTO + " FROM " + PetEntry.TABLE_NAME +
+            " WHERE " + SELECTION_DELETED_RANGE + " AND " + PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL";
+
+    private final PetDbHelper mDbHelper;
+
+    /** Store of the photo files, which are deleted along with their rows. */
+    private final PetPhotoStore mPhotos;
+
+    /** Handler of the background thread on which the rows are removed. */
+    private final Handler mHandler;
+
+    private volatile int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile long mPauseMillis = DEFAULT_PAUSE_MILLIS;
+
+    /** Last ID of the previous chunk, the next chunk starts after it. */
+    private long mLastId;
+
+    /** Removes a chunk and schedules the next one, until no deleted pets are left. */
+    private final Runnable mPurgeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (purgeChunk() > 0) {
+                mHandler.postDelayed(this, mPauseMillis);
+            }
+        }
+    };
+
+    PetPurger(PetDbHelper dbHelper, PetPhotoStore photos) {
+        mDbHelper = dbHelper;
+        mPhotos = photos;
+        HandlerThread thread = new HandlerThread(PetPurger.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Set the number of rows removed in a single transaction.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Set the pause between two transactions, in milliseconds.
+     */
+    public void setPauseMillis(long pauseMillis) {
+        if (pauseMillis < 0) {
+            throw new IllegalArgumentException("Pause must not be negative.");
+        }
+        mPauseMillis = pauseMillis;
+    }
+
+    /**
+     * Start removing the rows of deleted pets after a pause, if it is not running yet.
+     */
+    public void schedule() {
+        mHandler.removeCallbacks(mPurgeRunnable);
+        mHandler.postDelayed(mPurgeRunnable, mPauseMillis);
+    }
+
+    /**
+     * Remove the rows of the next chunk of deleted pets in a single transaction.
+     * @return The number of removed rows, 0 if there are no deleted pets left.
+     */
+    public int purgeChunk() {
+        // Waits while a restore replaces the database.
+        mDbHelper.beginUse();
+        try {
+            return purgeNextChunk();
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    private synchronized int purgeNextChunk() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long[] range = findDeleted(db, mLastId);
+        if (range == null && mLastId > 0) {
+            // Pets before the last chunk may have been deleted in the meantime.
+            mLastId = 0;
+            range = findDeleted(db, 0);
+        }
+        if (range == null) {
+            return 0;
+        }
+
+        String[] rangeArgs = { String.valueOf(range[0]), String.valueOf(range[1]) };
+        int rowsPurged;
+        List<String> photos;
+        db.beginTransaction();
+        try {
+            photos = findPhotos(db, rangeArgs);
+            rowsPurged = db.delete(PetEntry.TABLE_NAME, SELECTION_DELETED_RANGE, rangeArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (String photo : photos) {
+            mPhotos.delete(photo);
+        }
+        mLastId = range[1];
+        return rowsPurged;
+    }
+
+    /**
+     * Return the photo names of the deleted pets in the given range of IDs.
+     */
+    private static List<String> findPhotos(SQLiteDatabase db, String[] rangeArgs) {
+        List<String> photos = new ArrayList<>();
+        Cursor cursor = db.rawQuery(SQL_FIND_DELETED_PHOTOS, rangeArgs);
+        try {
+            while (cursor.moveToNext()) {
+                photos.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return photos;
+    }
+
+    /**
+     * Find the next chunk of deleted pets after the given ID.
+     * @return The first and last ID of the chunk, or null if there are no deleted pets after the ID.
+     */
+    private long[] findDeleted(SQLiteDatabase db, long afterId) {
+        Cursor cursor = db.rawQuery(SQL_FIND_DELETED,
+                new String[] { String.valueOf(afterId), String.valueOf(mChunkSize) });
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            long firstId = cursor.getLong(0);
+            cursor.moveToLast();
+            return new long[] { firstId, cursor.getLong(0) };
+        } finally {
+            cursor.close();
+        }
+    }
+}
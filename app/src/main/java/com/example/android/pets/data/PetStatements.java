@@ -0,0 +1,282 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+/**
+ * Compiled statements for the frequent single-pet writes of {@link PetProvider}, compiled once
+ * per database and reused with bound arguments instead of building SQL for every call.
+ *
+ * A statement holds its bound arguments, so every statement is bound and executed while
+ * holding its own lock. Every write begins a transaction before it takes that lock, so the
+ * writer connection is always taken first: a thread which already holds the connection in
+ * a transaction, e.g. a bulk insert, never waits for a lock held by a thread which waits for
+ * the connection. Statements of a closed database must not be used, see
+ * {@link #isFor(SQLiteDatabase)}.
+ */
+final class PetStatements {
+    /** Insert of a pet with all columns. */
+    private static final String SQL_INSERT_PET =
+            "INSERT INTO " + PetEntry.TABLE_NAME + " (" +
+            PetEntry.COLUMN_PET_NAME + ", " +
+            PetEntry.COLUMN_PET_BREED + ", " +
+            PetEntry.COLUMN_PET_GENDER + ", " +
+            PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    /** Update of all columns of a pet, as written by the editor. */
+    private static final String SQL_UPDATE_PET =
+            "UPDATE " + PetEntry.TABLE_NAME + " SET " +
+            PetEntry.COLUMN_PET_NAME + "=?, " +
+            PetEntry.COLUMN_PET_BREED + "=?, " +
+            PetEntry.COLUMN_PET_GENDER + "=?, " +
+            PetEntry.COLUMN_PET_WEIGHT + "=? WHERE " + PetEntry._ID + "=? AND " + PetDbHelper.SELECTION_NOT_DELETED;
+
+    /** Delete of a pet by ID, which flags the pet as deleted for {@link PetPurger}. */
+    private static final String SQL_DELETE_PET =
+            "UPDATE " + PetEntry.TABLE_NAME + " SET " + PetDbHelper.COLUMN_DELETED + "=1 WHERE " +
+            PetEntry._ID + "=? AND " + PetDbHelper.SELECTION_NOT_DELETED;
+
+    /**
+     * Insert of a weight measurement, which only inserts if the pet exists and has not been
+     * deleted. The rollups are updated by a trigger.
+     */
+    private static final String SQL_INSERT_WEIGHT =
+            "INSERT INTO " + PetWeightEntry.TABLE_NAME + " (" +
+            PetWeightEntry.COLUMN_PET_ID + ", " +
+            PetWeightEntry.COLUMN_WEIGHT + ", " +
+            PetWeightEntry.COLUMN_MEASURED_AT + ") SELECT ?1, ?2, ?3 WHERE EXISTS (SELECT 1 FROM " +
+            PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + "=?1 AND " + PetDbHelper.SELECTION_NOT_DELETED + ")";
+
+    /** Columns bound by the insert and update statements. */
+    private static final String[] COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    private final SQLiteDatabase mDb;
+    private SQLiteStatement mInsertPet;
+    private SQLiteStatement mUpdatePet;
+    private SQLiteStatement mDeletePet;
+    private SQLiteStatement mInsertWeight;
+
+    PetStatements(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /** Return true if the statements belong to the given, still open database. */
+    boolean isFor(SQLiteDatabase db) {
+        return mDb == db && db.isOpen();
+    }
+
+    /**
+     * Return true if the given values only hold columns bound by the insert and update statements.
+     */
+    static boolean hasOnlyPetColumns(ContentValues values) {
+        for (String key : values.keySet()) {
+            boolean known = false;
+            for (String column : COLUMNS) {
+                if (column.equals(key)) {
+                    known = true;
+                    break;
+                }
+            }
+            if (!known) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the given values hold exactly the columns of {@link #updatePet(long, ContentValues)},
+     * with a weight. Other updates go through {@link SQLiteDatabase#update}.
+     */
+    static boolean isFullRow(ContentValues values) {
+        return values.size() == COLUMNS.length && hasOnlyPetColumns(values)
+                && values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) != null;
+    }
+
+    /**
+     * Insert a validated pet. A missing breed is inserted as null.
+     * @return The ID of the new pet, or -1 if the insert failed.
+     */
+    long insertPet(ContentValues values) {
+        long id;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement statement = getInsertPet();
+            synchronized (statement) {
+                bindPet(statement, values);
+                id = statement.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return id;
+    }
+
+    /**
+     * Insert validated pets in a single transaction, holding the statement lock once for all
+     * of them. Joins the transaction of the caller, if any.
+     * @return The number of inserted rows.
+     */
+    int insertPets(Iterable<ContentValues> pets) {
+        int rowsInserted = 0;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement statement = getInsertPet();
+            synchronized (statement) {
+                for (ContentValues pet : pets) {
+                    bindPet(statement, pet);
+                    if (statement.executeInsert() != -1) {
+                        rowsInserted++;
+                    }
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Update all columns of a pet. The values have to be validated and hold every column,
+     * see {@link #isFullRow(ContentValues)}.
+     * @return The number of updated rows.
+     */
+    int updatePet(long id, ContentValues values) {
+        int rowsUpdated;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement statement = getUpdatePet();
+            synchronized (statement) {
+                bindPet(statement, values);
+                statement.bindLong(COLUMNS.length + 1, id);
+                rowsUpdated = statement.executeUpdateDelete();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete a pet by ID. The row stays until it is purged, but is no longer visible.
+     * @return The number of deleted rows.
+     */
+    int deletePet(long id) {
+        int rowsDeleted;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement statement = getDeletePet();
+            synchronized (statement) {
+                statement.bindLong(1, id);
+                rowsDeleted = statement.executeUpdateDelete();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Append validated weight measurements to the history of a pet in a single transaction,
+     * holding the statement lock once for all of them. Joins the transaction of the caller,
+     * if any.
+     * @return The ID of the last inserted measurement, or -1 if the pet does not exist.
+     */
+    long insertWeights(long petId, Iterable<ContentValues> measurements) {
+        long lastId = -1;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement statement = getInsertWeight();
+            synchronized (statement) {
+                for (ContentValues measurement : measurements) {
+                    statement.bindLong(1, petId);
+                    statement.bindLong(2, measurement.getAsInteger(PetWeightEntry.COLUMN_WEIGHT));
+                    statement.bindLong(3, measurement.getAsLong(PetWeightEntry.COLUMN_MEASURED_AT));
+                    lastId = statement.executeInsert();
+                    if (lastId == -1) {
+                        // The pet does not exist, so neither does any other measurement.
+                        break;
+                    }
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return lastId;
+    }
+
+    /**
+     * Close all compiled statements.
+     */
+    synchronized void close() {
+        if (mInsertPet != null) {
+            mInsertPet.close();
+        }
+        if (mUpdatePet != null) {
+            mUpdatePet.close();
+        }
+        if (mDeletePet != null) {
+            mDeletePet.close();
+        }
+        if (mInsertWeight != null) {
+            mInsertWeight.close();
+        }
+    }
+
+    private synchronized SQLiteStatement getInsertPet() {
+        if (mInsertPet == null) {
+            mInsertPet = mDb.compileStatement(SQL_INSERT_PET);
+        }
+        return mInsertPet;
+    }
+
+    private synchronized SQLiteStatement getUpdatePet() {
+        if (mUpdatePet == null) {
+            mUpdatePet = mDb.compileStatement(SQL_UPDATE_PET);
+        }
+        return mUpdatePet;
+    }
+
+    private synchronized SQLiteStatement getDeletePet() {
+        if (mDeletePet == null) {
+            mDeletePet = mDb.compileStatement(SQL_DELETE_PET);
+        }
+        return mDeletePet;
+    }
+
+    private synchronized SQLiteStatement getInsertWeight() {
+        if (mInsertWeight == null) {
+            mInsertWeight = mDb.compileStatement(SQL_INSERT_WEIGHT);
+        }
+        return mInsertWeight;
+    }
+
+    /**
+     * Bind the values of a pet to the first four arguments of the statement.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.bindString(1, values.getAsString(PetEntry.COLUMN_PET_NAME));
+        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, breed);
+        }
+        statement.bindLong(3, values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        statement.bindLong(4, values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+    }
+}
@@ -0,0 +1,687 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Finds pets by the beginnings of the words of their name and breed while the user types,
+ * without a query of the database.
+ *
+ * The words are kept in a radix trie in memory, which is built in the background on the
+ * first lookup. Until then, lookups return null and the caller has to search the database.
+ * Committed changes are reported by {@link PetChangeNotifier}: a changed pet is read again,
+ * and after bulk changes the change log tells which pets to read again. If the log has been
+ * truncated, e.g. after a restore, the trie is built again. If reading the pets fails in the
+ * background, the trie is dropped and built again on the next lookup.
+ */
+public class PetTypeAhead implements PetChangeNotifier.Listener {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetTypeAhead.class.getSimpleName();
+
+    /** Default number of pets returned by a lookup. */
+    public static final int DEFAULT_LIMIT = 10;
+
+    /** Number of changes read from the change log at once. */
+    private static final int CHANGES_PAGE_SIZE = 1000;
+
+    private static final String[] PETS_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED
+    };
+
+    private static final String[] CHANGES_PROJECTION = {
+            PetChangeEntry.COLUMN_SEQUENCE, PetChangeEntry.COLUMN_PET_ID, PetChangeEntry.COLUMN_OP,
+            PetChangeEntry.COLUMN_CHANGED_COLUMNS
+    };
+
+    /** Name and breed of a single pet, which has not been deleted. */
+    private static final String SQL_QUERY_PET = "SELECT " + PetEntry.COLUMN_PET_NAME + ", " +
+            PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + "=? AND " +
+            PetDbHelper.SELECTION_NOT_DELETED;
+
+    private final PetDbHelper mDbHelper;
+    private final PetChangeLog mChangeLog;
+
+    /** Handler of the background thread on which the trie is built and updated. */
+    private final Handler mHandler;
+
+    /** Lets lookups run in parallel, but not during an update. */
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /** The words of the pets. Guarded by mLock. */
+    private Trie mTrie = new Trie();
+
+    /** True once the trie has been built for the first time. */
+    private volatile boolean mBuilt;
+
+    /** True once a lookup has asked for the trie, so changes have to be followed. */
+    private volatile boolean mRequested;
+
+    /** Last sequence number of the change log applied to the trie. Guarded by this. */
+    private long mLastSequence;
+
+    /** IDs of single changed pets which have not been read yet. Guarded by itself. */
+    private final Set<Long> mPendingIds = new HashSet<>();
+
+    /** True if bulk changes have to be read from the change log. Guarded by mPendingIds. */
+    private boolean mCatchUpPending;
+
+    /** True if applying the pending changes is scheduled. Guarded by mPendingIds. */
+    private boolean mScheduled;
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyScheduledChanges();
+        }
+    };
+
+    PetTypeAhead(PetDbHelper dbHelper, PetChangeLog changeLog) {
+        mDbHelper = dbHelper;
+        mChangeLog = changeLog;
+        HandlerThread thread = new HandlerThread(PetTypeAhead.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Return true once the trie has been built and lookups are answered.
+     */
+    public boolean isBuilt() {
+        return mBuilt;
+    }
+
+    /**
+     * Return the IDs of pets with words in their name or breed starting with all words of the
+     * query, in the order of their matching words, and shorter words first.
+     * @return At most limit IDs, or null if the trie has not been built yet.
+     */
+    public long[] lookup(String query, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        if (!mBuilt) {
+            if (!mRequested) {
+                mRequested = true;
+                schedule(false);
+            }
+            return null;
+        }
+
+        String[] words = words(query);
+        if (words.length == 0) {
+            return new long[0];
+        }
+        // Walk down the longest word, which matches the fewest pets, and check the others.
+        int longest = 0;
+        for (int i = 1; i < words.length; i++) {
+            if (words[i].length() > words[longest].length()) {
+                longest = i;
+            }
+        }
+        String[] otherWords = new String[words.length - 1];
+        for (int i = 0, j = 0; i < words.length; i++) {
+            if (i != longest) {
+                otherWords[j++] = words[i];
+            }
+        }
+
+        mLock.readLock().lock();
+        try {
+            long[] ids = new long[limit];
+            int count = mTrie.collect(words[longest], otherWords, ids);
+            return count == limit ? ids : Arrays.copyOf(ids, count);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of indexed pets.
+     */
+    public int getPetCount() {
+        mLock.readLock().lock();
+        try {
+            return mTrie.mWords.size();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of indexed words of all pets.
+     */
+    public int getEntryCount() {
+        mLock.readLock().lock();
+        try {
+            return mTrie.mEntryCount;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remember a committed change, and apply it in the background once the trie is in use.
+     * Single pets are read again, bulk changes are read from the change log.
+     */
+    @Override
+    public void onChangeCommitted(Uri uri) {
+        if (!mRequested) {
+            // The trie is built from the current pets when it is first used.
+            return;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 1 && PetContract.PATH_PETS.equals(segments.get(0))) {
+            schedule(true);
+        } else if (segments.size() == 2 && PetContract.PATH_PETS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1))) {
+            synchronized (mPendingIds) {
+                mPendingIds.add(Long.parseLong(segments.get(1)));
+            }
+            schedule(false);
+        }
+    }
+
+    /**
+     * Build the trie from all pets on the calling thread, replacing the current one.
+     */
+    public void rebuild() {
+        // Waits while a restore replaces the database.
+        mDbHelper.beginUse();
+        try {
+            rebuildTrie();
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    private synchronized void rebuildTrie() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        // Changes logged while the pets are read are applied again afterwards.
+        long lastSequence = PetChangeLog.getLastSequence(db);
+        Trie trie = new Trie();
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, PETS_PROJECTION, PetDbHelper.SELECTION_NOT_DELETED,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                trie.put(cursor.getLong(0), cursor.getString(1), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mLock.writeLock().lock();
+        try {
+            mTrie = trie;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        mLastSequence = lastSequence;
+        mBuilt = true;
+        mRequested = true;
+        catchUp(new HashSet<Long>());
+    }
+
+    /**
+     * Apply the changes reported since the last call on the calling thread, building the trie
+     * first if it has not been built yet.
+     */
+    public void applyPendingChanges() {
+        mDbHelper.beginUse();
+        try {
+            applyChanges();
+        } finally {
+            mDbHelper.endUse();
+        }
+    }
+
+    private synchronized void applyChanges() {
+        Set<Long> ids;
+        boolean catchUp;
+        synchronized (mPendingIds) {
+            ids = new HashSet<>(mPendingIds);
+            mPendingIds.clear();
+            catchUp = mCatchUpPending;
+            mCatchUpPending = false;
+            mScheduled = false;
+        }
+        if (!mBuilt) {
+            rebuildTrie();
+        } else if (catchUp) {
+            catchUp(ids);
+        } else {
+            reload(ids);
+        }
+    }
+
+    /**
+     * Apply the pending changes as scheduled on the background thread. If they cannot be
+     * applied, e.g. because of an {@link android.database.sqlite.SQLiteException}, the trie is
+     * stale: it is dropped, lookups return null so the caller searches the database, and the
+     * next lookup builds the trie again.
+     */
+    void applyScheduledChanges() {
+        try {
+            applyPendingChanges();
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to update the words of the pets, falling back to the search", e);
+            markStale();
+        }
+    }
+
+    /**
+     * Drop the trie and the pending changes, so the trie is built again on the next lookup.
+     */
+    private void markStale() {
+        // Lookups stop reading the trie first.
+        mBuilt = false;
+        synchronized (mPendingIds) {
+            mPendingIds.clear();
+            mCatchUpPending = false;
+            mScheduled = false;
+        }
+        mLock.writeLock().lock();
+        try {
+            mTrie = new Trie();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        mRequested = false;
+    }
+
+    private void schedule(boolean catchUp) {
+        synchronized (mPendingIds) {
+            mCatchUpPending |= catchUp;
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mHandler.post(mApplyRunnable);
+    }
+
+    /**
+     * Read the pets changed since the last applied change from the change log, and read them
+     * again together with the given pets. Build the trie again if the log has been truncated.
+     */
+    private void catchUp(Set<Long> ids) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String limit = String.valueOf(CHANGES_PAGE_SIZE);
+        int rows;
+        do {
+            Cursor cursor = mChangeLog.query(db, CHANGES_PROJECTION, mLastSequence, limit);
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    String op = cursor.getString(2);
+                    if (PetContract.OP_RESET.equals(op)) {
+                        rebuildTrie();
+                        return;
+                    }
+                    mLastSequence = cursor.getLong(0);
+                    if (!PetContract.OP_UPDATE.equals(op) || changesWords(cursor.getString(3))) {
+                        ids.add(cursor.getLong(1));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (rows == CHANGES_PAGE_SIZE);
+        reload(ids);
+    }
+
+    /**
+     * Return true if the comma-separated changed columns include the name or the breed.
+     */
+    private static boolean changesWords(String changedColumns) {
+        if (changedColumns == null) {
+            return true;
+        }
+        for (String column : changedColumns.split(",")) {
+            if (PetEntry.COLUMN_PET_NAME.equals(column) || PetEntry.COLUMN_PET_BREED.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the given pets again and replace their words, or remove them if they are deleted.
+     */
+    private void reload(Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        for (long id : ids) {
+            String name = null;
+            String breed = null;
+            boolean exists;
+            Cursor cursor = db.rawQuery(SQL_QUERY_PET, new String[] { String.valueOf(id) });
+            try {
+                exists = cursor.moveToFirst();
+                if (exists) {
+                    name = cursor.getString(0);
+                    breed = cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            mLock.writeLock().lock();
+            try {
+                if (exists) {
+                    mTrie.put(id, name, breed);
+                } else {
+                    mTrie.remove(id);
+                }
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Split a name, breed or query into lower case words of letters and digits, as the
+     * full-text search does.
+     */
+    static String[] words(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * Radix trie of the words of the pets, with the IDs of the pets at the node where each
+     * word ends. Not thread safe.
+     */
+    private static final class Trie {
+        private final Node mRoot = new Node("");
+
+        /** Words of every indexed pet, needed to remove them again. */
+        final Map<Long, String[]> mWords = new HashMap<>();
+
+        /** Number of words of all pets. */
+        int mEntryCount;
+
+        /**
+         * Replace the words of a pet.
+         */
+        void put(long id, String name, String breed) {
+            String[] nameWords = words(name);
+            String[] breedWords = words(breed);
+            Set<String> words = new LinkedHashSet<>(Arrays.asList(nameWords));
+            words.addAll(Arrays.asList(breedWords));
+            String[] newWords = words.toArray(new String[words.size()]);
+            String[] oldWords = mWords.put(id, newWords);
+            if (oldWords != null) {
+                for (String word : oldWords) {
+                    if (!words.contains(word)) {
+                        mRoot.remove(word, 0, id);
+                        mEntryCount--;
+                    }
+                }
+            }
+            List<String> previous = oldWords == null ? new ArrayList<String>() : Arrays.asList(oldWords);
+            for (String word : newWords) {
+                if (!previous.contains(word)) {
+                    mRoot.insert(word, 0, id);
+                    mEntryCount++;
+                }
+            }
+        }
+
+        /**
+         * Remove all words of a pet.
+         */
+        void remove(long id) {
+            String[] oldWords = mWords.remove(id);
+            if (oldWords == null) {
+                return;
+            }
+            for (String word : oldWords) {
+                mRoot.remove(word, 0, id);
+                mEntryCount--;
+            }
+        }
+
+        /**
+         * Collect the pets with a word starting with the prefix, which also have words starting
+         * with all other words.
+         * @return The number of collected IDs.
+         */
+        int collect(String prefix, String[] otherWords, long[] ids) {
+            Node node = mRoot;
+            int i = 0;
+            while (i < prefix.length()) {
+                Node child = node.child(prefix.charAt(i));
+                if (child == null) {
+                    return 0;
+                }
+                int common = commonLength(child.label, prefix, i);
+                if (i + common == prefix.length()) {
+                    // The prefix ends within or at the end of the label.
+                    node = child;
+                    break;
+                }
+                if (common < child.label.length()) {
+                    return 0;
+                }
+                node = child;
+                i += common;
+            }
+            return collect(node, otherWords, ids, 0);
+        }
+
+        private int collect(Node node, String[] otherWords, long[] ids, int count) {
+            for (int i = 0; i < node.idCount && count < ids.length; i++) {
+                long id = node.ids[i];
+                if (!contains(ids, count, id) && hasAllWords(id, otherWords)) {
+                    ids[count++] = id;
+                }
+            }
+            for (int i = 0; i < node.childCount && count < ids.length; i++) {
+                count = collect(node.children[i], otherWords, ids, count);
+            }
+            return count;
+        }
+
+        private boolean hasAllWords(long id, String[] prefixes) {
+            if (prefixes.length == 0) {
+                return true;
+            }
+            String[] words = mWords.get(id);
+            for (String prefix : prefixes) {
+                boolean found = false;
+                for (String word : words) {
+                    if (word.startsWith(prefix)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean contains(long[] ids, int count, long id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Node of the trie, with the label of the edge from its parent. Children are sorted by the
+     * first character of their label, which differs between siblings.
+     */
+    private static final class Node {
+        String label;
+        Node[] children;
+        int childCount;
+        long[] ids;
+        int idCount;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Add the ID to the node of the word, from its character at the given index on.
+         */
+        void insert(String word, int index, long id) {
+            Node node = this;
+            while (index < word.length()) {
+                int position = node.childPosition(word.charAt(index));
+                if (position < 0) {
+                    Node leaf = new Node(word.substring(index));
+                    leaf.addId(id);
+                    node.insertChild(-position - 1, leaf);
+                    return;
+                }
+                Node child = node.children[position];
+                int common = commonLength(child.label, word, index);
+                if (common < child.label.length()) {
+                    // Split the edge where the word leaves the label.
+                    Node split = new Node(child.label.substring(0, common));
+                    child.label = child.label.substring(common);
+                    split.children = new Node[] { child, null };
+                    split.childCount = 1;
+                    node.children[position] = split;
+                    child = split;
+                }
+                node = child;
+                index += common;
+            }
+            node.addId(id);
+        }
+
+        /**
+         * Remove the ID from the node of the word, from its character at the given index on,
+         * and remove or merge nodes which are no longer needed.
+         */
+        void remove(String word, int index, long id) {
+            if (index == word.length()) {
+                removeId(id);
+                return;
+            }
+            int position = childPosition(word.charAt(index));
+            if (position < 0) {
+                return;
+            }
+            Node child = children[position];
+            if (!word.startsWith(child.label, index)) {
+                return;
+            }
+            child.remove(word, index + child.label.length(), id);
+            if (child.idCount == 0 && child.childCount == 0) {
+                System.arraycopy(children, position + 1, children, position, childCount - position - 1);
+                children[--childCount] = null;
+            } else if (child.idCount == 0 && child.childCount == 1) {
+                Node grandchild = child.children[0];
+                grandchild.label = child.label + grandchild.label;
+                children[position] = grandchild;
+            }
+        }
+
+        Node child(char c) {
+            int position = childPosition(c);
+            return position < 0 ? null : children[position];
+        }
+
+        /**
+         * Return the position of the child whose label starts with the character, or
+         * (-(insertion point) - 1) if there is none.
+         */
+        private int childPosition(char c) {
+            int low = 0;
+            int high = childCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char first = children[middle].label.charAt(0);
+                if (first < c) {
+                    low = middle + 1;
+                } else if (first > c) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private void insertChild(int position, Node child) {
+            if (children == null) {
+                children = new Node[2];
+            } else if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            System.arraycopy(children, position, children, position + 1, childCount - position);
+            children[position] = child;
+            childCount++;
+        }
+
+        private void addId(long id) {
+            if (ids == null) {
+                ids = new long[1];
+            } else if (idCount == ids.length) {
+                ids = Arrays.copyOf(ids, idCount * 2);
+            }
+            ids[idCount++] = id;
+        }
+
+        private void removeId(long id) {
+            for (int i = 0; i < idCount; i++) {
+                if (ids[i] == id) {
+                    System.arraycopy(ids, i + 1, ids, i, idCount - i - 1);
+                    idCount--;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the length of the common beginning of the label and the text from the index on.
+     */
+    private static int commonLength(String label, String text, int index) {
+        int length = Math.min(label.length(), text.length() - index);
+        int common = 0;
+        while (common < length && label.charAt(common) == text.charAt(index + common)) {
+            common++;
+        }
+        return common;
+    }
+}
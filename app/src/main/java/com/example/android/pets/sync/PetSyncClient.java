@@ -0,0 +1,331 @@
+package com.example.android.pets.sync;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends requests to the sync server over {@link HttpURLConnection}.
+ *
+ * Request bodies are sent gzip-compressed as they were built, and responses are requested
+ * compressed and decompressed here, so the same bytes go over the wire on every platform.
+ * Failed requests are retried with exponential backoff and jitter when a retry can succeed:
+ * after I/O errors, timeouts, 408, 429 and 5xx responses. A Retry-After header in seconds is
+ * honored. Requests carry an idempotency key, so the server applies a retried request once.
+ */
+public class PetSyncClient {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSyncClient.class.getSimpleName();
+
+    /** Header with the key under which the server applies a request only once. */
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /** Default number of attempts of a request, including the first one. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /** Default delay before the first retry, doubled for every further retry. */
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+    /** Longest delay between two attempts, also for Retry-After. */
+    public static final long MAX_RETRY_DELAY_MILLIS = 30 * 1000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final String MIME_TYPE_JSON = "application/json";
+    private static final String ENCODING_GZIP = "gzip";
+
+    /** Base URL of the server, which paths are appended to. */
+    private final String mBaseUrl;
+
+    private final Random mRandom = new Random();
+
+    private volatile int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long mRetryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+    /** Counters for the throughput of syncs. Guarded by this. */
+    private long mRequests;
+    private long mRetries;
+    private long mBytesSent;
+    private long mBytesReceived;
+
+    /**
+     * Thrown for a response which is not retried, or after the last attempt of a request.
+     */
+    public static class HttpException extends IOException {
+        /** HTTP status of the last response. */
+        public final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param baseUrl The URL of the server without a trailing slash, e.g. {@code https://example.com/api}.
+     */
+    public PetSyncClient(String baseUrl) {
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            throw new IllegalArgumentException("Sync requires a server URL");
+        }
+        mBaseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    /**
+     * Set the number of attempts of a request, including the first one.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Attempts must be positive.");
+        }
+        mMaxAttempts = maxAttempts;
+    }
+
+    /**
+     * Set the delay before the first retry, in milliseconds.
+     */
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        if (retryDelayMillis < 0) {
+            throw new IllegalArgumentException("Retry delay must not be negative.");
+        }
+        mRetryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Post a gzip-compressed JSON body.
+     * @param path           The path below the base URL, starting with a slash.
+     * @param idempotencyKey The key under which the server applies the request only once.
+     * @return The decompressed response body.
+     */
+    public byte[] post(String path, String idempotencyKey, byte[] gzippedBody) throws IOException {
+        return execute("POST", path, idempotencyKey, gzippedBody);
+    }
+
+    /**
+     * Get a resource.
+     * @param pathAndQuery The path below the base URL, starting with a slash, with its query.
+     * @return The decompressed response body.
+     */
+    public byte[] get(String pathAndQuery) throws IOException {
+        return execute("GET", pathAndQuery, null, null);
+    }
+
+    /** Return the number of attempted requests, including retries. */
+    public synchronized long getRequestCount() {
+        return mRequests;
+    }
+
+    /** Return the number of retried attempts. */
+    public synchronized long getRetryCount() {
+        return mRetries;
+    }
+
+    /** Return the number of compressed body bytes sent. */
+    public synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /** Return the number of body bytes received, before decompression. */
+    public synchronized long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * Run a request until it succeeds, fails for good or has used up its attempts.
+     */
+    private byte[] execute(String method, String path, String idempotencyKey, byte[] body) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            long retryAfterMillis = -1;
+            IOException failure;
+            try {
+                Response response = attempt(method, path, idempotencyKey, body);
+                if (response.status >= 200 && response.status < 300) {
+                    return response.body;
+                }
+                failure = new HttpException(response.status, method + " " + path + " failed with HTTP " + response.status);
+                if (!isRetriable(response.status)) {
+                    throw failure;
+                }
+                retryAfterMillis = response.retryAfterMillis;
+            } catch (HttpException e) {
+                throw e;
+            } catch (InterruptedIOException e) {
+                // Timeouts are retried, but an interrupted thread is done.
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                failure = e;
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            if (attempt >= mMaxAttempts) {
+                throw failure;
+            }
+            long delayMillis = retryAfterMillis >= 0 ? Math.min(retryAfterMillis, MAX_RETRY_DELAY_MILLIS)
+                    : backoffMillis(attempt);
+            Log.w(LOG_TAG, "Retrying " + method + " " + path + " in " + delayMillis + " ms: " + failure.getMessage());
+            synchronized (this) {
+                mRetries++;
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + path);
+            }
+        }
+    }
+
+    /**
+     * Return the delay before the given retry: the doubled delay of the previous one, capped,
+     * and spread randomly over its upper half so clients which failed together do not retry together.
+     */
+    private long backoffMillis(int attempt) {
+        long delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, mRetryDelayMillis << Math.min(attempt - 1, 20));
+        long half = delayMillis / 2;
+        return half + (half > 0 ? (long) (mRandom.nextDouble() * (delayMillis - half)) : 0);
+    }
+
+    /** Return true if a request which failed with the given status may succeed when retried. */
+    private static boolean isRetriable(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * Status, retry delay and body of a response.
+     */
+    private static final class Response {
+        final int status;
+        final long retryAfterMillis;
+        final byte[] body;
+
+        Response(int status, long retryAfterMillis, byte[] body) {
+            this.status = status;
+            this.retryAfterMillis = retryAfterMillis;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Send a request once and read its whole response.
+     */
+    private Response attempt(String method, String path, String idempotencyKey, byte[] body) throws IOException {
+        synchronized (this) {
+            mRequests++;
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(mBaseUrl + path).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            // Asking for gzip explicitly turns off transparent decompression, see readBody.
+            connection.setRequestProperty("Accept-Encoding", ENCODING_GZIP);
+            connection.setRequestProperty("Accept", MIME_TYPE_JSON);
+            if (idempotencyKey != null) {
+                connection.setRequestProperty(HEADER_IDEMPOTENCY_KEY, idempotencyKey);
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                connection.setRequestProperty("Content-Type", MIME_TYPE_JSON);
+                connection.setRequestProperty("Content-Encoding", ENCODING_GZIP);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+                synchronized (this) {
+                    mBytesSent += body.length;
+                }
+            }
+
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            byte[] responseBody = in == null ? new byte[0]
+                    : readBody(in, ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding()));
+            return new Response(status, parseRetryAfter(connection.getHeaderField("Retry-After")), responseBody);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Read a whole response body, decompressing it if it was compressed.
+     */
+    private byte[] readBody(InputStream in, boolean gzipped) throws IOException {
+        CountingInputStream counting = new CountingInputStream(in);
+        InputStream body = gzipped ? new GZIPInputStream(counting, BUFFER_SIZE) : counting;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            body.close();
+            synchronized (this) {
+                mBytesReceived += counting.count;
+            }
+        }
+    }
+
+    /**
+     * Return the delay of a Retry-After header in seconds, or -1 if it is missing or a date.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the wire.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,644 @@
+package com.example.android.pets.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Replicates the pets to the sync server and back.
+ *
+ * A sync first pushes the local changes and then pulls the remote ones, so concurrent edits
+ * are resolved by the server. Pushing reads {@link PetChangeEntry} after the last pushed
+ * sequence number and sends the current row of every changed pet in gzip-compressed batches
+ * of bounded size. The idempotency key of a batch is derived from its range of sequence
+ * numbers, so a batch resent after a lost response is applied by the server only once.
+ * Pulling reads pages of remote changes after the last pull cursor and applies each page in
+ * a single transaction of the provider. Pulled writes set {@link PetEntry#COLUMN_REMOTE_VERSION},
+ * so they are not logged as local changes and never pushed back.
+ *
+ * Protocol, all bodies JSON and gzip-compressed:
+ * <ul>
+ * <li>{@code POST /pets/push} with {@code {"client", "changes": [...]}}, where a change is
+ * {@code {"op": "upsert", "local_id", "remote_id", "name", "breed", "gender", "weight"}} or
+ * {@code {"op": "delete", "local_id", "remote_id"}}. The server identifies pets without a remote
+ * ID by the client and local ID.</li>
+ * <li>{@code GET /pets/changes?since=&client=&limit=} returns {@code {"cursor", "more", "changes"}}
+ * with the latest state of every pet changed after the cursor by other clients, as
+ * {@code {"op", "remote_id", "version", "origin", "local_id", ...}}. The version grows with every
+ * change of a pet; origin and local ID identify the client and local ID the pet was created with.</li>
+ * </ul>
+ * Photos are not synced.
+ */
+public class PetSyncEngine {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSyncEngine.class.getSimpleName();
+
+    /** Paths of the server below its base URL. */
+    public static final String PATH_PUSH = "/pets/push";
+    public static final String PATH_CHANGES = "/pets/changes";
+
+    /** Names of the query parameters and JSON fields of the protocol. */
+    public static final String PARAM_SINCE = "since";
+    public static final String PARAM_CLIENT = "client";
+    public static final String PARAM_LIMIT = "limit";
+    public static final String FIELD_CLIENT = "client";
+    public static final String FIELD_CHANGES = "changes";
+    public static final String FIELD_CURSOR = "cursor";
+    public static final String FIELD_MORE = "more";
+    public static final String FIELD_OP = "op";
+    public static final String FIELD_LOCAL_ID = "local_id";
+    public static final String FIELD_REMOTE_ID = "remote_id";
+    public static final String FIELD_VERSION = "version";
+    public static final String FIELD_ORIGIN = "origin";
+
+    /** Kinds of changes of the protocol. */
+    public static final String OP_UPSERT = "upsert";
+    public static final String OP_DELETE = PetContract.OP_DELETE;
+
+    /** Default size of a pushed batch before compression. */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
+
+    /** Default number of remote changes pulled and applied at once. */
+    public static final int DEFAULT_PULL_LIMIT = 2000;
+
+    /** Number of changes and pets read from the provider at once, below the SQLite argument limit. */
+    private static final int READ_LIMIT = 500;
+
+    /** Preferences with the sync progress. */
+    private static final String PREFERENCES_NAME = "pet_sync";
+    private static final String KEY_CLIENT_ID = "client_id";
+    private static final String KEY_PUSHED_THROUGH = "pushed_through";
+    private static final String KEY_PULL_CURSOR = "pull_cursor";
+
+    private static final String[] CHANGE_PROJECTION = {
+            PetChangeEntry.COLUMN_SEQUENCE,
+            PetChangeEntry.COLUMN_PET_ID,
+            PetChangeEntry.COLUMN_OP,
+            PetChangeEntry.COLUMN_REMOTE_ID
+    };
+
+    /** Pushed columns of a pet, the JSON fields of an upsert are named after them. */
+    private static final String[] PET_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_REMOTE_ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    private final ContentResolver mResolver;
+    private final SharedPreferences mPreferences;
+    private final PetSyncClient mClient;
+
+    /** Random ID of this installation, which the server uses to identify the pets created here. */
+    private final String mClientId;
+
+    private volatile int mMaxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private volatile int mPullLimit = DEFAULT_PULL_LIMIT;
+
+    /**
+     * Number of changes sent and applied by a sync.
+     */
+    public static final class Result {
+        public final int pushedChanges;
+        public final int pulledChanges;
+
+        Result(int pushedChanges, int pulledChanges) {
+            this.pushedChanges = pushedChanges;
+            this.pulledChanges = pulledChanges;
+        }
+
+        @Override
+        public String toString() {
+            return "pushed " + pushedChanges + ", pulled " + pulledChanges;
+        }
+    }
+
+    public PetSyncEngine(Context context, PetSyncClient client) {
+        mResolver = context.getContentResolver();
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mClient = client;
+        String clientId = mPreferences.getString(KEY_CLIENT_ID, null);
+        if (clientId == null) {
+            clientId = UUID.randomUUID().toString();
+            mPreferences.edit().putString(KEY_CLIENT_ID, clientId).commit();
+        }
+        mClientId = clientId;
+    }
+
+    /** Return the ID under which this installation syncs. */
+    public String getClientId() {
+        return mClientId;
+    }
+
+    /**
+     * Set the size of a pushed batch before compression. A single change is sent even if it is larger.
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        mMaxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Set the number of remote changes pulled and applied in a single transaction.
+     */
+    public void setPullLimit(int pullLimit) {
+        if (pullLimit < 1) {
+            throw new IllegalArgumentException("Pull limit must be positive.");
+        }
+        mPullLimit = pullLimit;
+    }
+
+    /**
+     * Push the local changes and pull the remote ones. Has to be called on a background thread.
+     * Progress is kept after every batch, so a failed sync continues where it stopped.
+     */
+    public synchronized Result sync() throws IOException {
+        int pushed = push();
+        int pulled = pull();
+        return new Result(pushed, pulled);
+    }
+
+    /**
+     * Push the changes after the last pushed sequence number.
+     * @return The number of sent changes.
+     */
+    private int push() throws IOException {
+        long readThrough = mPreferences.getLong(KEY_PUSHED_THROUGH, 0);
+        int pushed = 0;
+        Batch batch = new Batch("changes", true);
+        while (true) {
+            Cursor cursor = mResolver.query(PetChangeEntry.buildChangesUri(readThrough, READ_LIMIT),
+                    CHANGE_PROJECTION, null, null, null);
+            List<long[]> entries = new ArrayList<>();
+            List<String> ops = new ArrayList<>();
+            List<String> remoteIds = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    entries.add(new long[] { cursor.getLong(0), cursor.getLong(1) });
+                    ops.add(cursor.getString(2));
+                    remoteIds.add(cursor.getString(3));
+                }
+            } finally {
+                cursor.close();
+            }
+            if (entries.isEmpty()) {
+                break;
+            }
+            if (PetContract.OP_RESET.equals(ops.get(0))) {
+                // Deletes since the last push have been dropped, so send the state of every pet.
+                pushed += flush(batch);
+                long resetSequence = entries.get(0)[0];
+                pushed += pushAll(resetSequence);
+                readThrough = resetSequence;
+                continue;
+            }
+
+            Map<Long, ContentValues> pets = readPets(entries, ops);
+            for (int i = 0; i < entries.size(); i++) {
+                long sequence = entries.get(i)[0];
+                long petId = entries.get(i)[1];
+                if (PetContract.OP_DELETE.equals(ops.get(i))) {
+                    batch.addDelete(sequence, petId, remoteIds.get(i));
+                } else {
+                    // A pet which is gone has been deleted since, which is pushed with a later change.
+                    batch.addUpsert(sequence, pets.get(petId));
+                }
+                if (batch.size() >= mMaxBatchBytes) {
+                    pushed += flush(batch);
+                }
+            }
+            readThrough = entries.get(entries.size() - 1)[0];
+        }
+        pushed += flush(batch);
+        return pushed;
+    }
+
+    /**
+     * Push the current state of every pet, after the changes up to the given sequence number
+     * have been dropped from the log.
+     * @return The number of sent changes.
+     */
+    private int pushAll(long resetSequence) throws IOException {
+        int pushed = 0;
+        Batch batch = new Batch("all" + resetSequence, false);
+        long afterId = 0;
+        while (true) {
+            Cursor cursor = mResolver.query(PetEntry.buildPageUri(afterId, READ_LIMIT), PET_PROJECTION,
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                do {
+                    afterId = cursor.getLong(0);
+                    batch.addUpsert(afterId, readPet(cursor));
+                    if (batch.size() >= mMaxBatchBytes) {
+                        pushed += flush(batch);
+                    }
+                } while (cursor.moveToNext());
+            } finally {
+                cursor.close();
+            }
+        }
+        pushed += flush(batch);
+        // Only now all changes up to the reset have been pushed.
+        mPreferences.edit().putLong(KEY_PUSHED_THROUGH, resetSequence).commit();
+        return pushed;
+    }
+
+    /**
+     * Send the batch if it has changes and remember its progress.
+     * @return The number of sent changes.
+     */
+    private int flush(Batch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int count = batch.count;
+        if (count > 0) {
+            mClient.post(PATH_PUSH, mClientId + "/" + batch.name + "/" + batch.first + "-" + batch.last, batch.finish());
+        }
+        if (batch.sequenced) {
+            mPreferences.edit().putLong(KEY_PUSHED_THROUGH, batch.last).commit();
+        }
+        batch.reset();
+        return count;
+    }
+
+    /**
+     * Read the current rows of the pets with inserts and updates among the given changes.
+     * @return The rows by pet ID, without the pets which have been deleted.
+     */
+    private Map<Long, ContentValues> readPets(List<long[]> entries, List<String> ops) {
+        StringBuilder selection = new StringBuilder(PetEntry._ID + " IN (");
+        List<String> selectionArgs = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (!PetContract.OP_DELETE.equals(ops.get(i))) {
+                selection.append(selectionArgs.isEmpty() ? "?" : ",?");
+                selectionArgs.add(String.valueOf(entries.get(i)[1]));
+            }
+        }
+        Map<Long, ContentValues> pets = new HashMap<>();
+        if (selectionArgs.isEmpty()) {
+            return pets;
+        }
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, PET_PROJECTION, selection.append(")").toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null);
+        try {
+            while (cursor.moveToNext()) {
+                pets.put(cursor.getLong(0), readPet(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /** Read a row of {@link #PET_PROJECTION}. */
+    private static ContentValues readPet(Cursor cursor) {
+        ContentValues pet = new ContentValues();
+        pet.put(PetEntry._ID, cursor.getLong(0));
+        pet.put(PetEntry.COLUMN_REMOTE_ID, cursor.getString(1));
+        pet.put(PetEntry.COLUMN_PET_NAME, cursor.getString(2));
+        pet.put(PetEntry.COLUMN_PET_BREED, cursor.getString(3));
+        pet.put(PetEntry.COLUMN_PET_GENDER, cursor.getInt(4));
+        pet.put(PetEntry.COLUMN_PET_WEIGHT, cursor.getInt(5));
+        return pet;
+    }
+
+    /**
+     * JSON body of a push, written through gzip as changes are added.
+     */
+    private final class Batch {
+        /** Part of the idempotency key for the kind of batch. */
+        final String name;
+        /** True if the batch is keyed by sequence numbers, which are then pushed, false for pet IDs. */
+        final boolean sequenced;
+        /** First and last sequence number, or pet ID, of the changes in the batch. */
+        long first = -1;
+        long last = -1;
+        /** Number of sent changes, without the skipped ones. */
+        int count;
+
+        private ByteArrayOutputStream mBytes;
+        private CountingOutputStream mCounting;
+        private JsonWriter mWriter;
+
+        Batch(String name, boolean sequenced) {
+            this.name = name;
+            this.sequenced = sequenced;
+        }
+
+        boolean isEmpty() {
+            return first < 0;
+        }
+
+        /** Return the size of the batch before compression. */
+        int size() throws IOException {
+            if (mWriter == null) {
+                return 0;
+            }
+            mWriter.flush();
+            return (int) mCounting.count;
+        }
+
+        void addUpsert(long key, ContentValues pet) throws IOException {
+            if (pet == null) {
+                skip(key);
+                return;
+            }
+            JsonWriter writer = begin(key);
+            writer.beginObject();
+            writer.name(FIELD_OP).value(OP_UPSERT);
+            writer.name(FIELD_LOCAL_ID).value(pet.getAsLong(PetEntry._ID));
+            writer.name(FIELD_REMOTE_ID).value(pet.getAsString(PetEntry.COLUMN_REMOTE_ID));
+            writer.name(PetEntry.COLUMN_PET_NAME).value(pet.getAsString(PetEntry.COLUMN_PET_NAME));
+            writer.name(PetEntry.COLUMN_PET_BREED).value(pet.getAsString(PetEntry.COLUMN_PET_BREED));
+            writer.name(PetEntry.COLUMN_PET_GENDER).value(pet.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+            writer.name(PetEntry.COLUMN_PET_WEIGHT).value(pet.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+            writer.endObject();
+        }
+
+        void addDelete(long key, long petId, String remoteId) throws IOException {
+            JsonWriter writer = begin(key);
+            writer.beginObject();
+            writer.name(FIELD_OP).value(OP_DELETE);
+            writer.name(FIELD_LOCAL_ID).value(petId);
+            writer.name(FIELD_REMOTE_ID).value(remoteId);
+            writer.endObject();
+        }
+
+        /** Count a change which is not sent, so the progress moves past it. */
+        void skip(long key) {
+            if (first < 0) {
+                first = key;
+            }
+            last = key;
+        }
+
+        private JsonWriter begin(long key) throws IOException {
+            skip(key);
+            count++;
+            if (mWriter == null) {
+                mBytes = new ByteArrayOutputStream(mMaxBatchBytes / 4);
+                mCounting = new CountingOutputStream(new GZIPOutputStream(mBytes));
+                mWriter = new JsonWriter(new OutputStreamWriter(mCounting, "UTF-8"));
+                mWriter.beginObject();
+                mWriter.name(FIELD_CLIENT).value(mClientId);
+                mWriter.name(FIELD_CHANGES).beginArray();
+            }
+            return mWriter;
+        }
+
+        /** Return the compressed body. */
+        byte[] finish() throws IOException {
+            mWriter.endArray();
+            mWriter.endObject();
+            mWriter.close();
+            return mBytes.toByteArray();
+        }
+
+        void reset() {
+            first = -1;
+            last = -1;
+            count = 0;
+            mBytes = null;
+            mCounting = null;
+            mWriter = null;
+        }
+    }
+
+    /**
+     * Counts the bytes written before compression.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Pull and apply the remote changes after the last pull cursor.
+     * @return The number of applied changes.
+     */
+    private int pull() throws IOException {
+        String cursor = mPreferences.getString(KEY_PULL_CURSOR, "");
+        int pulled = 0;
+        while (true) {
+            byte[] body = mClient.get(PATH_CHANGES + "?" + PARAM_SINCE + "=" + Uri.encode(cursor) + "&" +
+                    PARAM_CLIENT + "=" + Uri.encode(mClientId) + "&" + PARAM_LIMIT + "=" + mPullLimit);
+            List<ContentValues> changes = new ArrayList<>();
+            boolean more = false;
+            JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"));
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (FIELD_CURSOR.equals(name)) {
+                        cursor = reader.nextString();
+                    } else if (FIELD_MORE.equals(name)) {
+                        more = reader.nextBoolean();
+                    } else if (FIELD_CHANGES.equals(name)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            changes.add(readRemoteChange(reader));
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } catch (IllegalStateException e) {
+                throw new IOException("Malformed changes from server", e);
+            } finally {
+                reader.close();
+            }
+
+            apply(changes);
+            // The page has been committed; applying it again after a crash would change nothing.
+            mPreferences.edit().putString(KEY_PULL_CURSOR, cursor).commit();
+            pulled += changes.size();
+            if (!more || changes.isEmpty()) {
+                return pulled;
+            }
+        }
+    }
+
+    /**
+     * Read a remote change into values named after the JSON fields.
+     */
+    private static ContentValues readRemoteChange(JsonReader reader) throws IOException {
+        ContentValues change = new ContentValues();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                change.putNull(name);
+            } else if (FIELD_VERSION.equals(name) || FIELD_LOCAL_ID.equals(name)) {
+                change.put(name, reader.nextLong());
+            } else if (PetEntry.COLUMN_PET_GENDER.equals(name) || PetEntry.COLUMN_PET_WEIGHT.equals(name)) {
+                change.put(name, reader.nextInt());
+            } else if (reader.peek() == JsonToken.STRING) {
+                change.put(name, reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return change;
+    }
+
+    /**
+     * Apply a page of remote changes in a single transaction of the provider. Invalid changes
+     * are skipped, so a bad pet from the server does not stop the sync.
+     */
+    private void apply(List<ContentValues> changes) throws IOException {
+        // Only the latest change of a pet counts.
+        Map<String, ContentValues> latest = new LinkedHashMap<>();
+        for (ContentValues change : changes) {
+            String remoteId = change.getAsString(FIELD_REMOTE_ID);
+            if (remoteId == null) {
+                Log.w(LOG_TAG, "Skipping remote change without an ID");
+                continue;
+            }
+            latest.put(remoteId, change);
+        }
+        Map<String, Long> localIds = findLocalIds(new ArrayList<>(latest.keySet()));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(latest.size());
+        for (Map.Entry<String, ContentValues> entry : latest.entrySet()) {
+            String remoteId = entry.getKey();
+            ContentValues change = entry.getValue();
+            Long localId = localIds.get(remoteId);
+            if (localId == null && mClientId.equals(change.getAsString(FIELD_ORIGIN))) {
+                // A pet created here which has not been received back yet.
+                localId = change.getAsLong(FIELD_LOCAL_ID);
+            }
+
+            if (OP_DELETE.equals(change.getAsString(FIELD_OP))) {
+                if (localId != null) {
+                    operations.add(ContentProviderOperation.newDelete(
+                            ContentUris.withAppendedId(PetEntry.CONTENT_URI, localId)).build());
+                }
+                continue;
+            }
+            ContentValues values = toPetValues(remoteId, change);
+            if (values == null) {
+                Log.w(LOG_TAG, "Skipping invalid remote pet " + remoteId);
+                continue;
+            }
+            // Updates of deleted pets change nothing, so a local delete wins.
+            operations.add((localId == null
+                    ? ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                    : ContentProviderOperation.newUpdate(ContentUris.withAppendedId(PetEntry.CONTENT_URI, localId)))
+                    .withValues(values).build());
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException e) {
+            throw new IOException("Failed to apply remote changes", e);
+        } catch (OperationApplicationException e) {
+            throw new IOException("Failed to apply remote changes", e);
+        }
+    }
+
+    /**
+     * Return the values of a remote pet for the provider, or null if they are invalid.
+     */
+    private static ContentValues toPetValues(String remoteId, ContentValues change) {
+        String name = change.getAsString(PetEntry.COLUMN_PET_NAME);
+        Integer gender = change.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        Integer weight = change.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        Long version = change.getAsLong(FIELD_VERSION);
+        if (name == null || gender == null || !PetEntry.isValidGender(gender) || (weight != null && weight < 0)
+                || version == null) {
+            return null;
+        }
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, change.getAsString(PetEntry.COLUMN_PET_BREED));
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight == null ? 0 : weight);
+        values.put(PetEntry.COLUMN_REMOTE_ID, remoteId);
+        values.put(PetEntry.COLUMN_REMOTE_VERSION, version);
+        return values;
+    }
+
+    /**
+     * Return the local IDs of the pets with the given remote IDs which have been received before.
+     */
+    private Map<String, Long> findLocalIds(List<String> remoteIds) {
+        Map<String, Long> localIds = new HashMap<>();
+        for (int start = 0; start < remoteIds.size(); start += READ_LIMIT) {
+            List<String> chunk = remoteIds.subList(start, Math.min(start + READ_LIMIT, remoteIds.size()));
+            StringBuilder selection = new StringBuilder(PetEntry.COLUMN_REMOTE_ID + " IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            Cursor cursor = mResolver.query(PetEntry.CONTENT_URI,
+                    new String[] { PetEntry._ID, PetEntry.COLUMN_REMOTE_ID }, selection.append(")").toString(),
+                    chunk.toArray(new String[chunk.size()]), null);
+            try {
+                while (cursor.moveToNext()) {
+                    localIds.put(cursor.getString(1), cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return localIds;
+    }
+}
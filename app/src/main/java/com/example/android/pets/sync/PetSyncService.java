@@ -0,0 +1,48 @@
+package com.example.android.pets.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.R;
+
+import java.io.IOException;
+
+/**
+ * Syncs the pets with the server configured in {@code R.string.sync_server_url} in the
+ * background. Requests are handled one after the other, so syncs never overlap.
+ */
+public class PetSyncService extends IntentService {
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSyncService.class.getSimpleName();
+
+    public PetSyncService() {
+        super(LOG_TAG);
+    }
+
+    /** Return true if a sync server has been configured. */
+    public static boolean isEnabled(Context context) {
+        return !TextUtils.isEmpty(context.getString(R.string.sync_server_url));
+    }
+
+    /** Start a sync in the background. */
+    public static void start(Context context) {
+        context.startService(new Intent(context, PetSyncService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (!isEnabled(this)) {
+            return;
+        }
+        PetSyncEngine engine = new PetSyncEngine(this, new PetSyncClient(getString(R.string.sync_server_url)));
+        try {
+            Log.i(LOG_TAG, "Synced: " + engine.sync());
+        } catch (IOException e) {
+            // The progress has been kept, the next sync continues from there.
+            Log.w(LOG_TAG, "Sync failed", e);
+        }
+    }
+}
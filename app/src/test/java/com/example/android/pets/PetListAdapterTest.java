@@ -0,0 +1,85 @@
+package com.example.android.pets;
+
+import android.widget.FrameLayout;
+
+import com.example.android.pets.benchmark.LatencyRecorder;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that binding a catalog row allocates nothing beyond what the views themselves
+ * allocate for the new texts and placeholder.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetListAdapterTest {
+    /** Number of rows in the list. */
+    private static final int ROWS = 100;
+    /** Number of measured binds. */
+    private static final int OPS = 10000;
+    private static final int WARMUP_OPS = 2000;
+    /** Largest number of bytes a bind may allocate on top of the views. */
+    private static final long MAX_BYTES_PER_BIND = 64;
+
+    private final List<PetListItem> mItems = new ArrayList<>();
+    private PetListAdapter mAdapter;
+    private PetListAdapter.ViewHolder mHolder;
+
+    @Before
+    public void setUp() {
+        for (int row = 0; row < ROWS; row++) {
+            // Every other pet has no breed, so the unknown breed label is bound as well.
+            mItems.add(new PetListItem(row + 1, "Pet " + row, row % 2 == 0 ? "Breed " + row : "", null));
+        }
+        mAdapter = new PetListAdapter(RuntimeEnvironment.application, new PetListAdapter.OnPetClickListener() {
+            @Override
+            public void onPetClick(long id) {
+            }
+        });
+        mAdapter.submitList(mItems);
+        mHolder = mAdapter.onCreateViewHolder(new FrameLayout(RuntimeEnvironment.application), 0);
+    }
+
+    @Test
+    public void bindAllocatesNothingBeyondViews() {
+        LatencyRecorder views = new LatencyRecorder("bind_views_only", ROWS, OPS);
+        LatencyRecorder binds = new LatencyRecorder("bind_view", ROWS, OPS);
+        String unknownBreed = RuntimeEnvironment.application.getString(R.string.unknown_breed);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            int position = (i + WARMUP_OPS) % ROWS;
+            PetListItem item = mItems.get(position);
+            String breed = item.breed.isEmpty() ? unknownBreed : item.breed;
+
+            // The same view updates as the bind, without the adapter.
+            views.start();
+            mHolder.nameTextView.setText(item.name);
+            mHolder.summaryTextView.setText(breed);
+            mHolder.photoImageView.setImageDrawable(null);
+            if (i >= 0) {
+                views.stop();
+            }
+
+            binds.start();
+            mAdapter.onBindViewHolder(mHolder, position);
+            if (i >= 0) {
+                binds.stop();
+            }
+        }
+        // Allocations cannot be counted on every JVM.
+        Assume.assumeTrue(views.bytesPerOp() > 0 || binds.bytesPerOp() > 0);
+
+        long overhead = binds.bytesPerOp() - views.bytesPerOp();
+        assertTrue("Bind allocates " + overhead + " bytes on top of the views", overhead <= MAX_BYTES_PER_BIND);
+    }
+}
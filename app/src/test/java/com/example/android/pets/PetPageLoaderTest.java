@@ -0,0 +1,114 @@
+package com.example.android.pets;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Loader;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetProviderTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that the catalog loader refreshes a single changed pet by fetching only that pet,
+ * without querying the loaded pages again.
+ */
+public class PetPageLoaderTest extends PetProviderTestCase {
+    /** Number of pets in the database. */
+    private static final int PETS = 500;
+    private static final int PAGE_SIZE = 50;
+    /** Number of loaded pages, fewer than there are, so some pets are not loaded. */
+    private static final int LOADED_PAGES = 3;
+
+    private PetPageLoader mLoader;
+    private List<PetListItem> mItems;
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+        // Notify every write right away, so each change is refreshed on its own.
+        mProvider.getChangeNotifier().setWindowMillis(0);
+
+        mLoader = new PetPageLoader(RuntimeEnvironment.application, PAGE_SIZE);
+        mLoader.registerListener(0, new Loader.OnLoadCompleteListener<List<PetListItem>>() {
+            @Override
+            public void onLoadComplete(Loader<List<PetListItem>> loader, List<PetListItem> items) {
+                mItems = items;
+            }
+        });
+        mLoader.startLoading();
+        runPendingTasks();
+        for (int page = 1; page < LOADED_PAGES; page++) {
+            mLoader.loadNextPage();
+            runPendingTasks();
+        }
+        assertEquals(LOADED_PAGES * PAGE_SIZE, mItems.size());
+        mProvider.getMetrics().reset();
+    }
+
+    @After
+    public void tearDown() {
+        if (mLoader != null) {
+            mLoader.reset();
+        }
+    }
+
+    @Test
+    public void updateOfLoadedPetQueriesOnlyThatPet() {
+        int position = PAGE_SIZE + 7;
+        long id = mItems.get(position).id;
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Edited");
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), values, null, null));
+        runPendingTasks();
+
+        assertEquals(LOADED_PAGES * PAGE_SIZE, mItems.size());
+        assertEquals(id, mItems.get(position).id);
+        assertEquals("Edited", mItems.get(position).name);
+        Bundle metrics = mProvider.getMetrics().snapshot();
+        // A single fetch of the edited pet, and no page of the list.
+        assertNull(metrics.getBundle("query/pets"));
+        assertEquals(1, metrics.getBundle("query/pet_id").getLong("count"));
+        assertEquals(1, metrics.getBundle("query/pet_id").getLong("rows"));
+    }
+
+    @Test
+    public void deleteOfLoadedPetQueriesNothing() {
+        int position = 3;
+        long id = mItems.get(position).id;
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null));
+        runPendingTasks();
+
+        assertEquals(LOADED_PAGES * PAGE_SIZE - 1, mItems.size());
+        assertNotEquals(id, mItems.get(position).id);
+        Bundle metrics = mProvider.getMetrics().snapshot();
+        assertNull(metrics.getBundle("query/pets"));
+        assertNull(metrics.getBundle("query/pet_id"));
+    }
+
+    @Test
+    public void updateOfPetAfterLoadedPagesQueriesNothing() {
+        long lastLoadedId = mItems.get(mItems.size() - 1).id;
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Edited");
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, lastLoadedId + 10),
+                values, null, null));
+        runPendingTasks();
+
+        // The page which loads the pet will fetch its new name.
+        assertEquals(LOADED_PAGES * PAGE_SIZE, mItems.size());
+        Bundle metrics = mProvider.getMetrics().snapshot();
+        assertNull(metrics.getBundle("query/pets"));
+        assertNull(metrics.getBundle("query/pet_id"));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic pets. The same seed and row number always produce the same pet,
+ * so results can be compared between commits.
+ */
+public final class BenchmarkDataset {
+    private static final String[] NAMES = {
+            "Tommy", "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy",
+            "Milo", "Molly", "Rocky", "Sadie", "Buddy", "Maggie", "Bear", "Chloe"
+    };
+
+    private static final String[] BREEDS = {
+            "Pitbull", "Labrador", "Beagle", "Poodle", "Boxer", "Tabby", "Siamese",
+            "Persian", "Bulldog", "Dachshund", "Husky", "Maine Coon", "", null
+    };
+
+    private final long mSeed;
+
+    public BenchmarkDataset(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Return the values of the pet with the given row number.
+     */
+    public ContentValues pet(long row) {
+        Random random = new Random(mSeed * 31 + row);
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, NAMES[random.nextInt(NAMES.length)] + " " + row);
+        values.put(PetEntry.COLUMN_PET_BREED, BREEDS[random.nextInt(BREEDS.length)]);
+        values.put(PetEntry.COLUMN_PET_GENDER, random.nextInt(3));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(80));
+        return values;
+    }
+
+    /**
+     * Return the values of the given range of pets.
+     */
+    public ContentValues[] pets(long firstRow, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = pet(firstRow + i);
+        }
+        return values;
+    }
+}
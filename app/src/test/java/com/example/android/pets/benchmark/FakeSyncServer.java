@@ -0,0 +1,353 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.sync.PetSyncClient;
+import com.example.android.pets.sync.PetSyncEngine;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the sync server, implementing the protocol of {@link PetSyncEngine}
+ * on the HTTP server of the JDK. Failures can be injected: requests which are rejected with
+ * 503 before they are applied, and responses which are lost after the push has been applied,
+ * so the client has to retry with the same idempotency key.
+ */
+class FakeSyncServer {
+    /** State of a pet on the server. */
+    private static final class Pet {
+        String remoteId;
+        String origin;
+        long localId;
+        String name;
+        String breed;
+        int gender;
+        int weight;
+        boolean deleted;
+        long version;
+        /** Client of the last change, which does not receive it back. */
+        String changedBy;
+    }
+
+    private final HttpServer mServer;
+
+    /** Guarded by this. */
+    private final Map<String, Pet> mPets = new HashMap<>();
+    private final Map<String, String> mRemoteIdsByOrigin = new HashMap<>();
+    /** Latest change of every pet by version, which is also the pull cursor. */
+    private final TreeMap<Long, Pet> mChanges = new TreeMap<>();
+    private final Map<String, byte[]> mResponses = new HashMap<>();
+    private long mLastVersion;
+    private long mRequests;
+    private long mAppliedPushes;
+    private long mDuplicatePushes;
+    private long mUncompressedBytes;
+    private int mRejectEvery;
+    private int mLoseResponseEvery;
+
+    FakeSyncServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext(PetSyncEngine.PATH_PUSH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handlePush(exchange);
+            }
+        });
+        mServer.createContext(PetSyncEngine.PATH_CHANGES, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleChanges(exchange);
+            }
+        });
+        mServer.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    void shutdown() {
+        mServer.stop(0);
+    }
+
+    /**
+     * Reject every nth request with 503 before applying it, and lose the response of every
+     * mth applied push. Zero turns the failure off.
+     */
+    synchronized void injectFailures(int rejectEvery, int loseResponseEvery) {
+        mRejectEvery = rejectEvery;
+        mLoseResponseEvery = loseResponseEvery;
+    }
+
+    /** Add pets created by another client, as if it had pushed them. */
+    synchronized void seed(String client, int count) {
+        BenchmarkDataset dataset = new BenchmarkDataset(7);
+        for (ContentValues values : dataset.pets(0, count)) {
+            Pet pet = new Pet();
+            pet.localId = mLastVersion + 1;
+            pet.origin = client;
+            pet.remoteId = "r" + (mPets.size() + 1);
+            pet.name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+            pet.breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+            pet.gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            pet.weight = weight == null ? 0 : weight;
+            mPets.put(pet.remoteId, pet);
+            mRemoteIdsByOrigin.put(client + "/" + pet.localId, pet.remoteId);
+            changed(pet, client);
+        }
+    }
+
+    /** Return the number of pets which have not been deleted. */
+    synchronized int getPetCount() {
+        int count = 0;
+        for (Pet pet : mPets.values()) {
+            if (!pet.deleted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    synchronized long getDuplicatePushes() {
+        return mDuplicatePushes;
+    }
+
+    synchronized long getAppliedPushes() {
+        return mAppliedPushes;
+    }
+
+    /** Return the size of the applied pushes before compression. */
+    synchronized long getUncompressedBytes() {
+        return mUncompressedBytes;
+    }
+
+    private synchronized boolean reject() {
+        mRequests++;
+        return mRejectEvery > 0 && mRequests % mRejectEvery == 0;
+    }
+
+    private void handlePush(HttpExchange exchange) throws IOException {
+        if (reject()) {
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            send(exchange, 503, new byte[0]);
+            return;
+        }
+        String key = exchange.getRequestHeaders().getFirst(PetSyncClient.HEADER_IDEMPOTENCY_KEY);
+        byte[] body = readFully(exchange.getRequestBody());
+        boolean lose;
+        byte[] response;
+        synchronized (this) {
+            response = mResponses.get(key);
+            if (response != null) {
+                mDuplicatePushes++;
+                lose = false;
+            } else {
+                mUncompressedBytes += body.length;
+                response = applyPush(body);
+                mResponses.put(key, response);
+                mAppliedPushes++;
+                lose = mLoseResponseEvery > 0 && mAppliedPushes % mLoseResponseEvery == 0;
+            }
+        }
+        send(exchange, lose ? 500 : 200, response);
+    }
+
+    /** Apply the changes of a push. Has to hold the lock of this. */
+    private byte[] applyPush(byte[] body) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"));
+        String client = null;
+        int applied = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (PetSyncEngine.FIELD_CLIENT.equals(name)) {
+                client = reader.nextString();
+            } else if (PetSyncEngine.FIELD_CHANGES.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, String> change = readObject(reader);
+                    applyChange(client, change);
+                    applied++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return ("{\"applied\":" + applied + "}").getBytes("UTF-8");
+    }
+
+    private void applyChange(String client, Map<String, String> change) {
+        String origin = client + "/" + change.get(PetSyncEngine.FIELD_LOCAL_ID);
+        String remoteId = change.get(PetSyncEngine.FIELD_REMOTE_ID);
+        if (remoteId == null) {
+            remoteId = mRemoteIdsByOrigin.get(origin);
+        }
+        Pet pet = remoteId == null ? null : mPets.get(remoteId);
+        if (PetSyncEngine.OP_DELETE.equals(change.get(PetSyncEngine.FIELD_OP))) {
+            if (pet != null && !pet.deleted) {
+                pet.deleted = true;
+                changed(pet, client);
+            }
+            return;
+        }
+        if (pet == null) {
+            pet = new Pet();
+            pet.remoteId = "r" + (mPets.size() + 1);
+            pet.origin = client;
+            pet.localId = Long.parseLong(change.get(PetSyncEngine.FIELD_LOCAL_ID));
+            mPets.put(pet.remoteId, pet);
+            mRemoteIdsByOrigin.put(origin, pet.remoteId);
+        }
+        pet.name = change.get(PetEntry.COLUMN_PET_NAME);
+        pet.breed = change.get(PetEntry.COLUMN_PET_BREED);
+        pet.gender = Integer.parseInt(change.get(PetEntry.COLUMN_PET_GENDER));
+        pet.weight = Integer.parseInt(change.get(PetEntry.COLUMN_PET_WEIGHT));
+        pet.deleted = false;
+        changed(pet, client);
+    }
+
+    /** Give the pet a new version, so it is pulled again. Has to hold the lock of this. */
+    private void changed(Pet pet, String client) {
+        if (pet.version > 0) {
+            mChanges.remove(pet.version);
+        }
+        pet.version = ++mLastVersion;
+        pet.changedBy = client;
+        mChanges.put(pet.version, pet);
+    }
+
+    private void handleChanges(HttpExchange exchange) throws IOException {
+        if (reject()) {
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            send(exchange, 503, new byte[0]);
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String since = query.get(PetSyncEngine.PARAM_SINCE);
+        String client = query.get(PetSyncEngine.PARAM_CLIENT);
+        int limit = Integer.parseInt(query.get(PetSyncEngine.PARAM_LIMIT));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, "UTF-8"));
+        synchronized (this) {
+            long cursor = since == null || since.isEmpty() ? 0 : Long.parseLong(since);
+            Iterator<Pet> pets = mChanges.tailMap(cursor, false).values().iterator();
+            writer.beginObject();
+            writer.name(PetSyncEngine.FIELD_CHANGES).beginArray();
+            int count = 0;
+            while (count < limit && pets.hasNext()) {
+                Pet pet = pets.next();
+                cursor = pet.version;
+                if (pet.changedBy.equals(client)) {
+                    continue;
+                }
+                writer.beginObject();
+                writer.name(PetSyncEngine.FIELD_OP).value(pet.deleted ? PetSyncEngine.OP_DELETE : PetSyncEngine.OP_UPSERT);
+                writer.name(PetSyncEngine.FIELD_REMOTE_ID).value(pet.remoteId);
+                writer.name(PetSyncEngine.FIELD_VERSION).value(pet.version);
+                writer.name(PetSyncEngine.FIELD_ORIGIN).value(pet.origin);
+                writer.name(PetSyncEngine.FIELD_LOCAL_ID).value(pet.localId);
+                writer.name(PetEntry.COLUMN_PET_NAME).value(pet.name);
+                writer.name(PetEntry.COLUMN_PET_BREED).value(pet.breed);
+                writer.name(PetEntry.COLUMN_PET_GENDER).value(pet.gender);
+                writer.name(PetEntry.COLUMN_PET_WEIGHT).value(pet.weight);
+                writer.endObject();
+                count++;
+            }
+            writer.endArray();
+            writer.name(PetSyncEngine.FIELD_CURSOR).value(String.valueOf(cursor));
+            writer.name(PetSyncEngine.FIELD_MORE).value(pets.hasNext());
+            writer.endObject();
+        }
+        writer.close();
+        send(exchange, 200, bytes.toByteArray());
+    }
+
+    /** Read a flat JSON object, with all values as strings. */
+    private static Map<String, String> readObject(JsonReader reader) throws IOException {
+        Map<String, String> object = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                object.put(name, null);
+            } else {
+                object.put(name, reader.nextString());
+            }
+        }
+        reader.endObject();
+        return object;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /** Read a request body, decompressing it as the client always compresses. */
+    private static byte[] readFully(InputStream in) throws IOException {
+        InputStream body = new GZIPInputStream(in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            body.close();
+        }
+    }
+
+    /** Send a response, compressed as the client always accepts gzip. */
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(body);
+        gzip.close();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(status, compressed.size());
+        OutputStream out = exchange.getResponseBody();
+        try {
+            compressed.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records the latency of single operations and writes throughput, latency percentiles and
+ * the bytes allocated per operation as one JSON object per line, so results can be compared
+ * between commits.
+ */
+public final class LatencyRecorder {
+    /** System property with the directory of the result files. */
+    public static final String PROPERTY_OUTPUT_DIR = "pets.benchmark.outputDir";
+    /** System property with a label of the measured revision, e.g. the commit hash. */
+    public static final String PROPERTY_REVISION = "pets.benchmark.revision";
+
+    private final String mBenchmark;
+    private final long mRows;
+    private long[] mLatencies;
+    private int mCount;
+    private long mStartNanos;
+    private long mTotalNanos;
+    private long mStartAllocatedBytes;
+    private long mAllocatedBytes;
+
+    public LatencyRecorder(String benchmark, long rows, int expectedOps) {
+        mBenchmark = benchmark;
+        mRows = rows;
+        mLatencies = new long[Math.max(1, expectedOps)];
+    }
+
+    /** Mark the start of a single operation. */
+    public void start() {
+        mStartAllocatedBytes = allocatedBytes();
+        mStartNanos = System.nanoTime();
+    }
+
+    /** Mark the end of the operation started last. */
+    public void stop() {
+        long nanos = System.nanoTime() - mStartNanos;
+        long allocated = allocatedBytes();
+        if (mStartAllocatedBytes >= 0 && allocated >= 0) {
+            mAllocatedBytes += allocated - mStartAllocatedBytes;
+        }
+        record(nanos);
+    }
+
+    /** Record the latency of a single operation. */
+    public void record(long nanos) {
+        if (mCount == mLatencies.length) {
+            mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+        }
+        mLatencies[mCount++] = nanos;
+        mTotalNanos += nanos;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /** Return the latency in nanoseconds below which the given fraction of operations finished. */
+    public long percentile(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mLatencies, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * mCount) - 1;
+        return sorted[Math.max(0, Math.min(mCount - 1, index))];
+    }
+
+    /** Return the average number of bytes allocated by an operation measured with {@link #start()}. */
+    public long bytesPerOp() {
+        return mCount == 0 ? 0 : mAllocatedBytes / mCount;
+    }
+
+    /** Return the number of operations per second. */
+    public double throughput() {
+        return mTotalNanos == 0 ? 0 : mCount * 1e9 / mTotalNanos;
+    }
+
+    /**
+     * Return the result as a single line of JSON.
+     */
+    public String toJson(String extraJsonFields) {
+        return String.format(Locale.ROOT,
+                "{\"benchmark\":\"%s\",\"revision\":\"%s\",\"rows\":%d,\"ops\":%d,\"ops_per_sec\":%.1f," +
+                "\"p50_us\":%.2f,\"p90_us\":%.2f,\"p99_us\":%.2f,\"max_us\":%.2f,\"bytes_per_op\":%d%s}",
+                mBenchmark, System.getProperty(PROPERTY_REVISION, ""), mRows, mCount, throughput(),
+                percentile(0.5) / 1e3, percentile(0.9) / 1e3, percentile(0.99) / 1e3, percentile(1) / 1e3, bytesPerOp(),
+                extraJsonFields == null || extraJsonFields.isEmpty() ? "" : "," + extraJsonFields);
+    }
+
+    /**
+     * Append the result to the result file of the benchmark and print it.
+     */
+    public void report() throws IOException {
+        report(null);
+    }
+
+    /**
+     * Append the result, with additional JSON fields, to the result file and print it.
+     * @param extraJsonFields   Comma separated JSON fields, e.g. {@code "\"bytes\":12"}.
+     */
+    public void report(String extraJsonFields) throws IOException {
+        String json = toJson(extraJsonFields);
+        System.out.println(json);
+
+        File dir = new File(System.getProperty(PROPERTY_OUTPUT_DIR, "build/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer writer = new FileWriter(new File(dir, "results.jsonl"), true);
+        try {
+            writer.write(json);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Return the number of bytes allocated by the current thread so far, or -1 if the JVM
+     * cannot tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
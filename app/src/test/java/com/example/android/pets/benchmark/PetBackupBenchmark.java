@@ -0,0 +1,113 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures backing up a large database while pets are inserted, how long the inserts stall
+ * compared to inserts without a backup, a following incremental backup, and a verified restore.
+ */
+public class PetBackupBenchmark extends PetBenchmark {
+    /** System property with the number of pets in the backed up database. */
+    public static final String PROPERTY_BACKUP_ROWS = "pets.benchmark.backupRows";
+
+    /** Number of inserts measured without a backup. */
+    private static final int BASELINE_INSERTS = 5000;
+    /** Number of pets changed before the incremental backup. */
+    private static final int CHANGED_PETS = 1000;
+
+    public PetBackupBenchmark() {
+        super(PROPERTY_BACKUP_ROWS, 5000000);
+    }
+
+    @Test
+    public void backupDuringInserts() throws Exception {
+        long databaseBytes = new File(mProvider.mDbHelper.getReadableDatabase().getPath()).length();
+        int nextRow = mRows;
+
+        LatencyRecorder baselineRecorder = new LatencyRecorder("insert_without_backup", mRows, BASELINE_INSERTS);
+        for (int i = 0; i < BASELINE_INSERTS; i++) {
+            ContentValues pet = mDataset.pets(nextRow++, 1)[0];
+            baselineRecorder.start();
+            mProvider.insert(PetEntry.CONTENT_URI, pet);
+            baselineRecorder.stop();
+        }
+        baselineRecorder.report(String.format(Locale.ROOT, "\"worst_stall_ms\":%.2f", baselineRecorder.percentile(1) / 1e6));
+
+        // Take a full backup in the background while pets are inserted one by one.
+        final AtomicBoolean backingUp = new AtomicBoolean(true);
+        final AtomicLong backupNanos = new AtomicLong();
+        final AtomicReference<Bundle> backupResult = new AtomicReference<>();
+        Thread backupThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    backupResult.set(mProvider.call(PetContract.METHOD_BACKUP, null, null));
+                } finally {
+                    backupNanos.set(System.nanoTime() - start);
+                    backingUp.set(false);
+                }
+            }
+        });
+        LatencyRecorder recorder = new LatencyRecorder("insert_during_backup", mRows, 100000);
+        backupThread.start();
+        while (backingUp.get()) {
+            ContentValues pet = mDataset.pets(nextRow++, 1)[0];
+            recorder.start();
+            mProvider.insert(PetEntry.CONTENT_URI, pet);
+            recorder.stop();
+        }
+        backupThread.join();
+        Bundle full = backupResult.get();
+        assertTrue(full != null);
+        recorder.report(String.format(Locale.ROOT,
+                "\"backup_ms\":%.1f,\"database_bytes\":%d,\"copied_bytes\":%d,\"stored_bytes\":%d,\"blocks\":%d," +
+                        "\"worst_stall_ms\":%.2f,\"baseline_worst_stall_ms\":%.2f",
+                backupNanos.get() / 1e6, databaseBytes, full.getLong("database_bytes"), full.getLong("stored_bytes"),
+                full.getInt("blocks"), recorder.percentile(1) / 1e6, baselineRecorder.percentile(1) / 1e6));
+
+        // Change a few pets spread over the table, then back up only the changed blocks.
+        Random random = new Random(42);
+        for (int i = 0; i < CHANGED_PETS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, random.nextInt(100));
+            mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1 + random.nextInt(mRows)),
+                    values, null, null);
+        }
+        LatencyRecorder incrementalRecorder = new LatencyRecorder("incremental_backup", mRows, 1);
+        incrementalRecorder.start();
+        Bundle incremental = mProvider.call(PetContract.METHOD_BACKUP, null, null);
+        incrementalRecorder.stop();
+        incrementalRecorder.report(String.format(Locale.ROOT, "\"changed_pets\":%d,\"new_blocks\":%d,\"blocks\":%d,\"stored_bytes\":%d",
+                CHANGED_PETS, incremental.getInt("new_blocks"), incremental.getInt("blocks"),
+                incremental.getLong("stored_bytes")));
+
+        // Restoring the last snapshot brings back the pets deleted after it.
+        long petCount = countPets();
+        mProvider.delete(PetEntry.CONTENT_URI, PetEntry._ID + "<=?", new String[] { String.valueOf(CHANGED_PETS) });
+        LatencyRecorder restoreRecorder = new LatencyRecorder("verified_restore", mRows, 1);
+        restoreRecorder.start();
+        mProvider.call(PetContract.METHOD_RESTORE, incremental.getString(PetContract.KEY_SNAPSHOT_ID), null);
+        restoreRecorder.stop();
+        assertEquals(petCount, countPets());
+        restoreRecorder.report("\"database_bytes\":" + incremental.getLong("database_bytes"));
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetProviderTestCase;
+
+import org.junit.Assume;
+import org.junit.Before;
+
+/**
+ * Base of the benchmarks, which fills the provider with the number of pets given by a system
+ * property of the benchmark.
+ *
+ * Benchmarks only run when the {@code pets.benchmark.enabled} system property is true, e.g.
+ * {@code ./gradlew testDebugUnitTest -PpetsBenchmark -Ppets.benchmark.syncRows=1000000}.
+ * Every {@code pets.benchmark.*} project property is passed on as a system property.
+ * Results are appended to {@code app/build/benchmarks/results.jsonl}.
+ */
+public abstract class PetBenchmark extends PetProviderTestCase {
+    /** System property which enables the benchmarks. */
+    public static final String PROPERTY_ENABLED = "pets.benchmark.enabled";
+
+    /** Number of pets of the benchmark. */
+    protected final int mRows;
+
+    /**
+     * @param rowsProperty  The system property with the number of pets.
+     * @param defaultRows   The number of pets if the property is not set.
+     */
+    protected PetBenchmark(String rowsProperty, int defaultRows) {
+        this(Integer.getInteger(rowsProperty, defaultRows));
+    }
+
+    protected PetBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    /**
+     * Skip the benchmark unless enabled, then fill the provider.
+     */
+    @Before
+    @Override
+    public void setUpProvider() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY_ENABLED));
+        super.setUpProvider();
+        fill(0, getFillRows());
+    }
+
+    /**
+     * Return the number of pets inserted before the benchmark, all of them by default.
+     */
+    protected int getFillRows() {
+        return mRows;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+import com.example.android.pets.data.PetChangeLog;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures reading the changes since a sequence number, compared to reading all pets again,
+ * and compacting the change log in the background chunks.
+ */
+public class PetChangeLogBenchmark extends PetBenchmark {
+    /** System property with the number of pets in the database. */
+    public static final String PROPERTY_CHANGE_ROWS = "pets.benchmark.changeRows";
+
+    /** Number of updates between two measured delta queries. */
+    private static final int CHANGES = 100;
+    /** Number of measured delta queries. */
+    private static final int OPS = 200;
+    /** Number of full reads of all pets, for comparison. */
+    private static final int FULL_OPS = 5;
+    /** Number of newest changes kept by the measured compaction. */
+    private static final int KEEP_RECENT = 1000;
+
+    public PetChangeLogBenchmark() {
+        super(PROPERTY_CHANGE_ROWS, 1000000);
+    }
+
+    @Test
+    public void deltaAndCompaction() throws Exception {
+        Random random = new Random(42);
+        long since = lastSequence();
+        int weight = 0;
+
+        LatencyRecorder deltaRecorder = new LatencyRecorder("changes_delta", mRows, OPS);
+        for (int i = 0; i < OPS; i++) {
+            for (int j = 0; j < CHANGES; j++) {
+                // A new weight every time, so every update is logged.
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PET_WEIGHT, ++weight);
+                mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1 + random.nextInt(mRows)),
+                        values, null, null);
+            }
+
+            deltaRecorder.start();
+            Cursor cursor = mProvider.query(PetChangeEntry.buildChangesUri(since, 0), null, null, null, null);
+            try {
+                int sequenceColumn = cursor.getColumnIndexOrThrow(PetChangeEntry.COLUMN_SEQUENCE);
+                assertEquals(CHANGES, cursor.getCount());
+                cursor.moveToLast();
+                since = cursor.getLong(sequenceColumn);
+            } finally {
+                cursor.close();
+            }
+            deltaRecorder.stop();
+        }
+
+        LatencyRecorder fullRecorder = new LatencyRecorder("changes_full_read", mRows, FULL_OPS);
+        for (int i = 0; i < FULL_OPS; i++) {
+            fullRecorder.start();
+            Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, null, null, null, null);
+            try {
+                assertEquals(mRows, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            fullRecorder.stop();
+        }
+
+        String extra = String.format(Locale.ROOT, "\"changes_per_query\":%d,\"full_read_p50_us\":%.2f",
+                CHANGES, fullRecorder.percentile(0.5) / 1e3);
+        deltaRecorder.report(extra);
+        fullRecorder.report(extra);
+
+        // Compact everything but the newest changes, one chunk per measured transaction.
+        PetChangeLog changeLog = mProvider.getChangeLog();
+        changeLog.setKeepRecent(KEEP_RECENT);
+        long rowsBefore = logRows();
+        int chunks = (int) ((lastSequence() - KEEP_RECENT) / PetChangeLog.DEFAULT_CHUNK_SIZE) + 1;
+        LatencyRecorder compactRecorder = new LatencyRecorder("changes_compact_chunk", mRows, chunks);
+        int compacted;
+        do {
+            compactRecorder.start();
+            compacted = changeLog.compactChunk();
+            compactRecorder.stop();
+        } while (compacted > 0);
+
+        // At most one change per pet is left before the newest changes.
+        long rowsAfter = logRows();
+        assertTrue(rowsAfter <= mRows + KEEP_RECENT);
+        compactRecorder.report(String.format(Locale.ROOT, "\"log_rows_before\":%d,\"log_rows_after\":%d,\"chunk\":%d",
+                rowsBefore, rowsAfter, PetChangeLog.DEFAULT_CHUNK_SIZE));
+    }
+
+    private long lastSequence() {
+        return DatabaseUtils.longForQuery(mProvider.mDbHelper.getReadableDatabase(),
+                "SELECT IFNULL(MAX(" + PetChangeEntry.COLUMN_SEQUENCE + "), 0) FROM " + PetChangeEntry.TABLE_NAME, null);
+    }
+
+    private long logRows() {
+        return DatabaseUtils.queryNumEntries(mProvider.mDbHelper.getReadableDatabase(), PetChangeEntry.TABLE_NAME);
+    }
+}
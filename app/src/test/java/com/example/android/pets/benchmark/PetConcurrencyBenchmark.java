@@ -0,0 +1,158 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDbHelper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of catalog reads on several threads while a single large write
+ * transaction runs, with write-ahead logging and with the rollback journal, and checks that
+ * with write-ahead logging every reader keeps reading during the write.
+ */
+public class PetConcurrencyBenchmark extends PetBenchmark {
+    /** System property with the number of pets in the database before the write. */
+    public static final String PROPERTY_CONCURRENCY_ROWS = "pets.benchmark.concurrencyRows";
+
+    /** Number of reading threads. */
+    private static final int READERS = 4;
+    /** Number of pets inserted by the write transaction. */
+    private static final int WRITE_ROWS = 50000;
+    /** Number of pets in a page read by the readers. */
+    private static final int PAGE_SIZE = 100;
+
+    /** A page of the catalog, as read by the loader. */
+    private static final String SQL_PAGE = "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " +
+            PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + ">? AND " +
+            PetDbHelper.SELECTION_NOT_DELETED + " ORDER BY " + PetEntry._ID + " LIMIT " + PAGE_SIZE;
+
+    private PetDbHelper mDbHelper;
+
+    public PetConcurrencyBenchmark() {
+        super(PROPERTY_CONCURRENCY_ROWS, 100000);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void writeAheadLog() throws Exception {
+        long[] readsDuringWrite = readDuringWrite("read_during_write_wal", PetDbHelper.ConcurrencyMode.WRITE_AHEAD_LOG);
+        for (int reader = 0; reader < READERS; reader++) {
+            assertTrue("Reader " + reader + " stalled during the write", readsDuringWrite[reader] > 0);
+        }
+    }
+
+    @Test
+    public void rollbackJournal() throws Exception {
+        readDuringWrite("read_during_write_rollback", PetDbHelper.ConcurrencyMode.ROLLBACK_JOURNAL);
+    }
+
+    /**
+     * Run a write transaction of {@link #WRITE_ROWS} pets while the readers read pages, and
+     * report the latencies of the reads.
+     * @return The number of reads of each reader which finished while the write was running.
+     */
+    private long[] readDuringWrite(String benchmark, PetDbHelper.ConcurrencyMode mode)
+            throws IOException, InterruptedException {
+        // Reopen the filled database in the given mode.
+        mProvider.mDbHelper.close();
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application, mode);
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean writing = new AtomicBoolean(false);
+        final AtomicLongArray readsDuringWrite = new AtomicLongArray(READERS);
+        final CountDownLatch started = new CountDownLatch(READERS);
+        final List<List<Long>> latencies = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int reader = 0; reader < READERS; reader++) {
+            final int index = reader;
+            final List<Long> readerLatencies = new ArrayList<>();
+            latencies.add(readerLatencies);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SQLiteDatabase readable = mDbHelper.getReadableDatabase();
+                    long afterId = 0;
+                    started.countDown();
+                    while (running.get()) {
+                        boolean startedDuringWrite = writing.get();
+                        long start = System.nanoTime();
+                        Cursor cursor = readable.rawQuery(SQL_PAGE, new String[] { String.valueOf(afterId) });
+                        try {
+                            afterId = cursor.moveToLast() ? cursor.getLong(0) : 0;
+                        } finally {
+                            cursor.close();
+                        }
+                        readerLatencies.add(System.nanoTime() - start);
+                        // Only reads which started and finished while the write was running.
+                        if (startedDuringWrite && writing.get()) {
+                            readsDuringWrite.incrementAndGet(index);
+                        }
+                    }
+                }
+            }, "reader-" + reader);
+            thread.start();
+            readers.add(thread);
+        }
+        started.await();
+
+        long writeStart = System.nanoTime();
+        db.beginTransaction();
+        try {
+            writing.set(true);
+            for (int row = 0; row < WRITE_ROWS; row++) {
+                ContentValues pet = mDataset.pet(mRows + row);
+                db.insert(PetEntry.TABLE_NAME, null, pet);
+            }
+            writing.set(false);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long writeNanos = System.nanoTime() - writeStart;
+
+        running.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        LatencyRecorder recorder = new LatencyRecorder(benchmark, mRows, WRITE_ROWS);
+        for (List<Long> readerLatencies : latencies) {
+            for (long nanos : readerLatencies) {
+                recorder.record(nanos);
+            }
+        }
+        long[] result = new long[READERS];
+        long totalDuringWrite = 0;
+        for (int reader = 0; reader < READERS; reader++) {
+            result[reader] = readsDuringWrite.get(reader);
+            totalDuringWrite += result[reader];
+        }
+        recorder.report(String.format(Locale.ROOT,
+                "\"readers\":%d,\"write_rows\":%d,\"write_ms\":%.1f,\"reads_during_write\":%d",
+                READERS, WRITE_ROWS, writeNanos / 1e6, totalDuringWrite));
+        return result;
+    }
+}
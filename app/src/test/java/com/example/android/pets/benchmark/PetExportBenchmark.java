@@ -0,0 +1,87 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetExporter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the streaming export of {@link PetExporter} and checks that the heap stays bounded
+ * while all pets are written.
+ */
+public class PetExportBenchmark extends PetBenchmark {
+    /** System property with the number of exported pets. */
+    public static final String PROPERTY_EXPORT_ROWS = "pets.benchmark.exportRows";
+
+    /** Largest heap growth allowed while exporting, independent of the number of pets. */
+    private static final long MAX_HEAP_GROWTH_BYTES = 32L * 1024 * 1024;
+
+    public PetExportBenchmark() {
+        super(PROPERTY_EXPORT_ROWS, 1000000);
+    }
+
+    /**
+     * Discards the exported bytes and samples the used heap while they are written.
+     */
+    private static class HeapSamplingStream extends OutputStream {
+        /** Number of written bytes between two heap samples. */
+        private static final long SAMPLE_INTERVAL_BYTES = 4L * 1024 * 1024;
+
+        private final long mBaseline;
+        private long mNextSample = SAMPLE_INTERVAL_BYTES;
+        long bytes;
+        long maxHeapGrowth;
+
+        HeapSamplingStream(long baseline) {
+            mBaseline = baseline;
+        }
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+            if (bytes >= mNextSample) {
+                maxHeapGrowth = Math.max(maxHeapGrowth, usedHeap() - mBaseline);
+                mNextSample += SAMPLE_INTERVAL_BYTES;
+            }
+        }
+    }
+
+    @Test
+    public void exportCsv() throws IOException {
+        export("export_csv", new PetExporter.Options(PetContract.FORMAT_CSV, false));
+    }
+
+    @Test
+    public void exportJsonGzip() throws IOException {
+        export("export_json_gzip", new PetExporter.Options(PetContract.FORMAT_JSON, true));
+    }
+
+    private void export(String benchmark, PetExporter.Options options) throws IOException {
+        HeapSamplingStream out = new HeapSamplingStream(usedHeap());
+        LatencyRecorder recorder = new LatencyRecorder(benchmark, mRows, 1);
+        recorder.start();
+        new PetExporter(mProvider).export(out, options);
+        recorder.stop();
+
+        recorder.report(String.format(Locale.ROOT, "\"bytes\":%d,\"rows_per_sec\":%.1f,\"max_heap_growth_bytes\":%d",
+                out.bytes, mRows * recorder.throughput(), out.maxHeapGrowth));
+        assertTrue("Heap grew by " + out.maxHeapGrowth + " bytes", out.maxHeapGrowth < MAX_HEAP_GROWTH_BYTES);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
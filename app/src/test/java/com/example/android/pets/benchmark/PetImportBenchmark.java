@@ -0,0 +1,141 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetImporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the streaming import of {@link PetImporter} against inserting the same rows
+ * straight into SQLite with a single prepared statement.
+ */
+public class PetImportBenchmark extends PetBenchmark {
+    /** System property with the number of imported pets. */
+    public static final String PROPERTY_IMPORT_ROWS = "pets.benchmark.importRows";
+
+    private File mCsvFile;
+
+    public PetImportBenchmark() {
+        super(PROPERTY_IMPORT_ROWS, 1000000);
+    }
+
+    /**
+     * No pets, as they are all imported by the benchmark.
+     */
+    @Override
+    protected int getFillRows() {
+        return 0;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mCsvFile = File.createTempFile("pets", ".csv");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mCsvFile), "UTF-8"));
+        try {
+            writer.write("name,breed,gender,weight\n");
+            for (int row = 0; row < mRows; row++) {
+                ContentValues pet = mDataset.pet(row);
+                String breed = pet.getAsString(PetEntry.COLUMN_PET_BREED);
+                writer.write(pet.getAsString(PetEntry.COLUMN_PET_NAME));
+                writer.write(',');
+                writer.write(breed == null ? "" : breed);
+                writer.write(',');
+                writer.write(pet.getAsString(PetEntry.COLUMN_PET_GENDER));
+                writer.write(',');
+                writer.write(pet.getAsString(PetEntry.COLUMN_PET_WEIGHT));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mCsvFile != null) {
+            mCsvFile.delete();
+        }
+    }
+
+    @Test
+    public void importCsv() throws IOException {
+        PetImporter importer = new PetImporter(mProvider);
+        InputStream in = new FileInputStream(mCsvFile);
+        LatencyRecorder recorder = new LatencyRecorder("import_csv", mRows, 1);
+        PetImporter.Result result;
+        try {
+            recorder.start();
+            result = importer.importPets(in, PetContract.FORMAT_CSV, mCsvFile.getPath(), null);
+            recorder.stop();
+        } finally {
+            in.close();
+        }
+        assertEquals(mRows, result.rowsImported);
+
+        long rawNanos = insertRaw();
+        recorder.report(String.format(Locale.ROOT,
+                "\"chunk_size\":%d,\"rows_per_sec\":%.1f,\"raw_rows_per_sec\":%.1f,\"slowdown\":%.2f",
+                importer.getChunkSize(), mRows * recorder.throughput(), mRows * 1e9 / rawNanos,
+                recorder.percentile(1) / (double) rawNanos));
+    }
+
+    /**
+     * Insert the same rows with a single prepared statement in a single transaction, reading
+     * the values from the file without validation.
+     * @return The elapsed time in nanoseconds.
+     */
+    private long insertRaw() throws IOException {
+        SQLiteDatabase db = mProvider.mDbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME + " (" +
+                PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", " +
+                PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)");
+        InputStream in = new BufferedInputStream(new FileInputStream(mCsvFile), 64 * 1024);
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", -1);
+                statement.bindString(1, fields[0]);
+                if (fields[1].isEmpty()) {
+                    statement.bindNull(2);
+                } else {
+                    statement.bindString(2, fields[1]);
+                }
+                statement.bindLong(3, Long.parseLong(fields[2]));
+                statement.bindLong(4, Long.parseLong(fields[3]));
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+            in.close();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.pets.benchmark;
+
+import android.content.Loader;
+import android.database.Cursor;
+
+import com.example.android.pets.PetListItem;
+import com.example.android.pets.PetPageLoader;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time until {@link PetPageLoader} delivers the first page of the catalog, and
+ * the peak and retained heap of the load, against reading all pets into a list at once.
+ */
+public class PetPageLoaderBenchmark extends PetBenchmark {
+    /** System property with the number of pets in the database. */
+    public static final String PROPERTY_PAGE_LOADER_ROWS = "pets.benchmark.pageLoaderRows";
+
+    /** Number of pets in a page, as in the catalog. */
+    private static final int PAGE_SIZE = 100;
+    /** Number of measured loads. */
+    private static final int OPS = 50;
+    private static final int WARMUP_OPS = 5;
+    /** Largest heap retained by the first page, independent of the number of pets. */
+    private static final long MAX_RETAINED_BYTES = 4L * 1024 * 1024;
+
+    /** Columns of the catalog list. */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_PHOTO
+    };
+
+    private List<PetListItem> mItems;
+
+    public PetPageLoaderBenchmark() {
+        super(PROPERTY_PAGE_LOADER_ROWS, 100000);
+    }
+
+    @Test
+    public void firstPage() throws IOException {
+        LatencyRecorder recorder = new LatencyRecorder("page_loader_first_page", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            recorder.start();
+            PetPageLoader loader = startLoader();
+            if (i >= 0) {
+                recorder.stop();
+            }
+            loader.reset();
+        }
+        assertEquals(Math.min(mRows, PAGE_SIZE), mItems.size());
+
+        // The heap of a single launch, with the first page kept until it has been measured.
+        mItems = null;
+        long baseline = usedHeap();
+        resetPeakHeap();
+        PetPageLoader loader = startLoader();
+        long peakGrowth = peakHeap() - baseline;
+        long retained = usedHeap() - baseline;
+        assertEquals(Math.min(mRows, PAGE_SIZE), mItems.size());
+        loader.reset();
+
+        recorder.report(String.format(Locale.ROOT, "\"page_size\":%d,\"peak_heap_growth_bytes\":%d,\"retained_bytes\":%d",
+                PAGE_SIZE, peakGrowth, retained));
+        assertTrue("First page retained " + retained + " bytes", retained < MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * Read all pets into the list at once, as the catalog did before it loaded pages.
+     */
+    @Test
+    public void allRows() throws IOException {
+        LatencyRecorder recorder = new LatencyRecorder("page_loader_all_rows", mRows, 1);
+        long baseline = usedHeap();
+        resetPeakHeap();
+        recorder.start();
+        List<PetListItem> items = new ArrayList<>();
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, CATALOG_PROJECTION, null, null, PetEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                items.add(new PetListItem(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        recorder.stop();
+        long peakGrowth = peakHeap() - baseline;
+        long retained = usedHeap() - baseline;
+        assertEquals(mRows, items.size());
+
+        recorder.report(String.format(Locale.ROOT, "\"peak_heap_growth_bytes\":%d,\"retained_bytes\":%d",
+                peakGrowth, retained));
+    }
+
+    /**
+     * Start a loader of the catalog and run it until it has delivered the first page.
+     */
+    private PetPageLoader startLoader() {
+        mItems = null;
+        PetPageLoader loader = new PetPageLoader(RuntimeEnvironment.application, PAGE_SIZE);
+        loader.registerListener(0, new Loader.OnLoadCompleteListener<List<PetListItem>>() {
+            @Override
+            public void onLoadComplete(Loader<List<PetListItem>> loader, List<PetListItem> items) {
+                mItems = items;
+            }
+        });
+        loader.startLoading();
+        runPendingTasks();
+        return loader;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Return the sum of the peak usage of the heap pools since {@link #resetPeakHeap()}.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.widget.FrameLayout;
+
+import com.example.android.pets.PetListAdapter;
+import com.example.android.pets.PetListItem;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the CRUD paths of {@link PetProvider} and the binding of catalog rows on a plain JVM,
+ * for each of the dataset sizes, e.g. {@code -Ppets.benchmark.sizes=1000,100000}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class PetProviderBenchmark extends PetBenchmark {
+    /** System property with the comma separated dataset sizes. */
+    public static final String PROPERTY_SIZES = "pets.benchmark.sizes";
+
+    /** Number of measured operations per benchmark. */
+    private static final int OPS = 10000;
+    /** Number of unmeasured operations run before measuring. */
+    private static final int WARMUP_OPS = 1000;
+    /** Number of pets in a catalog page. */
+    private static final int PAGE_SIZE = 100;
+    /** Number of pets inserted by a single bulk insert. */
+    private static final int BULK_CHUNK = 500;
+
+    /** Columns of the catalog list. */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED
+    };
+
+    private final Random mRandom = new Random(SEED);
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> sizes() {
+        List<Object[]> sizes = new ArrayList<>();
+        for (String size : System.getProperty(PROPERTY_SIZES, "1000,100000,1000000").split(",")) {
+            sizes.add(new Object[] { Integer.parseInt(size.trim()) });
+        }
+        return sizes;
+    }
+
+    public PetProviderBenchmark(int rows) {
+        super(rows);
+    }
+
+    @Test
+    public void queryPage() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder("query_page", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            Uri pageUri = PetEntry.buildPageUri(mRandom.nextInt(mRows), PAGE_SIZE);
+            recorder.start();
+            Cursor cursor = mProvider.query(pageUri, CATALOG_PROJECTION, null, null, null);
+            readAll(cursor);
+            if (i >= 0) {
+                recorder.stop();
+            }
+        }
+        recorder.report();
+    }
+
+    @Test
+    public void queryPetId() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder("query_pet_id", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            Uri petUri = randomPetUri();
+            recorder.start();
+            Cursor cursor = mProvider.query(petUri, null, null, null, null);
+            readAll(cursor);
+            if (i >= 0) {
+                recorder.stop();
+            }
+        }
+        recorder.report();
+    }
+
+    @Test
+    public void insert() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder("insert", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            ContentValues values = mDataset.pet(mRows + WARMUP_OPS + i);
+            recorder.start();
+            mProvider.insert(PetEntry.CONTENT_URI, values);
+            if (i >= 0) {
+                recorder.stop();
+            }
+        }
+        recorder.report();
+    }
+
+    /**
+     * Insert the same number of pets once one by one and once with bulk inserts of
+     * {@link #BULK_CHUNK} pets, and compare the rows per second of both.
+     */
+    @Test
+    public void bulkInsert() throws Exception {
+        long nextRow = mRows;
+        for (int i = 0; i < WARMUP_OPS; i++) {
+            mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(nextRow++));
+        }
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, mDataset.pets(nextRow, BULK_CHUNK));
+        nextRow += BULK_CHUNK;
+
+        LatencyRecorder rowRecorder = new LatencyRecorder("insert_rows", mRows, OPS);
+        for (int i = 0; i < OPS; i++) {
+            ContentValues values = mDataset.pet(nextRow++);
+            rowRecorder.start();
+            mProvider.insert(PetEntry.CONTENT_URI, values);
+            rowRecorder.stop();
+        }
+        double rowRowsPerSec = rowRecorder.throughput();
+        rowRecorder.report(String.format(Locale.ROOT, "\"rows_per_sec\":%.1f", rowRowsPerSec));
+
+        LatencyRecorder bulkRecorder = new LatencyRecorder("bulk_insert", mRows, OPS / BULK_CHUNK);
+        for (int i = 0; i < OPS; i += BULK_CHUNK) {
+            ContentValues[] values = mDataset.pets(nextRow, BULK_CHUNK);
+            nextRow += BULK_CHUNK;
+            bulkRecorder.start();
+            mProvider.bulkInsert(PetEntry.CONTENT_URI, values);
+            bulkRecorder.stop();
+        }
+        double bulkRowsPerSec = bulkRecorder.throughput() * BULK_CHUNK;
+        bulkRecorder.report(String.format(Locale.ROOT, "\"chunk\":%d,\"rows_per_sec\":%.1f,\"speedup\":%.2f",
+                BULK_CHUNK, bulkRowsPerSec, bulkRowsPerSec / rowRowsPerSec));
+        assertTrue("Bulk insert is not faster than single inserts", bulkRowsPerSec > rowRowsPerSec);
+    }
+
+    @Test
+    public void update() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder("update", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            Uri petUri = randomPetUri();
+            ContentValues values = mDataset.pet(mRandom.nextInt(mRows));
+            recorder.start();
+            mProvider.update(petUri, values, null, null);
+            if (i >= 0) {
+                recorder.stop();
+            }
+        }
+        recorder.report();
+    }
+
+    @Test
+    public void delete() throws Exception {
+        // Delete distinct pets, so every measured delete removes a row.
+        int ops = Math.min(OPS, mRows - WARMUP_OPS);
+        Assume.assumeTrue(ops > 0);
+        LatencyRecorder recorder = new LatencyRecorder("delete", mRows, ops);
+        for (int i = -WARMUP_OPS; i < ops; i++) {
+            Uri petUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, WARMUP_OPS + i + 1);
+            recorder.start();
+            mProvider.delete(petUri, null, null);
+            if (i >= 0) {
+                recorder.stop();
+            }
+        }
+        recorder.report();
+    }
+
+    @Test
+    public void bindView() throws Exception {
+        // Bind catalog rows of the first pages, as the user would while scrolling.
+        List<PetListItem> items = new ArrayList<>();
+        Cursor cursor = mProvider.query(PetEntry.buildPageUri(0, Math.min(mRows, OPS)),
+                CATALOG_PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                items.add(new PetListItem(cursor.getLong(0), cursor.getString(1), cursor.getString(2), null));
+            }
+        } finally {
+            cursor.close();
+        }
+        Assume.assumeFalse(items.isEmpty());
+
+        PetListAdapter adapter = new PetListAdapter(RuntimeEnvironment.application,
+                new PetListAdapter.OnPetClickListener() {
+                    @Override
+                    public void onPetClick(long id) {
+                    }
+                });
+        adapter.submitList(items);
+        PetListAdapter.ViewHolder holder = adapter.onCreateViewHolder(
+                new FrameLayout(RuntimeEnvironment.application), 0);
+
+        LatencyRecorder recorder = new LatencyRecorder("bind_view", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            int position = (i + WARMUP_OPS) % items.size();
+            recorder.start();
+            adapter.onBindViewHolder(holder, position);
+            if (i >= 0) {
+                recorder.stop();
+            }
+        }
+        recorder.report();
+    }
+
+    /**
+     * Return the URI of a random existing pet.
+     */
+    private Uri randomPetUri() {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1 + mRandom.nextInt(mRows));
+    }
+
+    /**
+     * Read every column of every row and close the cursor.
+     */
+    private static void readAll(Cursor cursor) {
+        try {
+            int columnCount = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columnCount; column++) {
+                    cursor.getString(column);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
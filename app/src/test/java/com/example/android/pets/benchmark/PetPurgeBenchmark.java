@@ -0,0 +1,95 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetPurger;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long readers stall while {@link PetPurger} removes the rows of all pets
+ * after they have been deleted at once.
+ */
+public class PetPurgeBenchmark extends PetBenchmark {
+    /** System property with the number of purged pets. */
+    public static final String PROPERTY_PURGE_ROWS = "pets.benchmark.purgeRows";
+
+    /** Columns of the catalog list. */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED
+    };
+
+    public PetPurgeBenchmark() {
+        super(PROPERTY_PURGE_ROWS, 500000);
+    }
+
+    /**
+     * Twice the purged rows, so the readers still find pets while the purge runs.
+     */
+    @Override
+    protected int getFillRows() {
+        return 2 * mRows;
+    }
+
+    @Test
+    public void readDuringPurge() throws Exception {
+        // Delete the first half of the pets at once, as "Delete all pets" does for all of them.
+        LatencyRecorder deleteRecorder = new LatencyRecorder("soft_delete", mRows, 1);
+        deleteRecorder.start();
+        int deleted = mProvider.delete(PetEntry.CONTENT_URI, PetEntry._ID + "<=?",
+                new String[] { String.valueOf(mRows) });
+        deleteRecorder.stop();
+        deleteRecorder.report("\"deleted\":" + deleted);
+
+        final PetPurger purger = mProvider.getPurger();
+        final AtomicBoolean purging = new AtomicBoolean(true);
+        final AtomicLong purgeNanos = new AtomicLong();
+        Thread purgeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    while (purger.purgeChunk() > 0) {
+                        Thread.sleep(PetPurger.DEFAULT_PAUSE_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    purgeNanos.set(System.nanoTime() - start);
+                    purging.set(false);
+                }
+            }
+        });
+
+        // Read single pets and catalog pages of the remaining pets until the purge is done.
+        Random random = new Random(42);
+        LatencyRecorder recorder = new LatencyRecorder("read_during_purge", mRows, 100000);
+        purgeThread.start();
+        while (purging.get()) {
+            long id = mRows + 1 + random.nextInt(mRows);
+            recorder.start();
+            Cursor cursor = random.nextBoolean()
+                    ? mProvider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null, null, null)
+                    : mProvider.query(PetEntry.buildPageUri(id, 100), CATALOG_PROJECTION, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            recorder.stop();
+        }
+        purgeThread.join();
+
+        recorder.report(String.format(Locale.ROOT, "\"purge_ms\":%.1f,\"worst_stall_ms\":%.2f",
+                purgeNanos.get() / 1e6, recorder.percentile(1) / 1e6));
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Loader;
+import android.os.Bundle;
+
+import com.example.android.pets.PetListItem;
+import com.example.android.pets.PetPageLoader;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how the catalog loader refreshes after a single pet has been edited, and reports
+ * the queries per edit. {@code PetPageLoaderTest} checks that an edit only fetches that pet.
+ */
+public class PetRowRefreshBenchmark extends PetBenchmark {
+    /** System property with the number of pets in the database. */
+    public static final String PROPERTY_REFRESH_ROWS = "pets.benchmark.refreshRows";
+
+    private static final int PAGE_SIZE = 100;
+    /** Number of loaded pages, so edits hit pets all over the loaded list. */
+    private static final int LOADED_PAGES = 10;
+    /** Number of measured edits. */
+    private static final int OPS = 200;
+
+    private PetPageLoader mLoader;
+    private List<PetListItem> mItems;
+
+    public PetRowRefreshBenchmark() {
+        super(PROPERTY_REFRESH_ROWS, 50000);
+    }
+
+    @Before
+    public void setUp() {
+        // Notify every write right away, so each edit is refreshed on its own.
+        mProvider.getChangeNotifier().setWindowMillis(0);
+
+        mLoader = new PetPageLoader(RuntimeEnvironment.application, PAGE_SIZE);
+        mLoader.registerListener(0, new Loader.OnLoadCompleteListener<List<PetListItem>>() {
+            @Override
+            public void onLoadComplete(Loader<List<PetListItem>> loader, List<PetListItem> items) {
+                mItems = items;
+            }
+        });
+        mLoader.startLoading();
+        runPendingTasks();
+        for (int page = 1; page < LOADED_PAGES; page++) {
+            mLoader.loadNextPage();
+            runPendingTasks();
+        }
+        assertEquals(LOADED_PAGES * PAGE_SIZE, mItems.size());
+    }
+
+    @After
+    public void tearDown() {
+        if (mLoader != null) {
+            mLoader.reset();
+        }
+    }
+
+    @Test
+    public void editOnePet() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder("refresh_one_pet", mRows, OPS);
+        long petQueries = 0;
+        long pageQueries = 0;
+        for (int i = 0; i < OPS; i++) {
+            int position = (i * 37) % mItems.size();
+            long id = mItems.get(position).id;
+            String name = "Edited " + i;
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, name);
+
+            mProvider.getMetrics().reset();
+            recorder.start();
+            mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), values, null, null);
+            runPendingTasks();
+            recorder.stop();
+
+            assertEquals(name, mItems.get(position).name);
+            Bundle metrics = mProvider.getMetrics().snapshot();
+            petQueries += count(metrics, "query/pet_id");
+            pageQueries += count(metrics, "query/pets");
+        }
+        recorder.report(String.format(Locale.ROOT,
+                "\"loaded_rows\":%d,\"pet_queries_per_edit\":%.2f,\"page_queries_per_edit\":%.2f",
+                mItems.size(), petQueries / (double) OPS, pageQueries / (double) OPS));
+    }
+
+    /**
+     * Return the number of calls in the given metric, 0 if there were none.
+     */
+    private static long count(Bundle metrics, String name) {
+        Bundle metric = metrics.getBundle(name);
+        return metric == null ? 0 : metric.getLong("count");
+    }
+}
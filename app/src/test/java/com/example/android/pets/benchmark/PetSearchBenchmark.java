@@ -0,0 +1,97 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the full-text search of pets against finding the same pets with LIKE on the pets
+ * URI, for the beginnings of name and breed words as the user types them.
+ */
+public class PetSearchBenchmark extends PetBenchmark {
+    /** System property with the number of searched pets. */
+    public static final String PROPERTY_SEARCH_ROWS = "pets.benchmark.searchRows";
+
+    /** Number of measured searches per kind. */
+    private static final int OPS = 500;
+    private static final int WARMUP_OPS = 50;
+
+    /** Pets with a name or breed word starting with the argument, as LIKE patterns. */
+    private static final String SELECTION_LIKE =
+            PetEntry.COLUMN_PET_NAME + " LIKE ? OR " + PetEntry.COLUMN_PET_NAME + " LIKE ? OR " +
+            PetEntry.COLUMN_PET_BREED + " LIKE ? OR " + PetEntry.COLUMN_PET_BREED + " LIKE ?";
+
+    private static final String[] PROJECTION = { PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED };
+
+    public PetSearchBenchmark() {
+        super(PROPERTY_SEARCH_ROWS, 100000);
+    }
+
+    @Test
+    public void searchAgainstLike() throws IOException {
+        // Beginnings of two to four characters of the words of random pets.
+        Random random = new Random(SEED);
+        String[] queries = new String[WARMUP_OPS + OPS];
+        for (int i = 0; i < queries.length; i++) {
+            ContentValues pet = mDataset.pet(random.nextInt(mRows));
+            String word = pet.getAsString(PetEntry.COLUMN_PET_NAME).split(" ")[0].toLowerCase(Locale.ROOT);
+            queries[i] = word.substring(0, Math.min(word.length(), 2 + random.nextInt(3)));
+        }
+
+        LatencyRecorder searchRecorder = new LatencyRecorder("search_fts", mRows, OPS);
+        LatencyRecorder likeRecorder = new LatencyRecorder("search_like", mRows, OPS);
+        long searchRows = 0;
+        long likeRows = 0;
+        for (int i = 0; i < queries.length; i++) {
+            String query = queries[i];
+            searchRecorder.start();
+            int found = readAll(mProvider.query(PetEntry.buildSearchUri(query), PROJECTION, null, null, null));
+            if (i >= WARMUP_OPS) {
+                searchRecorder.stop();
+                searchRows += found;
+            }
+
+            likeRecorder.start();
+            int liked = readAll(mProvider.query(PetEntry.CONTENT_URI, PROJECTION, SELECTION_LIKE,
+                    new String[] { query + "%", "% " + query + "%", query + "%", "% " + query + "%" },
+                    PetEntry.COLUMN_PET_NAME));
+            if (i >= WARMUP_OPS) {
+                likeRecorder.stop();
+                likeRows += liked;
+            }
+            assertEquals(query, liked, found);
+        }
+
+        likeRecorder.report(String.format(Locale.ROOT, "\"average_rows\":%.1f", (double) likeRows / OPS));
+        searchRecorder.report(String.format(Locale.ROOT, "\"average_rows\":%.1f,\"speedup_p50\":%.2f",
+                (double) searchRows / OPS, likeRecorder.percentile(0.5) / (double) searchRecorder.percentile(0.5)));
+    }
+
+    /**
+     * Read every row and close the cursor.
+     * @return The number of rows.
+     */
+    private static int readAll(Cursor cursor) {
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getString(2);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+}
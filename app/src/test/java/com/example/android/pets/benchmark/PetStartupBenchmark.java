@@ -0,0 +1,111 @@
+package com.example.android.pets.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.PetListItem;
+import com.example.android.pets.PetListSnapshot;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDbHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the time until the catalog has its first rows at launch, once by opening the
+ * database and querying the first rows, as without {@link PetListSnapshot}, and once by
+ * reading the snapshot.
+ *
+ * Frames cannot be drawn on a plain JVM, so the time to the first frame is measured up to
+ * the rows handed to the list adapter, which is where both paths differ.
+ */
+public class PetStartupBenchmark extends PetBenchmark {
+    /** System property with the number of pets in the database. */
+    public static final String PROPERTY_STARTUP_ROWS = "pets.benchmark.startupRows";
+
+    /** Number of measured launches per path. */
+    private static final int OPS = 200;
+    private static final int WARMUP_OPS = 20;
+
+    /** First rows of the catalog, as queried by the first page of the loader. */
+    private static final String SQL_FIRST_ROWS =
+            "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", " +
+            PetEntry.COLUMN_PET_PHOTO + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SELECTION_NOT_DELETED +
+            " ORDER BY " + PetEntry._ID + " LIMIT " + PetListSnapshot.MAX_ITEMS;
+
+    private File mSnapshotFile;
+
+    public PetStartupBenchmark() {
+        super(PROPERTY_STARTUP_ROWS, 100000);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        // Close the database, so every measured launch has to open it again.
+        mProvider.mDbHelper.close();
+
+        mSnapshotFile = File.createTempFile("catalog", ".snapshot");
+        new PetListSnapshot(mSnapshotFile).write(queryFirstRows());
+    }
+
+    @After
+    public void tearDown() {
+        if (mSnapshotFile != null) {
+            mSnapshotFile.delete();
+        }
+    }
+
+    @Test
+    public void firstRows() throws Exception {
+        LatencyRecorder databaseRecorder = new LatencyRecorder("first_rows_database", mRows, OPS);
+        LatencyRecorder snapshotRecorder = new LatencyRecorder("first_rows_snapshot", mRows, OPS);
+        for (int i = -WARMUP_OPS; i < OPS; i++) {
+            databaseRecorder.start();
+            List<PetListItem> queried = queryFirstRows();
+            if (i >= 0) {
+                databaseRecorder.stop();
+            }
+
+            snapshotRecorder.start();
+            List<PetListItem> snapshot = new PetListSnapshot(mSnapshotFile).read();
+            if (i >= 0) {
+                snapshotRecorder.stop();
+            }
+            assertEquals(queried, snapshot);
+        }
+        databaseRecorder.report();
+        snapshotRecorder.report();
+    }
+
+    /**
+     * Open the database, query the first rows of the catalog and close it again.
+     */
+    private List<PetListItem> queryFirstRows() {
+        PetDbHelper dbHelper = new PetDbHelper(RuntimeEnvironment.application);
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            List<PetListItem> items = new ArrayList<>(PetListSnapshot.MAX_ITEMS);
+            Cursor cursor = db.rawQuery(SQL_FIRST_ROWS, null);
+            try {
+                while (cursor.moveToNext()) {
+                    items.add(new PetListItem(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                            cursor.getString(3)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return items;
+        } finally {
+            dbHelper.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.pets.benchmark;
+
+import android.database.DatabaseUtils;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.sync.PetSyncClient;
+import com.example.android.pets.sync.PetSyncEngine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures syncing against the in-process {@link FakeSyncServer}: pushing all local pets,
+ * then pulling as many pets created by another client. Some requests are rejected and some
+ * responses lost, so the numbers include retries, and the server checks that no batch is
+ * applied twice.
+ */
+public class PetSyncBenchmark extends PetBenchmark {
+    /** System property with the number of pets pushed and pulled. */
+    public static final String PROPERTY_SYNC_ROWS = "pets.benchmark.syncRows";
+
+    /** Every nth request is rejected with 503. */
+    private static final int REJECT_EVERY = 50;
+    /** The response of every nth applied push is lost. */
+    private static final int LOSE_RESPONSE_EVERY = 40;
+
+    private FakeSyncServer mServer;
+
+    public PetSyncBenchmark() {
+        super(PROPERTY_SYNC_ROWS, 100000);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FakeSyncServer();
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void pushAndPull() throws Exception {
+        PetSyncClient client = new PetSyncClient(mServer.getUrl());
+        // Retries of lost responses still happen, but their backoff is not measured.
+        client.setRetryDelayMillis(1);
+        PetSyncEngine engine = new PetSyncEngine(RuntimeEnvironment.application, client);
+        mServer.injectFailures(REJECT_EVERY, LOSE_RESPONSE_EVERY);
+
+        LatencyRecorder pushRecorder = new LatencyRecorder("sync_push", mRows, 1);
+        pushRecorder.start();
+        PetSyncEngine.Result pushResult = engine.sync();
+        pushRecorder.stop();
+        assertEquals(mRows, pushResult.pushedChanges);
+        assertEquals(mRows, mServer.getPetCount());
+        // Every lost response was retried and answered from the idempotency key.
+        assertTrue(mServer.getDuplicatePushes() >= mServer.getAppliedPushes() / LOSE_RESPONSE_EVERY);
+        long bytesSent = client.getBytesSent();
+        pushRecorder.report(String.format(Locale.ROOT,
+                "\"rows_per_sec\":%.1f,\"batches\":%d,\"compressed_bytes\":%d,\"uncompressed_bytes\":%d,\"retries\":%d",
+                mRows * pushRecorder.throughput(), mServer.getAppliedPushes(), bytesSent,
+                mServer.getUncompressedBytes(), client.getRetryCount()));
+
+        mServer.seed("other-shelter", mRows);
+        long retriesBefore = client.getRetryCount();
+        long bytesBefore = client.getBytesReceived();
+        LatencyRecorder pullRecorder = new LatencyRecorder("sync_pull", mRows, 1);
+        pullRecorder.start();
+        PetSyncEngine.Result pullResult = engine.sync();
+        pullRecorder.stop();
+        assertEquals(0, pullResult.pushedChanges);
+        assertEquals(mRows, pullResult.pulledChanges);
+        assertEquals(2 * mRows, DatabaseUtils.queryNumEntries(mProvider.mDbHelper.getReadableDatabase(),
+                PetEntry.TABLE_NAME, PetDbHelper.SELECTION_NOT_DELETED));
+        pullRecorder.report(String.format(Locale.ROOT, "\"rows_per_sec\":%.1f,\"compressed_bytes\":%d,\"retries\":%d",
+                mRows * pullRecorder.throughput(), client.getBytesReceived() - bytesBefore,
+                client.getRetryCount() - retriesBefore));
+
+        // Pulled pets are not logged, so they are never pushed back.
+        PetSyncEngine.Result idleResult = engine.sync();
+        assertEquals(0, idleResult.pushedChanges);
+        assertEquals(0, idleResult.pulledChanges);
+        assertEquals(mRows, DatabaseUtils.queryNumEntries(mProvider.mDbHelper.getReadableDatabase(),
+                PetChangeEntry.TABLE_NAME));
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetTypeAhead;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the memory of the in-memory type-ahead index and its lookups of the beginnings of
+ * name and breed words, compared to the full-text search, and how fast it follows inserts.
+ */
+public class PetTypeAheadBenchmark extends PetBenchmark {
+    /** System property with the number of indexed pets. */
+    public static final String PROPERTY_TYPE_AHEAD_ROWS = "pets.benchmark.typeAheadRows";
+
+    private static final int LOOKUPS = 100000;
+    private static final int SEARCHES = 2000;
+    private static final int INSERTS = 1000;
+
+    public PetTypeAheadBenchmark() {
+        super(PROPERTY_TYPE_AHEAD_ROWS, 1000000);
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        PetTypeAhead typeAhead = mProvider.getTypeAhead();
+        long usedBefore = usedMemory();
+        LatencyRecorder buildRecorder = new LatencyRecorder("type_ahead_build", mRows, 1);
+        buildRecorder.start();
+        typeAhead.rebuild();
+        buildRecorder.stop();
+        long bytes = usedMemory() - usedBefore;
+        assertEquals(mRows, typeAhead.getPetCount());
+        buildRecorder.report(String.format(Locale.ROOT,
+                "\"entries\":%d,\"bytes\":%d,\"bytes_per_100k_pets\":%d,\"bytes_per_100k_entries\":%d",
+                typeAhead.getEntryCount(), bytes, bytes * 100000 / mRows, bytes * 100000 / typeAhead.getEntryCount()));
+
+        // Beginnings of one to four characters of the words of random pets, as typed.
+        Random random = new Random(42);
+        String[] queries = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            ContentValues pet = mDataset.pet(random.nextInt(mRows));
+            String text = pet.getAsString(random.nextBoolean() ? PetEntry.COLUMN_PET_NAME : PetEntry.COLUMN_PET_BREED);
+            String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+            String word = words[random.nextInt(words.length)];
+            queries[i] = word.substring(0, 1 + random.nextInt(Math.min(4, word.length())));
+        }
+
+        LatencyRecorder recorder = new LatencyRecorder("type_ahead_lookup", mRows, LOOKUPS);
+        long found = 0;
+        for (String query : queries) {
+            recorder.start();
+            long[] ids = typeAhead.lookup(query, PetTypeAhead.DEFAULT_LIMIT);
+            recorder.stop();
+            found += ids.length;
+        }
+        assertTrue(found > 0);
+        recorder.report(String.format(Locale.ROOT, "\"p99_us\":%.2f,\"average_ids\":%.2f",
+                recorder.percentile(0.99) / 1e3, (double) found / LOOKUPS));
+
+        // The same lookups through the full-text search, for comparison.
+        LatencyRecorder searchRecorder = new LatencyRecorder("type_ahead_search", mRows, SEARCHES);
+        for (int i = 0; i < SEARCHES; i++) {
+            searchRecorder.start();
+            Cursor cursor = mProvider.query(PetEntry.buildSearchUri(queries[i]), new String[] { PetEntry._ID },
+                    null, null, null);
+            try {
+                for (int row = 0; row < PetTypeAhead.DEFAULT_LIMIT && cursor.moveToNext(); row++) {
+                    cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            searchRecorder.stop();
+        }
+        searchRecorder.report(String.format(Locale.ROOT, "\"p99_us\":%.2f", searchRecorder.percentile(0.99) / 1e3));
+
+        // Single inserts are read again from the notifications, without a rebuild.
+        for (int i = 0; i < INSERTS; i++) {
+            ContentValues pet = mDataset.pet(mRows + i);
+            pet.put(PetEntry.COLUMN_PET_NAME, "Zyzzyva " + (mRows + i));
+            mProvider.insert(PetEntry.CONTENT_URI, pet);
+        }
+        LatencyRecorder updateRecorder = new LatencyRecorder("type_ahead_update", INSERTS, 1);
+        updateRecorder.start();
+        typeAhead.applyPendingChanges();
+        updateRecorder.stop();
+        assertEquals(mRows + INSERTS, typeAhead.getPetCount());
+        assertEquals(PetTypeAhead.DEFAULT_LIMIT, typeAhead.lookup("zyz", PetTypeAhead.DEFAULT_LIMIT).length);
+        updateRecorder.report("\"inserts\":" + INSERTS);
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
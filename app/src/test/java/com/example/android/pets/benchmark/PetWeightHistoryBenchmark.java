@@ -0,0 +1,188 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures appending weight measurements, which also updates their daily, weekly and monthly
+ * rollups, and querying charts of the whole history from the rollups. The monthly chart is
+ * also computed from the raw measurements, for comparison.
+ */
+public class PetWeightHistoryBenchmark extends PetBenchmark {
+    /** System property with the total number of measurements. */
+    public static final String PROPERTY_WEIGHT_ROWS = "pets.benchmark.weightRows";
+
+    /** Number of pets sharing the measurements. */
+    private static final int PETS = 100;
+    /** Number of measurements inserted by a single bulk insert. */
+    private static final int CHUNK = 10000;
+    /** Time of the first measurement, 2020-01-01 UTC. */
+    private static final long START_MILLIS = 1577836800000L;
+    /** Time between two measurements of a pet, so 100000 measurements span almost three years. */
+    private static final long INTERVAL_MILLIS = 15 * 60 * 1000;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    /** Number of measured chart queries per kind. */
+    private static final int OPS = 200;
+    /** Number of monthly charts computed from the raw measurements. */
+    private static final int RAW_OPS = 20;
+
+    /** Monthly chart computed from the raw measurements of a pet. */
+    private static final String SQL_RAW_MONTHS = "SELECT strftime('%Y-%m', " + PetWeightEntry.COLUMN_MEASURED_AT +
+            " / 1000, 'unixepoch') AS month, COUNT(*), MIN(" + PetWeightEntry.COLUMN_WEIGHT + "), MAX(" +
+            PetWeightEntry.COLUMN_WEIGHT + "), AVG(" + PetWeightEntry.COLUMN_WEIGHT + ") FROM " +
+            PetWeightEntry.TABLE_NAME + " WHERE " + PetWeightEntry.COLUMN_PET_ID + "=? AND " +
+            PetWeightEntry.COLUMN_MEASURED_AT + ">=? AND " + PetWeightEntry.COLUMN_MEASURED_AT + "<? GROUP BY month";
+
+    private int mPerPet;
+    private long mEndMillis;
+    private long[] mPetIds;
+
+    public PetWeightHistoryBenchmark() {
+        super(PROPERTY_WEIGHT_ROWS, 10000000);
+    }
+
+    /**
+     * Only the pets sharing the measurements, as the rows of the benchmark are measurements.
+     */
+    @Override
+    protected int getFillRows() {
+        return PETS;
+    }
+
+    @Before
+    public void setUp() {
+        mPerPet = mRows / PETS;
+        mEndMillis = START_MILLIS + mPerPet * INTERVAL_MILLIS;
+
+        mPetIds = new long[PETS];
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID }, null, null, null);
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mPetIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void ingestAndChart() throws Exception {
+        LatencyRecorder ingestRecorder = new LatencyRecorder("weights_ingest", mRows, mRows / CHUNK);
+        // A random walk per pet, so the rollups have varying minimums and maximums.
+        Random random = new Random(42);
+        int[] weights = new int[PETS];
+        for (int pet = 0; pet < PETS; pet++) {
+            weights[pet] = 5000 + random.nextInt(30000);
+        }
+        for (int first = 0; first < mPerPet; first += CHUNK) {
+            int count = Math.min(CHUNK, mPerPet - first);
+            for (int pet = 0; pet < PETS; pet++) {
+                ContentValues[] measurements = new ContentValues[count];
+                for (int i = 0; i < count; i++) {
+                    weights[pet] = Math.max(0, weights[pet] + random.nextInt(21) - 10);
+                    measurements[i] = new ContentValues();
+                    measurements[i].put(PetWeightEntry.COLUMN_WEIGHT, weights[pet]);
+                    measurements[i].put(PetWeightEntry.COLUMN_MEASURED_AT, START_MILLIS + (first + i) * INTERVAL_MILLIS);
+                }
+                ingestRecorder.start();
+                assertEquals(count, mProvider.bulkInsert(PetWeightEntry.buildWeightsUri(mPetIds[pet]), measurements));
+                ingestRecorder.stop();
+            }
+        }
+        ingestRecorder.report(String.format(Locale.ROOT, "\"pets\":%d,\"chunk\":%d,\"rows_per_sec\":%.1f",
+                PETS, CHUNK, CHUNK * ingestRecorder.throughput()));
+
+        int months = monthsBetween(START_MILLIS, mEndMillis - 1);
+        LatencyRecorder monthRecorder = new LatencyRecorder("weights_chart_month", mRows, OPS);
+        LatencyRecorder weekRecorder = new LatencyRecorder("weights_chart_week", mRows, OPS);
+        LatencyRecorder dayRecorder = new LatencyRecorder("weights_chart_day_year", mRows, OPS);
+        for (int i = 0; i < OPS; i++) {
+            long petId = mPetIds[(i * 37) % PETS];
+
+            monthRecorder.start();
+            int[] monthRows = queryRollups(petId, PetContract.PATH_WEIGHTS_MONTH, START_MILLIS, mEndMillis);
+            monthRecorder.stop();
+            // Every measurement of the range is counted once, in a row per month.
+            assertEquals(months, monthRows[0]);
+            assertEquals(mPerPet, monthRows[1]);
+
+            weekRecorder.start();
+            int[] weekRows = queryRollups(petId, PetContract.PATH_WEIGHTS_WEEK, 0, mEndMillis);
+            weekRecorder.stop();
+            assertEquals(mPerPet, weekRows[1]);
+
+            dayRecorder.start();
+            queryRollups(petId, PetContract.PATH_WEIGHTS_DAY, mEndMillis - 365 * DAY_MILLIS, mEndMillis);
+            dayRecorder.stop();
+        }
+
+        LatencyRecorder rawRecorder = new LatencyRecorder("weights_chart_month_raw", mRows, RAW_OPS);
+        SQLiteDatabase db = mProvider.mDbHelper.getReadableDatabase();
+        for (int i = 0; i < RAW_OPS; i++) {
+            long petId = mPetIds[(i * 37) % PETS];
+            rawRecorder.start();
+            Cursor cursor = db.rawQuery(SQL_RAW_MONTHS, new String[] { String.valueOf(petId),
+                    String.valueOf(START_MILLIS), String.valueOf(mEndMillis) });
+            try {
+                assertEquals(months, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            rawRecorder.stop();
+        }
+
+        String extra = String.format(Locale.ROOT, "\"measurements_per_pet\":%d,\"months\":%d,\"raw_p50_us\":%.2f",
+                mPerPet, months, rawRecorder.percentile(0.5) / 1e3);
+        monthRecorder.report(extra);
+        weekRecorder.report(extra);
+        dayRecorder.report(extra);
+        rawRecorder.report(extra);
+    }
+
+    /**
+     * Query the rollups of a pet in the given range.
+     * @return The number of rollups and the number of measurements in them.
+     */
+    private int[] queryRollups(long petId, String period, long from, long to) {
+        Uri uri = PetWeightEntry.buildRangeUri(PetWeightEntry.buildRollupUri(petId, period), from, to);
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            int countColumn = cursor.getColumnIndexOrThrow(PetWeightEntry.COLUMN_MEASUREMENT_COUNT);
+            int measurements = 0;
+            while (cursor.moveToNext()) {
+                measurements += cursor.getInt(countColumn);
+            }
+            return new int[] { cursor.getCount(), measurements };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the number of UTC calendar months from the month of the first time up to and
+     * including the month of the last time.
+     */
+    private static int monthsBetween(long first, long last) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.ROOT);
+        calendar.setTimeInMillis(first);
+        int firstMonth = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+        calendar.setTimeInMillis(last);
+        return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH) - firstMonth + 1;
+    }
+}
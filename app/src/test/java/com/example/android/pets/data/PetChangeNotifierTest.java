@@ -0,0 +1,112 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.Loader;
+import android.os.Bundle;
+
+import com.example.android.pets.PetListItem;
+import com.example.android.pets.PetPageLoader;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link PetChangeNotifier} notifies the writes of a batch once, and only if the
+ * batch and all batches nested in it have been committed.
+ */
+public class PetChangeNotifierTest extends PetProviderTestCase {
+    /** Number of pets in the database and of writes in a batch. */
+    private static final int PETS = 50;
+
+    private int mLoads;
+
+    @Test
+    public void batchReloadsLoaderOnce() throws Exception {
+        fill(0, PETS);
+        PetChangeNotifier notifier = mProvider.getChangeNotifier();
+        notifier.setWindowMillis(0);
+
+        PetPageLoader loader = new PetPageLoader(RuntimeEnvironment.application, 2 * PETS);
+        loader.registerListener(0, new Loader.OnLoadCompleteListener<List<PetListItem>>() {
+            @Override
+            public void onLoadComplete(Loader<List<PetListItem>> loader, List<PetListItem> items) {
+                mLoads++;
+            }
+        });
+        try {
+            loader.startLoading();
+            runPendingTasks();
+            assertEquals(1, mLoads);
+
+            // Every write of the batch changes another pet.
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (int row = 0; row < PETS; row++) {
+                operations.add(ContentProviderOperation.newUpdate(PetEntry.CONTENT_URI)
+                        .withSelection(PetEntry._ID + "=?", new String[] { String.valueOf(row + 1) })
+                        .withValue(PetEntry.COLUMN_PET_WEIGHT, row)
+                        .build());
+            }
+            long requested = notifier.getRequestedCount();
+            long delivered = notifier.getDeliveredCount();
+            long suppressed = notifier.getSuppressedCount();
+            mProvider.getMetrics().reset();
+            mProvider.applyBatch(operations);
+            runPendingTasks();
+
+            assertEquals(PETS, notifier.getRequestedCount() - requested);
+            assertEquals(1, notifier.getDeliveredCount() - delivered);
+            assertEquals(PETS - 1, notifier.getSuppressedCount() - suppressed);
+            assertEquals(2, mLoads);
+            Bundle metrics = mProvider.getMetrics().snapshot();
+            assertEquals(1, metrics.getBundle("query/pets").getLong("count"));
+        } finally {
+            loader.reset();
+        }
+    }
+
+    @Test
+    public void failedNestedBatchDropsNotifications() {
+        PetChangeNotifier notifier = new PetChangeNotifier(RuntimeEnvironment.application.getContentResolver());
+        notifier.setWindowMillis(0);
+
+        notifier.beginBatch();
+        notifier.notifyChange(PetEntry.CONTENT_URI);
+        notifier.beginBatch();
+        notifier.notifyChange(PetEntry.buildChangeUri(1, PetContract.OP_UPDATE));
+        notifier.endBatch(false);
+        notifier.endBatch(true);
+
+        assertEquals(2, notifier.getRequestedCount());
+        assertEquals(0, notifier.getDeliveredCount());
+
+        // The failure does not outlive the batch.
+        notifier.beginBatch();
+        notifier.notifyChange(PetEntry.CONTENT_URI);
+        notifier.endBatch(true);
+        assertEquals(1, notifier.getDeliveredCount());
+    }
+
+    @Test
+    public void committedNestedBatchNotifiesOnce() {
+        PetChangeNotifier notifier = new PetChangeNotifier(RuntimeEnvironment.application.getContentResolver());
+        notifier.setWindowMillis(0);
+
+        notifier.beginBatch();
+        notifier.notifyChange(PetEntry.CONTENT_URI);
+        notifier.beginBatch();
+        notifier.notifyChange(PetEntry.CONTENT_URI);
+        notifier.endBatch(true);
+        assertEquals(0, notifier.getDeliveredCount());
+        notifier.endBatch(true);
+
+        assertEquals(2, notifier.getRequestedCount());
+        assertEquals(1, notifier.getDeliveredCount());
+        assertEquals(1, notifier.getSuppressedCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.pets.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link PetImporter} reports JSON of the wrong structure as malformed, and
+ * imports well-formed JSON.
+ */
+public class PetImporterTest extends PetProviderTestCase {
+    private PetImporter mImporter;
+
+    @Before
+    public void setUp() {
+        mImporter = new PetImporter(mProvider);
+    }
+
+    @Test
+    public void objectInsteadOfArrayIsMalformed() {
+        assertMalformed("{\"name\": \"Tommy\", \"gender\": 1, \"weight\": 7}");
+    }
+
+    @Test
+    public void numbersInsteadOfPetsAreMalformed() {
+        assertMalformed("[1, 2, 3]");
+    }
+
+    @Test
+    public void petsAreImported() throws IOException {
+        PetImporter.Result result = importJson("[{\"name\": \"Tommy\", \"breed\": \"Terrier\", \"gender\": 1, "
+                + "\"weight\": 7}, {\"name\": \"Bella\", \"gender\": 2, \"weight\": 4}]");
+        assertEquals(2, result.rowsImported);
+        assertEquals(0, result.rowsRejected);
+        assertEquals(2, countPets());
+    }
+
+    private void assertMalformed(String json) {
+        try {
+            importJson(json);
+            fail("Malformed JSON was imported: " + json);
+        } catch (IOException expected) {
+            // Nothing was imported.
+            assertEquals(0, countPets());
+        }
+    }
+
+    private PetImporter.Result importJson(String json) throws IOException {
+        return mImporter.importPets(new ByteArrayInputStream(json.getBytes("UTF-8")), PetContract.FORMAT_JSON,
+                "test.json", null);
+    }
+}
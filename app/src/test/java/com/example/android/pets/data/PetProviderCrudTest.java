@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that pets written through the provider are read back as written.
+ */
+public class PetProviderCrudTest extends PetProviderTestCase {
+    private static final String[] PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    @Test
+    public void insertedPetIsQueried() {
+        ContentValues pet = mDataset.pet(0);
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, pet);
+
+        assertNotNull(uri);
+        assertPet(pet, uri);
+        assertEquals(1, countPets());
+    }
+
+    @Test
+    public void bulkInsertedPetsAreQueried() {
+        assertEquals(100, mProvider.bulkInsert(PetEntry.CONTENT_URI, mDataset.pets(0, 100)));
+
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, PROJECTION, null, null, PetEntry._ID);
+        try {
+            assertEquals(100, cursor.getCount());
+            for (int row = 0; cursor.moveToNext(); row++) {
+                assertPet(mDataset.pet(row), cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void bulkInsertKeepsColumnsOfInsert() {
+        // Rows with the columns of a sync pull between rows with only the pet columns.
+        ContentValues[] pets = mDataset.pets(0, 10);
+        for (int row = 3; row < 6; row++) {
+            pets[row].put(PetEntry._ID, 1000 + row);
+            pets[row].put(PetEntry.COLUMN_REMOTE_ID, "remote-" + row);
+            pets[row].put(PetEntry.COLUMN_REMOTE_VERSION, row);
+        }
+        assertEquals(10, mProvider.bulkInsert(PetEntry.CONTENT_URI, pets));
+
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] {
+                PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_REMOTE_ID, PetEntry.COLUMN_REMOTE_VERSION
+        }, PetEntry.COLUMN_REMOTE_ID + " IS NOT NULL", null, PetEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            for (int row = 3; cursor.moveToNext(); row++) {
+                assertEquals(1000 + row, cursor.getLong(0));
+                assertEquals(pets[row].getAsString(PetEntry.COLUMN_PET_NAME), cursor.getString(1));
+                assertEquals("remote-" + row, cursor.getString(2));
+                assertEquals(row, cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(10, countPets());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkInsertRejectsInvalidPet() {
+        ContentValues[] pets = mDataset.pets(0, 10);
+        pets[5].putNull(PetEntry.COLUMN_PET_NAME);
+        try {
+            mProvider.bulkInsert(PetEntry.CONTENT_URI, pets);
+        } finally {
+            // Nothing of the batch is inserted.
+            assertEquals(0, countPets());
+        }
+    }
+
+    @Test
+    public void updatedPetIsQueried() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(0));
+        ContentValues pet = mDataset.pet(1);
+
+        assertEquals(1, mProvider.update(uri, pet, null, null));
+        assertPet(pet, uri);
+
+        ContentValues weight = new ContentValues();
+        weight.put(PetEntry.COLUMN_PET_WEIGHT, 12);
+        pet.put(PetEntry.COLUMN_PET_WEIGHT, 12);
+        assertEquals(1, mProvider.update(uri, weight, null, null));
+        assertPet(pet, uri);
+    }
+
+    @Test
+    public void deletedPetIsNotQueried() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(0));
+        mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(1));
+
+        assertEquals(1, mProvider.delete(uri, null, null));
+        assertEquals(0, mProvider.delete(uri, null, null));
+        assertEquals(0, mProvider.update(uri, mDataset.pet(2), null, null));
+        assertEquals(1, countPets());
+
+        Cursor cursor = mProvider.query(uri, PROJECTION, null, null, null);
+        try {
+            assertFalse(cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void appliedBatchIsQueried() throws Exception {
+        Uri kept = mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(0));
+        Uri deleted = mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(1));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(mDataset.pet(2)).build());
+        operations.add(ContentProviderOperation.newUpdate(kept).withValues(mDataset.pet(3)).build());
+        operations.add(ContentProviderOperation.newDelete(deleted).build());
+        ContentProviderResult[] results = mProvider.applyBatch(operations);
+
+        assertEquals(3, results.length);
+        assertPet(mDataset.pet(2), results[0].uri);
+        assertPet(mDataset.pet(3), kept);
+        assertEquals(2, countPets());
+    }
+
+    /**
+     * Check that the pet of the given URI has the given values.
+     */
+    private void assertPet(ContentValues expected, Uri uri) {
+        Cursor cursor = mProvider.query(uri, PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(ContentUris.parseId(uri), cursor.getLong(0));
+            assertPet(expected, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that the current row of the cursor has the given values.
+     */
+    private static void assertPet(ContentValues expected, Cursor cursor) {
+        assertEquals(expected.getAsString(PetEntry.COLUMN_PET_NAME), cursor.getString(1));
+        assertEquals(expected.getAsString(PetEntry.COLUMN_PET_BREED), cursor.getString(2));
+        assertEquals((int) expected.getAsInteger(PetEntry.COLUMN_PET_GENDER), cursor.getInt(3));
+        assertEquals((int) expected.getAsInteger(PetEntry.COLUMN_PET_WEIGHT), cursor.getInt(4));
+    }
+}
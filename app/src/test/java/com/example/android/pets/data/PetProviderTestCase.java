@@ -0,0 +1,67 @@
+package com.example.android.pets.data;
+
+import android.app.Application;
+import android.database.DatabaseUtils;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.benchmark.BenchmarkDataset;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Base of the tests and benchmarks which run against a {@link PetProvider} with an empty
+ * database of its own, on a plain JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+// The plain application, as the debug StrictMode policy forbids the provider calls made here.
+@Config(constants = BuildConfig.class, sdk = 23, application = Application.class)
+public abstract class PetProviderTestCase {
+    /** Seed of the synthetic pets, fixed so every run uses the same pets. */
+    protected static final long SEED = 42;
+
+    /** Number of pets inserted per transaction by {@link #fill(int, int)}. */
+    private static final int FILL_CHUNK = 10000;
+
+    protected final BenchmarkDataset mDataset = new BenchmarkDataset(SEED);
+    protected PetProvider mProvider;
+
+    @Before
+    public void setUpProvider() throws Exception {
+        mProvider = Robolectric.buildContentProvider(PetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+    }
+
+    /**
+     * Insert the synthetic pets of the given rows, a chunk per transaction.
+     */
+    protected void fill(int firstRow, int count) {
+        for (int row = firstRow; row < firstRow + count; row += FILL_CHUNK) {
+            mProvider.bulkInsert(PetEntry.CONTENT_URI,
+                    mDataset.pets(row, Math.min(FILL_CHUNK, firstRow + count - row)));
+        }
+    }
+
+    /**
+     * Return the number of pets which have not been deleted.
+     */
+    protected long countPets() {
+        return DatabaseUtils.queryNumEntries(mProvider.mDbHelper.getReadableDatabase(), PetEntry.TABLE_NAME,
+                PetDbHelper.SELECTION_NOT_DELETED);
+    }
+
+    /**
+     * Run the loads and notifications waiting on the background and main threads.
+     */
+    protected static void runPendingTasks() {
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+}
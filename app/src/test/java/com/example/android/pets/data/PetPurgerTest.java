@@ -0,0 +1,205 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link PetPurger} removes the rows of deleted pets in chunks of bounded size
+ * and duration, and that deleted pets are hidden from every read of the provider from the
+ * delete on, before and while their rows are purged.
+ */
+public class PetPurgerTest extends PetProviderTestCase {
+    /** Number of pets in the database before the deletes. */
+    private static final int PETS = 1000;
+
+    /** Number of rows removed per transaction in the tests. */
+    private static final int CHUNK_SIZE = 50;
+    /** Longest time a chunk may hold the write lock, generous for slow machines. */
+    private static final long MAX_CHUNK_MILLIS = 1000;
+
+    /** The deleted breed. */
+    private static final String DELETED_BREED = "Labrador";
+
+    private PetPurger mPurger;
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+        mPurger = mProvider.getPurger();
+        mPurger.setChunkSize(CHUNK_SIZE);
+        // The chunks are only purged by the tests, not by the scheduled purge.
+        mPurger.setPauseMillis(TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test
+    public void chunksAreBounded() {
+        // Every pet but each fifth one, so the chunks span gaps of pets which stay.
+        int deleted = mProvider.delete(PetEntry.CONTENT_URI, PetEntry._ID + " % 5 != 0", null);
+        assertEquals(PETS - PETS / 5, deleted);
+
+        int purged = 0;
+        int chunks = 0;
+        while (true) {
+            long start = System.nanoTime();
+            int rows = mPurger.purgeChunk();
+            long millis = (System.nanoTime() - start) / 1000000;
+            if (rows == 0) {
+                break;
+            }
+            assertTrue("Chunk of " + rows + " rows", rows <= CHUNK_SIZE);
+            assertTrue("Chunk took " + millis + " ms", millis <= MAX_CHUNK_MILLIS);
+            purged += rows;
+            chunks++;
+        }
+        assertEquals(deleted, purged);
+        assertEquals((deleted + CHUNK_SIZE - 1) / CHUNK_SIZE, chunks);
+        assertEquals(PETS / 5, countRows());
+    }
+
+    @Test
+    public void chunkSizeMustBePositive() {
+        try {
+            mPurger.setChunkSize(0);
+            fail("Chunk size 0 was accepted");
+        } catch (IllegalArgumentException expected) {
+            // The previous chunk size is kept.
+        }
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+        assertEquals(CHUNK_SIZE, mPurger.purgeChunk());
+    }
+
+    @Test
+    public void deletedPetsAreHiddenUntilPurged() throws IOException {
+        Set<Long> deleted = new HashSet<>(ids(mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                PetEntry.COLUMN_PET_BREED + "=?", new String[] { DELETED_BREED }, null)));
+        assertFalse(deleted.isEmpty());
+        assertEquals(deleted.size(), mProvider.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_BREED + "=?",
+                new String[] { DELETED_BREED }));
+        for (long id = 1; id <= PETS; id += 9) {
+            if (deleted.add(id)) {
+                assertEquals(1, mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null));
+            }
+        }
+
+        // The rows are still there, but no read returns them.
+        assertEquals(PETS, countRows());
+        assertHidden(deleted);
+
+        while (mPurger.purgeChunk() > 0) {
+            assertHidden(deleted);
+        }
+        assertEquals(PETS - deleted.size(), countRows());
+        assertHidden(deleted);
+    }
+
+    /**
+     * Check that none of the given pets is returned by the pets, pet ID, search, statistics
+     * and export reads, and none of them can be updated or deleted again.
+     */
+    private void assertHidden(Set<Long> deleted) throws IOException {
+        Set<Long> visible = ids(mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID }, null, null, null));
+        assertEquals(PETS - deleted.size(), visible.size());
+        for (long id : deleted) {
+            assertFalse("Pet " + id, visible.contains(id));
+        }
+
+        for (long id : deleted) {
+            Cursor cursor = mProvider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    new String[] { PetEntry._ID }, null, null, null);
+            try {
+                assertEquals("Pet " + id, 0, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 1);
+            assertEquals("Pet " + id, 0, mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    values, null, null));
+            assertEquals("Pet " + id, 0, mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null));
+        }
+
+        Set<Long> found = ids(mProvider.query(PetEntry.buildSearchUri(DELETED_BREED), new String[] { PetEntry._ID },
+                null, null, null));
+        assertTrue(String.valueOf(found), found.isEmpty());
+        for (String name : new String[] { "Tommy", "Bella", "Max", "Luna" }) {
+            found = ids(mProvider.query(PetEntry.buildSearchUri(name), new String[] { PetEntry._ID }, null, null, null));
+            assertFalse(name, found.isEmpty());
+            for (long id : found) {
+                assertTrue("Pet " + id, visible.contains(id));
+            }
+        }
+
+        Cursor stats = mProvider.query(PetStatsEntry.CONTENT_URI, new String[] { PetStatsEntry.COLUMN_PET_COUNT },
+                null, null, null);
+        try {
+            assertTrue(stats.moveToFirst());
+            assertEquals(visible.size(), stats.getInt(0));
+        } finally {
+            stats.close();
+        }
+        Cursor breeds = mProvider.query(PetStatsEntry.CONTENT_BREED_URI, new String[] { PetStatsEntry.COLUMN_BREED },
+                PetStatsEntry.COLUMN_BREED + "=?", new String[] { DELETED_BREED }, null);
+        try {
+            assertEquals(0, breeds.getCount());
+        } finally {
+            breeds.close();
+        }
+
+        assertEquals(visible, exportedIds());
+    }
+
+    /**
+     * Return the IDs of the pets exported as CSV.
+     */
+    private Set<Long> exportedIds() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PetExporter(mProvider).export(out, new PetExporter.Options(PetContract.FORMAT_CSV, false));
+        String[] lines = out.toString("UTF-8").split("\r?\n");
+        Set<Long> ids = new HashSet<>();
+        // After the header row, the ID is the first column.
+        for (int line = 1; line < lines.length; line++) {
+            if (!lines[line].isEmpty()) {
+                assertTrue(lines[line], ids.add(Long.parseLong(lines[line].substring(0, lines[line].indexOf(',')))));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Return the number of rows in the pets table, including the rows of deleted pets.
+     */
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mProvider.mDbHelper.getReadableDatabase(), PetEntry.TABLE_NAME);
+    }
+
+    private static Set<Long> ids(Cursor cursor) {
+        Set<Long> ids = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetWeightEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@code EXPLAIN QUERY PLAN} for the filters and sort orders of the queries of
+ * {@link PetProvider}, built the same way as the provider builds them, including the
+ * filter of deleted pets. Every query has to find its rows through an index or the
+ * primary key, and sorted queries have to read them in order instead of sorting them.
+ */
+public class PetQueryPlanTest extends PetProviderTestCase {
+    /** Columns of the catalog list. */
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED
+    };
+
+    /** Selections of the pets URI, each with as many arguments as it has parameters. */
+    private static final String[] FILTERS = {
+            PetEntry.COLUMN_PET_NAME + "=?",
+            PetEntry.COLUMN_PET_NAME + ">=? AND " + PetEntry.COLUMN_PET_NAME + "<?",
+            PetEntry.COLUMN_PET_NAME + "=? AND " + PetEntry.COLUMN_PET_BREED + "=?",
+            PetEntry.COLUMN_PET_BREED + "=?",
+            PetEntry.COLUMN_PET_BREED + " IS NULL",
+            PetEntry.COLUMN_PET_GENDER + "=?",
+            PetEntry.COLUMN_PET_GENDER + "=? AND " + PetEntry.COLUMN_PET_WEIGHT + ">?",
+            PetEntry.COLUMN_PET_WEIGHT + ">?",
+            PetEntry.COLUMN_PET_WEIGHT + " BETWEEN ? AND ?",
+            PetEntry._ID + " IN (?, ?)"
+    };
+
+    /** Sort orders of the pets URI. */
+    private static final String[] SORT_ORDERS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_NAME + " DESC",
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_WEIGHT + " DESC"
+    };
+
+    /** Selections of the pets URI with a sort order which the index of the selection also covers. */
+    private static final String[][] FILTERED_SORT_ORDERS = {
+            { PetEntry.COLUMN_PET_NAME + ">=?", PetEntry.COLUMN_PET_NAME },
+            { PetEntry.COLUMN_PET_BREED + "=?", PetEntry.COLUMN_PET_NAME },
+            { PetEntry.COLUMN_PET_GENDER + "=?", PetEntry.COLUMN_PET_WEIGHT },
+            { PetEntry.COLUMN_PET_GENDER + "=?", PetEntry.COLUMN_PET_WEIGHT + " DESC" },
+            { PetEntry.COLUMN_PET_WEIGHT + ">?", PetEntry.COLUMN_PET_WEIGHT }
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        fill(0, 100);
+        mDb = mProvider.mDbHelper.getReadableDatabase();
+    }
+
+    @Test
+    public void filtersUseIndexes() {
+        for (String filter : FILTERS) {
+            assertPlan(queryPets(filter, null, null), false);
+        }
+    }
+
+    @Test
+    public void sortOrdersUseIndexes() {
+        for (String sortOrder : SORT_ORDERS) {
+            assertPlan(queryPets(null, sortOrder, null), true);
+        }
+    }
+
+    @Test
+    public void filteredSortOrdersUseIndexes() {
+        for (String[] query : FILTERED_SORT_ORDERS) {
+            assertPlan(queryPets(query[0], query[1], null), true);
+        }
+    }
+
+    @Test
+    public void pageUsesPrimaryKey() {
+        // As the provider builds a page of the catalog.
+        String selection = DatabaseUtils.concatenateWhere(null, PetEntry._ID + ">?");
+        assertPlan(queryPets(selection, PetEntry._ID + " ASC", "100"), true);
+    }
+
+    @Test
+    public void petIdUsesPrimaryKey() {
+        assertPlan(PetProvider.SQL_QUERY_PET, false);
+        assertPlan(SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, CATALOG_PROJECTION,
+                PetProvider.SELECTION_ID, null, null, null, null), false);
+    }
+
+    @Test
+    public void searchUsesFullTextIndex() {
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(PetProvider.SEARCH_TABLES);
+        String sql = queryBuilder.buildQuery(new String[] { PetEntry.TABLE_NAME + "." + PetEntry._ID },
+                PetDbHelper.SEARCH_TABLE_NAME + " MATCH ?", null, null, PetProvider.SEARCH_SORT_ORDER, null);
+
+        List<String> plan = explain(sql);
+        for (String step : plan) {
+            // Index 0 of a full-text table is a scan of all of its rows.
+            assertFalse(sql + "\n" + plan, step.matches(".*VIRTUAL TABLE INDEX 0:.*"));
+        }
+        // The matches are ranked, so only they are sorted, and each pet is read by its ID.
+        assertNoTableScan(sql, plan);
+        assertUsesIndex(sql, plan, PetEntry.TABLE_NAME);
+    }
+
+    @Test
+    public void weightsUseIndexes() {
+        String selection = PetProvider.SELECTION_WEIGHTS_OF_PET + " AND " +
+                PetWeightEntry.COLUMN_MEASURED_AT + ">=? AND " + PetWeightEntry.COLUMN_MEASURED_AT + "<?";
+        assertPlan(SQLiteQueryBuilder.buildQueryString(false, PetWeightEntry.TABLE_NAME, null, selection,
+                null, null, PetWeightEntry.COLUMN_MEASURED_AT, null), true);
+
+        String rollupSelection = DatabaseUtils.concatenateWhere(PetDbHelper.COLUMN_PERIOD + "=?",
+                PetProvider.SELECTION_WEIGHTS_OF_PET + " AND " + PetWeightEntry.COLUMN_PERIOD_START + ">=? AND " +
+                PetWeightEntry.COLUMN_PERIOD_START + "<?");
+        assertPlan(SQLiteQueryBuilder.buildQueryString(false, PetDbHelper.WEIGHT_ROLLUPS_TABLE_NAME, null,
+                rollupSelection, null, null, PetWeightEntry.COLUMN_PERIOD_START, null), true);
+    }
+
+    @Test
+    public void statsDoNotReadPets() {
+        for (String tables : new String[] { PetProvider.STATS_TABLES, PetProvider.STATS_GENDER_TABLES,
+                PetDbHelper.BREED_STATS_TABLE_NAME }) {
+            String sql = SQLiteQueryBuilder.buildQueryString(false, tables, null, null, null, null, null, null);
+            List<String> plan = explain(sql);
+            for (String step : plan) {
+                assertFalse(sql + "\n" + plan, step.matches(".*\\b" + PetEntry.TABLE_NAME + "\\b.*"));
+            }
+        }
+    }
+
+    /**
+     * Return the query of the pets URI with the given selection, as built by the provider.
+     */
+    private static String queryPets(String selection, String sortOrder, String limit) {
+        return SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, CATALOG_PROJECTION,
+                DatabaseUtils.concatenateWhere(selection, PetDbHelper.SELECTION_NOT_DELETED), null, null,
+                sortOrder, limit);
+    }
+
+    /**
+     * Check that the query reads the pets through an index or the primary key, and, if it is
+     * sorted, reads them in order.
+     */
+    private void assertPlan(String sql, boolean sorted) {
+        List<String> plan = explain(sql);
+        assertNoTableScan(sql, plan);
+        assertUsesIndex(sql, plan, null);
+        if (sorted) {
+            for (String step : plan) {
+                assertFalse(sql + "\n" + plan, step.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    /**
+     * Check that no step of the plan reads a whole table without an index.
+     */
+    private static void assertNoTableScan(String sql, List<String> plan) {
+        for (String step : plan) {
+            boolean tableScan = step.startsWith("SCAN ") && !step.contains(" USING ") && !step.contains("VIRTUAL TABLE");
+            assertFalse(sql + "\n" + plan, tableScan);
+        }
+    }
+
+    /**
+     * Check that a step of the plan, of the given table or of any table if null, reads rows
+     * through an index or the primary key.
+     */
+    private static void assertUsesIndex(String sql, List<String> plan, String table) {
+        boolean usesIndex = false;
+        for (String step : plan) {
+            if (table != null && !step.matches("(SCAN|SEARCH) (TABLE )?" + table + "\\b.*")) {
+                continue;
+            }
+            usesIndex |= step.contains(" USING INDEX ") || step.contains(" USING COVERING INDEX ") ||
+                    step.contains(" USING INTEGER PRIMARY KEY ") || step.contains(" USING PRIMARY KEY ");
+        }
+        assertTrue(sql + "\n" + plan, usesIndex);
+    }
+
+    /**
+     * Return the details of the steps of the query plan of the given query. Every parameter
+     * is bound to 1, as the plan does not depend on the values.
+     */
+    private List<String> explain(String sql) {
+        String[] args = new String[sql.length() - sql.replace("?", "").length()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "1";
+        }
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a restore waits for the work running on the database before it closes and
+ * replaces the database file, and that the background workers keep working across restores.
+ */
+public class PetRestoreTest extends PetProviderTestCase {
+    /** Number of pets in the snapshot. */
+    private static final int PETS = 300;
+    /** Number of restores while the workers run. */
+    private static final int RESTORES = 5;
+
+    private String mSnapshotId;
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+        Bundle snapshot = mProvider.call(PetContract.METHOD_BACKUP, null, null);
+        mSnapshotId = snapshot.getString(PetContract.KEY_SNAPSHOT_ID);
+        fill(PETS, 100);
+    }
+
+    @Test
+    public void restoreWaitsForRunningWork() throws Exception {
+        final CountDownLatch using = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.mDbHelper.beginUse();
+                try {
+                    using.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    mProvider.mDbHelper.endUse();
+                }
+            }
+        }, "worker");
+        worker.start();
+        assertTrue(using.await(10, TimeUnit.SECONDS));
+
+        final AtomicBoolean restored = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread restorer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mProvider.call(PetContract.METHOD_RESTORE, mSnapshotId, null);
+                    restored.set(true);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "restorer");
+        restorer.start();
+
+        // The database must not be replaced while it is in use.
+        restorer.join(500);
+        assertFalse(restored.get());
+        release.countDown();
+        worker.join();
+        restorer.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertTrue(restored.get());
+        assertEquals(PETS, countPets());
+    }
+
+    @Test
+    public void workersContinueAcrossRestores() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread workers = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long id = 1;
+                    while (running.get()) {
+                        // The work of the purger, the change log, the type-ahead and the writer.
+                        mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id++), null, null);
+                        mProvider.getPurger().purgeChunk();
+                        mProvider.getChangeLog().compactChunk();
+                        mProvider.getTypeAhead().rebuild();
+                        mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(PETS + 100 + id));
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "workers");
+        workers.start();
+        for (int restore = 0; restore < RESTORES && failure.get() == null; restore++) {
+            mProvider.call(PetContract.METHOD_RESTORE, mSnapshotId, null);
+        }
+        running.set(false);
+        workers.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+}
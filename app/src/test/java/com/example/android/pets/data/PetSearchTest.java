@@ -0,0 +1,160 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the full-text search finds the same pets as matching the beginnings of the
+ * name and breed words with LIKE, also after pets have been updated, deleted and purged
+ * through the triggers of the search table.
+ */
+public class PetSearchTest extends PetProviderTestCase {
+    /** Number of pets in the database. */
+    private static final int PETS = 500;
+
+    /** Queries of one or more word beginnings, in any case. */
+    private static final String[] QUERIES = {
+            "t", "to", "Tommy", "bel", "MAX", "lu", "1", "12", "123", "49",
+            "lab", "pit", "maine", "coon", "maine co", "tommy 1", "bella lab", "siam", "zzz", "", "  "
+    };
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+    }
+
+    @Test
+    public void searchMatchesLike() {
+        assertSearchMatchesLike();
+    }
+
+    @Test
+    public void searchMatchesLikeAfterUpdates() {
+        for (int id = 1; id <= PETS; id += 7) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, "Zelda " + id);
+            if (id % 2 == 0) {
+                values.putNull(PetEntry.COLUMN_PET_BREED);
+            } else {
+                values.put(PetEntry.COLUMN_PET_BREED, "Maine Coon");
+            }
+            assertEquals(1, mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), values, null, null));
+        }
+        // A full update through the compiled statement.
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 2), mDataset.pet(PETS),
+                null, null));
+        assertSearchMatchesLike();
+        assertFalse(search("zelda").isEmpty());
+    }
+
+    @Test
+    public void searchMatchesLikeAfterDeletes() {
+        for (int id = 1; id <= PETS; id += 5) {
+            assertEquals(1, mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null));
+        }
+        mProvider.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_BREED + "=?", new String[] { "Labrador" });
+        assertSearchMatchesLike();
+        assertTrue(search("lab").isEmpty());
+
+        // Purging the deleted rows must not change the search again.
+        PetPurger purger = mProvider.getPurger();
+        while (purger.purgeChunk() > 0) {
+            assertSearchMatchesLike();
+        }
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, mDataset.pets(PETS, 100));
+        assertSearchMatchesLike();
+    }
+
+    @Test
+    public void namesStartingWithFirstWordComeFirst() {
+        Cursor cursor = mProvider.query(PetEntry.buildSearchUri("b"),
+                new String[] { PetEntry._ID, PetEntry.COLUMN_PET_NAME }, null, null, null);
+        try {
+            boolean otherMatches = false;
+            while (cursor.moveToNext()) {
+                boolean nameMatches = cursor.getString(1).toLowerCase(Locale.ROOT).startsWith("b");
+                assertFalse("Name match after other matches", nameMatches && otherMatches);
+                otherMatches |= !nameMatches;
+            }
+            assertTrue(otherMatches);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSearchMatchesLike() {
+        for (String query : QUERIES) {
+            assertEquals(query, like(query), search(query));
+        }
+    }
+
+    /**
+     * Return the IDs of the pets found by the search URI.
+     */
+    private Set<Long> search(String query) {
+        Cursor cursor = mProvider.query(PetEntry.buildSearchUri(query), new String[] { PetEntry._ID },
+                null, null, null);
+        return readIds(cursor);
+    }
+
+    /**
+     * Return the IDs of the pets with every word of the query at the beginning of a word of
+     * their name or breed, found with LIKE through the pets URI.
+     */
+    private Set<Long> like(String query) {
+        StringBuilder selection = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append('(');
+            for (String column : new String[] { PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED }) {
+                if (selection.charAt(selection.length() - 1) != '(') {
+                    selection.append(" OR ");
+                }
+                selection.append(column).append(" LIKE ? OR ").append(column).append(" LIKE ?");
+                selectionArgs.add(word + "%");
+                selectionArgs.add("% " + word + "%");
+            }
+            selection.append(')');
+        }
+        if (selection.length() == 0) {
+            return new HashSet<>();
+        }
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID }, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null);
+        return readIds(cursor);
+    }
+
+    private static Set<Long> readIds(Cursor cursor) {
+        Set<Long> ids = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                assertTrue("Pet found twice", ids.add(cursor.getLong(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that the single-row writes of {@link PetStatements} do not deadlock with the bulk
+ * writes which hold the database connection in a transaction while they use the same
+ * statements.
+ */
+public class PetStatementsTest extends PetProviderTestCase {
+    /** Number of pets in the database before the writes. */
+    private static final int PETS = 2000;
+    /** Number of rounds of each writer. */
+    private static final int ROUNDS = 50;
+    /** Number of pets written per round. */
+    private static final int ROWS = 20;
+    /** Longest time the writers may take, generous for slow machines. */
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+    }
+
+    @Test
+    public void singleWritesDoNotDeadlockWithBulkWrites() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread bulkWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        // An import and a sync pull, as run in the background.
+                        mProvider.bulkInsert(PetEntry.CONTENT_URI, mDataset.pets(PETS + round * ROWS, ROWS));
+                        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                        for (int row = 0; row < ROWS; row++) {
+                            operations.add(ContentProviderOperation.newDelete(ContentUris.withAppendedId(
+                                    PetEntry.CONTENT_URI, 1 + round * ROWS + row)).build());
+                        }
+                        mProvider.applyBatch(operations);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, "bulk writer");
+        Thread singleWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        // The saves and deletes of the editor.
+                        for (int row = 0; row < ROWS; row++) {
+                            long id = PETS - round * ROWS - row;
+                            mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(2 * PETS + round * ROWS + row));
+                            mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                                    mDataset.pet(3 * PETS + row), null, null);
+                            mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, "single writer");
+        bulkWriter.start();
+        singleWriter.start();
+        bulkWriter.join(TIMEOUT_MILLIS);
+        singleWriter.join(TIMEOUT_MILLIS);
+        assertFalse("The bulk writer is stuck", bulkWriter.isAlive());
+        assertFalse("The single writer is stuck", singleWriter.isAlive());
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs random inserts, updates, deletes, purges, backups and restores through the provider,
+ * and checks after each of them that the summary tables kept by the triggers hold the same
+ * statistics as computed again from the pets which have not been deleted.
+ */
+public class PetStatsTest extends PetProviderTestCase {
+    /** Number of pets in the database before the random writes. */
+    private static final int PETS = 200;
+    /** Number of random writes. */
+    private static final int OPS = 400;
+    /** Breeds written by the random updates, the empty one for pets without a breed. */
+    private static final String[] BREEDS = { "Labrador", "Beagle", "Tabby", "Siamese", "Maine Coon", "" };
+
+    /** The summaries per gender, per breed and per weight, in the column order of the tables. */
+    private static final String SQL_GENDER_STATS = "SELECT " + PetStatsEntry.COLUMN_GENDER + ", " +
+            PetStatsEntry.COLUMN_PET_COUNT + ", " + PetDbHelper.COLUMN_WEIGHT_SUM + " FROM " +
+            PetDbHelper.GENDER_STATS_TABLE_NAME + " ORDER BY 1";
+    private static final String SQL_BREED_STATS = "SELECT " + PetStatsEntry.COLUMN_BREED + ", " +
+            PetStatsEntry.COLUMN_PET_COUNT + " FROM " + PetDbHelper.BREED_STATS_TABLE_NAME + " ORDER BY 1";
+    private static final String SQL_WEIGHT_STATS = "SELECT " + PetEntry.COLUMN_PET_WEIGHT + ", " +
+            PetStatsEntry.COLUMN_PET_COUNT + " FROM " + PetDbHelper.WEIGHT_STATS_TABLE_NAME + " ORDER BY 1";
+
+    /** The same summaries computed from the pets. */
+    private static final String SQL_GENDER_RECOMPUTED = "SELECT " + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM(" +
+            PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SELECTION_NOT_DELETED +
+            " GROUP BY 1 ORDER BY 1";
+    private static final String SQL_BREED_RECOMPUTED = "SELECT IFNULL(" + PetEntry.COLUMN_PET_BREED + ", ''), COUNT(*) FROM " +
+            PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SELECTION_NOT_DELETED + " GROUP BY 1 ORDER BY 1";
+    private static final String SQL_WEIGHT_RECOMPUTED = "SELECT " + PetEntry.COLUMN_PET_WEIGHT + ", COUNT(*) FROM " +
+            PetEntry.TABLE_NAME + " WHERE " + PetDbHelper.SELECTION_NOT_DELETED + " GROUP BY 1 ORDER BY 1";
+    private static final String SQL_TOTALS_RECOMPUTED = "SELECT COUNT(*), AVG(" + PetEntry.COLUMN_PET_WEIGHT + "), MIN(" +
+            PetEntry.COLUMN_PET_WEIGHT + "), MAX(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME +
+            " WHERE " + PetDbHelper.SELECTION_NOT_DELETED;
+
+    private static final String[] TOTALS_PROJECTION = {
+            PetStatsEntry.COLUMN_PET_COUNT, PetStatsEntry.COLUMN_AVERAGE_WEIGHT,
+            PetStatsEntry.COLUMN_MIN_WEIGHT, PetStatsEntry.COLUMN_MAX_WEIGHT
+    };
+
+    @Test
+    public void statsMatchRecomputationAfterRandomWrites() {
+        fill(0, PETS);
+        assertStatsMatch("fill");
+
+        Random random = new Random(SEED);
+        PetPurger purger = mProvider.getPurger();
+        List<String> snapshotIds = new ArrayList<>();
+        int nextRow = PETS;
+        for (int op = 0; op < OPS; op++) {
+            long id = 1 + random.nextInt(nextRow);
+            int kind = random.nextInt(100);
+            String step;
+            if (kind < 25) {
+                step = "insert";
+                mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(nextRow++));
+            } else if (kind < 35) {
+                step = "bulk insert";
+                int count = 1 + random.nextInt(20);
+                mProvider.bulkInsert(PetEntry.CONTENT_URI, mDataset.pets(nextRow, count));
+                nextRow += count;
+            } else if (kind < 50) {
+                step = "update of " + id;
+                mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), randomChange(random), null, null);
+            } else if (kind < 55) {
+                step = "full update of " + id;
+                mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                        mDataset.pet(random.nextInt(nextRow)), null, null);
+            } else if (kind < 60) {
+                step = "update of a breed";
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(80));
+                mProvider.update(PetEntry.CONTENT_URI, values, PetEntry.COLUMN_PET_BREED + "=?",
+                        new String[] { randomBreed(random) });
+            } else if (kind < 75) {
+                step = "delete of " + id;
+                mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null);
+            } else if (kind < 80) {
+                step = "delete of a gender and weight";
+                mProvider.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_GENDER + "=? AND " +
+                        PetEntry.COLUMN_PET_WEIGHT + ">?", new String[] {
+                        String.valueOf(random.nextInt(3)), String.valueOf(60 + random.nextInt(20)) });
+            } else if (kind < 90) {
+                step = "purge";
+                purger.setChunkSize(1 + random.nextInt(50));
+                purger.purgeChunk();
+            } else if (kind < 95 || snapshotIds.isEmpty()) {
+                step = "backup";
+                Bundle snapshot = mProvider.call(PetContract.METHOD_BACKUP, null, null);
+                snapshotIds.add(snapshot.getString(PetContract.KEY_SNAPSHOT_ID));
+            } else {
+                String snapshotId = snapshotIds.get(random.nextInt(snapshotIds.size()));
+                step = "restore of " + snapshotId;
+                mProvider.call(PetContract.METHOD_RESTORE, snapshotId, null);
+            }
+            assertStatsMatch(op + ": " + step);
+        }
+
+        // Purging the remaining deleted pets must not change the summaries.
+        purger.setChunkSize(PetPurger.DEFAULT_CHUNK_SIZE);
+        while (purger.purgeChunk() > 0) {
+            assertStatsMatch("final purge");
+        }
+    }
+
+    /**
+     * Return a change of one or more of the summarized columns of a pet.
+     */
+    private static ContentValues randomChange(Random random) {
+        ContentValues values = new ContentValues();
+        int columns = 1 + random.nextInt(7);
+        if ((columns & 1) != 0) {
+            values.put(PetEntry.COLUMN_PET_GENDER, random.nextInt(3));
+        }
+        if ((columns & 2) != 0) {
+            String breed = randomBreed(random);
+            if (breed.isEmpty()) {
+                values.putNull(PetEntry.COLUMN_PET_BREED);
+            } else {
+                values.put(PetEntry.COLUMN_PET_BREED, breed);
+            }
+        }
+        if ((columns & 4) != 0) {
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + random.nextInt(80));
+        }
+        return values;
+    }
+
+    private static String randomBreed(Random random) {
+        return BREEDS[random.nextInt(BREEDS.length)];
+    }
+
+    /**
+     * Check that the summary tables, and the statistics URIs which read them, hold the
+     * statistics of the pets which have not been deleted.
+     */
+    private void assertStatsMatch(String step) {
+        SQLiteDatabase db = mProvider.mDbHelper.getReadableDatabase();
+        assertEquals(step + ": genders", rows(db.rawQuery(SQL_GENDER_RECOMPUTED, null)),
+                rows(db.rawQuery(SQL_GENDER_STATS, null)));
+        assertEquals(step + ": breeds", rows(db.rawQuery(SQL_BREED_RECOMPUTED, null)),
+                rows(db.rawQuery(SQL_BREED_STATS, null)));
+        assertEquals(step + ": weights", rows(db.rawQuery(SQL_WEIGHT_RECOMPUTED, null)),
+                rows(db.rawQuery(SQL_WEIGHT_STATS, null)));
+
+        List<List<String>> totals = rows(db.rawQuery(SQL_TOTALS_RECOMPUTED, null));
+        assertEquals(step + ": totals", totals,
+                rows(mProvider.query(PetStatsEntry.CONTENT_URI, TOTALS_PROJECTION, null, null, null)));
+        assertEquals(step + ": breed URI", rows(db.rawQuery(SQL_BREED_RECOMPUTED, null)),
+                rows(mProvider.query(PetStatsEntry.CONTENT_BREED_URI, new String[] {
+                        PetStatsEntry.COLUMN_BREED, PetStatsEntry.COLUMN_PET_COUNT }, null, null,
+                        PetStatsEntry.COLUMN_BREED)));
+    }
+
+    /**
+     * Read every row of the cursor as strings, with averages rounded so the sum and count
+     * of the summaries compare equal to the average of the pets, and close the cursor.
+     */
+    private static List<List<String>> rows(Cursor cursor) {
+        List<List<String>> rows = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                List<String> row = new ArrayList<>();
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    if (cursor.getType(column) == Cursor.FIELD_TYPE_FLOAT) {
+                        row.add(String.format(Locale.ROOT, "%.6f", cursor.getDouble(column)));
+                    } else {
+                        row.add(cursor.getString(column));
+                    }
+                }
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
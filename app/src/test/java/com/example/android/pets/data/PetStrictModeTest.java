@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.StrictMode;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that every write of the provider on the main thread is reported to
+ * {@link StrictMode} as a custom slow call, before anything is written, and that the same
+ * writes on a background thread are not reported.
+ */
+public class PetStrictModeTest extends PetProviderTestCase {
+    /** Number of pets in the database before the writes. */
+    private static final int PETS = 10;
+
+    /** Class of the exception thrown by the death penalty of {@link StrictMode}. */
+    private static final String STRICT_MODE_VIOLATION = "android.os.StrictMode$StrictModeViolation";
+
+    /** A write of the provider. */
+    private interface Write {
+        void run() throws Exception;
+    }
+
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+        mOldPolicy = StrictMode.getThreadPolicy();
+        // Only custom slow calls are detected, and each one throws where it is reported.
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectCustomSlowCalls()
+                .penaltyDeath()
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        StrictMode.setThreadPolicy(mOldPolicy);
+    }
+
+    @Test
+    public void insertIsReported() {
+        assertReported("insert", new Write() {
+            @Override
+            public void run() {
+                mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(PETS));
+            }
+        });
+    }
+
+    @Test
+    public void bulkInsertIsReported() {
+        assertReported("bulkInsert", new Write() {
+            @Override
+            public void run() {
+                mProvider.bulkInsert(PetEntry.CONTENT_URI, mDataset.pets(PETS, 5));
+            }
+        });
+    }
+
+    @Test
+    public void updateIsReported() {
+        assertReported("update", new Write() {
+            @Override
+            public void run() {
+                mProvider.update(petUri(1), mDataset.pet(PETS), null, null);
+            }
+        });
+    }
+
+    @Test
+    public void deleteIsReported() {
+        assertReported("delete", new Write() {
+            @Override
+            public void run() {
+                mProvider.delete(petUri(1), null, null);
+            }
+        });
+    }
+
+    @Test
+    public void applyBatchIsReported() {
+        assertReported("applyBatch", new Write() {
+            @Override
+            public void run() throws Exception {
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                        .withValues(mDataset.pet(PETS)).build());
+                operations.add(ContentProviderOperation.newDelete(petUri(2)).build());
+                mProvider.applyBatch(operations);
+            }
+        });
+    }
+
+    @Test
+    public void importIsReported() {
+        assertReported("importPets", new Write() {
+            @Override
+            public void run() {
+                mProvider.importPets("strict_mode.csv", Arrays.asList(mDataset.pets(PETS, 5)), 5);
+            }
+        });
+    }
+
+    @Test
+    public void writesOnBackgroundThreadAreNotReported() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // The policy of the main thread does not apply here.
+                    StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                            .detectCustomSlowCalls()
+                            .penaltyDeath()
+                            .build());
+                    mProvider.insert(PetEntry.CONTENT_URI, mDataset.pet(PETS));
+                    mProvider.update(petUri(1), mDataset.pet(PETS + 1), null, null);
+                    mProvider.delete(petUri(2), null, null);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "writer");
+        writer.start();
+        writer.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(PETS, countPets());
+    }
+
+    /**
+     * Check that the write throws the death penalty of the slow call it reports, and that it
+     * did not change the pets.
+     */
+    private void assertReported(String operation, Write write) {
+        try {
+            write.run();
+            fail("PetProvider." + operation + " on the main thread was not reported");
+        } catch (RuntimeException e) {
+            // The death penalty of a custom slow call, a hidden class of the framework.
+            assertEquals(operation, STRICT_MODE_VIOLATION, e.getClass().getName());
+        } catch (Exception e) {
+            throw new AssertionError("PetProvider." + operation + " failed with " + e);
+        }
+        StrictMode.setThreadPolicy(mOldPolicy);
+        assertEquals(operation, PETS, countPets());
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+    }
+}
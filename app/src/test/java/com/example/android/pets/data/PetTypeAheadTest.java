@@ -0,0 +1,87 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link PetTypeAhead} drops its trie when the database fails in the background,
+ * so lookups fall back to the full-text search, and builds it again once the database works.
+ */
+public class PetTypeAheadTest extends PetProviderTestCase {
+    /** Number of pets in the database. */
+    private static final int PETS = 200;
+
+    /** True while the database of the type-ahead fails. */
+    private volatile boolean mFailing;
+
+    private PetTypeAhead mTypeAhead;
+
+    @Before
+    public void setUp() {
+        fill(0, PETS);
+        PetDbHelper dbHelper = new PetDbHelper(RuntimeEnvironment.application) {
+            @Override
+            public SQLiteDatabase getReadableDatabase() {
+                if (mFailing) {
+                    throw new SQLiteException("disk I/O error");
+                }
+                return super.getReadableDatabase();
+            }
+        };
+        mTypeAhead = new PetTypeAhead(dbHelper, mProvider.getChangeLog());
+    }
+
+    @Test
+    public void failedBuildFallsBackToSearch() {
+        mFailing = true;
+        assertNull(mTypeAhead.lookup("t", PetTypeAhead.DEFAULT_LIMIT));
+        // As run by the background thread, which must not die.
+        mTypeAhead.applyScheduledChanges();
+        assertFalse(mTypeAhead.isBuilt());
+        assertEquals(0, mTypeAhead.getPetCount());
+        assertNull(mTypeAhead.lookup("t", PetTypeAhead.DEFAULT_LIMIT));
+
+        mFailing = false;
+        mTypeAhead.applyScheduledChanges();
+        assertTrue(mTypeAhead.isBuilt());
+        assertEquals(PETS, mTypeAhead.getPetCount());
+        assertNotNull(mTypeAhead.lookup("t", PetTypeAhead.DEFAULT_LIMIT));
+    }
+
+    @Test
+    public void failedCatchUpDropsTrie() {
+        mTypeAhead.rebuild();
+        assertTrue(mTypeAhead.isBuilt());
+
+        mFailing = true;
+        mTypeAhead.onChangeCommitted(PetEntry.CONTENT_URI);
+        mTypeAhead.applyScheduledChanges();
+        assertFalse(mTypeAhead.isBuilt());
+        assertNull(mTypeAhead.lookup("t", PetTypeAhead.DEFAULT_LIMIT));
+
+        mFailing = false;
+        mTypeAhead.applyScheduledChanges();
+        assertTrue(mTypeAhead.isBuilt());
+    }
+
+    @Test
+    public void suggestFallsBackToSearch() {
+        // The provider's own trie has not been built yet, so the search answers.
+        Bundle result = mProvider.call(PetContract.METHOD_SUGGEST, "t", null);
+        long[] ids = result.getLongArray(PetContract.KEY_PET_IDS);
+        assertEquals(PetTypeAhead.DEFAULT_LIMIT, ids.length);
+    }
+}